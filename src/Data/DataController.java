@@ -10,10 +10,17 @@ import org.json.simple.parser.ParseException;
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -47,6 +54,49 @@ public class DataController
         }
     }
 
+    /**
+     * @brief Llegeix l'inici d'un fitxer
+     * \pre Existeix la ruta path i es valida, max >= 0
+     * \post Retorna els primers min(max, mida del fitxer) bytes del fitxer de la ruta de l'input
+     * \exception DataControllerException : Si no es compleix la precondició es llança excepcio
+     * \param path La ruta del fitxer a llegir
+     * \param max Número màxim de bytes a llegir
+     */
+    public static byte[] readFileHead(Path path, int max) throws DataControllerException
+    {
+        try(InputStream in = Files.newInputStream(path))
+        {
+            return in.readNBytes(max);
+        }
+        catch(IOException e)
+        {
+            throw new DataControllerException("Error reading a file \n[ " + e.toString() + " ]");
+        }
+    }
+
+    /**
+     * @brief Llegeix un tros d'un fitxer
+     * \pre Existeix la ruta path i es valida, pos >= 0, max >= 0
+     * \post Retorna els min(max, mida del fitxer - pos) bytes del fitxer de la ruta de l'input a partir de la posicio pos
+     * \exception DataControllerException : Si no es compleix la precondició es llança excepcio
+     * \param path La ruta del fitxer a llegir
+     * \param pos La posicio on es comenca a llegir
+     * \param max Número màxim de bytes a llegir
+     */
+    public static byte[] readFileAt(Path path, long pos, int max) throws DataControllerException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate((int)Math.max(0, Math.min(max, channel.size()-pos)));
+            while(buffer.hasRemaining() && channel.read(buffer, pos+buffer.position()) > 0);
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+        catch(IOException e)
+        {
+            throw new DataControllerException("Error reading a file \n[ " + e.toString() + " ]");
+        }
+    }
+
     /**
      * @brief Escriu un fitxer en una ruta de destinacio
      * \pre Existeix la ruta path i es valida
@@ -87,6 +137,27 @@ public class DataController
         }
     }
 
+    /**
+     * @brief Escriu els primers len bytes de data en una ruta de destinacio despres de l'ultim byte existent, sense sobreescriure el contigut anterior
+     * \pre Existeix la ruta path i es valida, 0 <= len <= mida de data
+     * \post Carrega els primers len bytes de data en la ruta de destinacio de l'input sense sobreescriure el contigut anterior
+     * \exception DataControllerException : Si no es compleix la precondició es llança excepcio
+     * \param path La ruta del fitxer de sortida
+     * \param data Informacio en forma de byte[]
+     * \param len Numero de bytes a escriure
+     */
+    public static void appendToFile(Path path, byte[] data, int len) throws DataControllerException
+    {
+        try(OutputStream out = Files.newOutputStream(path, StandardOpenOption.APPEND))
+        {
+            out.write(data, 0, len);
+        }
+        catch(IOException e)
+        {
+            throw new DataControllerException("Error appending a file \n[ " + e.toString() + " ]");
+        }
+    }
+
     /**
      * @brief Escriu un fitxer en una ruta de destinacio a partir de la posicio pos
      * \pre Existeix la ruta path i es valida
@@ -111,6 +182,150 @@ public class DataController
         }
     }
 
+    /**
+     * @brief Obte la mida d'un fitxer
+     * \pre Existeix la ruta del fitxer d'entrada es valida
+     * \post Retorna la mida en bytes del fitxer amb ruta path
+     * \exception DataControllerException : Si no es compleix la precondició es llança excepcio
+     * \param path La ruta del fitxer d'entrada
+     */
+    public static long fileSize(Path path) throws DataControllerException
+    {
+        try
+        {
+            return Files.size(path);
+        }
+        catch(IOException e)
+        {
+            throw new DataControllerException("Error reading the size of a file \n[ " + e.toString() + " ]");
+        }
+    }
+
+    /**
+     * @brief Obre un canal de lectura d'un fitxer
+     * \pre Existeix la ruta del fitxer d'entrada es valida
+     * \post Retorna un canal que llegeix el fitxer amb ruta path a partir de la posicio pos. S'ha de tancar amb closeChannel
+     * \exception DataControllerException : Si no es compleix la precondició es llança excepcio
+     * \param path La ruta del fitxer d'entrada
+     * \param pos La posicio on es comenca a llegir
+     */
+    public static FileChannel openReadChannel(Path path, long pos) throws DataControllerException
+    {
+        try
+        {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            channel.position(pos);
+            return channel;
+        }
+        catch(IOException e)
+        {
+            throw new DataControllerException("Error opening a file for reading \n[ " + e.toString() + " ]");
+        }
+    }
+
+    /**
+     * @brief Obre un canal d'escriptura d'un fitxer, despres de l'ultim byte existent
+     * \pre Existeix la ruta path i es valida
+     * \post Retorna un canal que escriu al final del fitxer amb ruta path, sense sobreescriure el contingut anterior. S'ha de tancar amb closeChannel
+     * \exception DataControllerException : Si no es compleix la precondició es llança excepcio
+     * \param path La ruta del fitxer de sortida
+     */
+    public static FileChannel openAppendChannel(Path path) throws DataControllerException
+    {
+        try
+        {
+            return FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        catch(IOException e)
+        {
+            throw new DataControllerException("Error opening a file for writing \n[ " + e.toString() + " ]");
+        }
+    }
+
+    /**
+     * @brief Tanca un canal
+     * \pre true
+     * \post S'ha tancat el canal, si no era null
+     * \exception DataControllerException : Si hi ha algun error en tancar el canal es llança excepcio
+     * \param channel El canal a tancar
+     */
+    public static void closeChannel(Channel channel) throws DataControllerException
+    {
+        try
+        {
+            if(channel != null) channel.close();
+        }
+        catch(IOException e)
+        {
+            throw new DataControllerException("Error closing a file \n[ " + e.toString() + " ]");
+        }
+    }
+
+    /**
+     * @brief Crea un fitxer temporal
+     * \pre Existeix la ruta folder i es valida
+     * \post Retorna la ruta d'un fitxer nou i buit dins la carpeta folder, amb un nom que comença per prefix
+     * \exception DataControllerException : Si no es compleix la precondició es llança excepcio
+     * \param folder La ruta de la carpeta on es crea el fitxer
+     * \param prefix Inici del nom del fitxer
+     */
+    public static Path createTempFile(Path folder, String prefix) throws DataControllerException
+    {
+        try
+        {
+            return Files.createTempFile(folder, prefix, ".tmp");
+        }
+        catch(IOException e)
+        {
+            throw new DataControllerException("Error creating a temporary file \n[ " + e.toString() + " ]");
+        }
+    }
+
+    /**
+     * @brief Mou un fitxer a una ruta de destinacio
+     * \pre Existeix la ruta source i es valida, target es una ruta valida de la mateixa unitat
+     * \post El fitxer source s'ha mogut a target, substituint-lo si ja existia. Si el sistema de fitxers ho permet, el canvi es atomic
+     * \exception DataControllerException : Si no es compleix la precondició es llança excepcio
+     * \param source La ruta del fitxer a moure
+     * \param target La ruta de destinacio
+     */
+    public static void moveFile(Path source, Path target) throws DataControllerException
+    {
+        try
+        {
+            try
+            {
+                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch(AtomicMoveNotSupportedException e)
+            {
+                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch(IOException e)
+        {
+            throw new DataControllerException("Error moving a file \n[ " + e.toString() + " ]");
+        }
+    }
+
+    /**
+     * @brief Esborra un fitxer si existeix
+     * \pre True
+     * \post S'ha esborrat el fitxer amb ruta path, si existia i es podia esborrar. Retorna cert si s'ha esborrat
+     * \param path La ruta del fitxer a esborrar
+     */
+    public static boolean deleteFile(Path path)
+    {
+        try
+        {
+            return Files.deleteIfExists(path);
+        }
+        catch(IOException e)
+        {
+            return false;
+        }
+    }
+
     /**
      * @brief Obte informacio de la carpeta de la ruta d'entrada
      * \pre Existeix la ruta d'entrada i es valida
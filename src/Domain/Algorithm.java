@@ -6,6 +6,11 @@ package Domain;
 
 import Global.*;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
 /**
  * @class Algorithm
  * @brief Superclasse abstracta base per als diferents algorismes del compressor
@@ -14,10 +19,17 @@ import Global.*;
 
 abstract class Algorithm
 {
+    /** @brief Cota de la mida comprimida a partir de la qual la compressió a través de memòria escriu fora del heap */
+    private static final int OFFHEAP = 1 << 24;
+
     /** @brief Nom de l'algorisme */
     private String name;
     /** @brief Estadístiques globals de l'algorisme */
     private GlobalStatistics statistics;
+    /** @brief Nivell de compressió actual */
+    private int level;
+    /** @brief Context de compressió de cada fil per a les compressions que no en reben cap */
+    private final ThreadLocal<Context> contexts = ThreadLocal.withInitial(this::newContext);
 
     /**
      * @brief Constructora
@@ -61,6 +73,39 @@ abstract class Algorithm
         return statistics;
     }
 
+    /**
+     * @brief Obtenir el nivell màxim de compressió
+     * \pre true
+     * \post Retorna el nivell de compressió més alt que admet l'algorisme. Per defecte els algorismes només tenen el nivell 0
+     */
+    int getMaxLevel()
+    {
+        return 0;
+    }
+
+    /**
+     * @brief Definir el nivell de compressió
+     * \pre 0 <= level <= getMaxLevel()
+     * \post S'ha assignat el nivell de compressió que s'utilitzarà en les properes compressions
+     * \exception AlgorithmException : Si no es compleix la precondició es llança excepció
+     * \param level Nivell de compressió
+     */
+    void setLevel(int level) throws AlgorithmException
+    {
+        if(level < 0 || level > getMaxLevel()) throw new AlgorithmException("Compression level " + level + " not supported by " + name);
+        this.level = level;
+    }
+
+    /**
+     * @brief Obtenir el nivell de compressió
+     * \pre true
+     * \post Retorna el nivell de compressió actual
+     */
+    int getLevel()
+    {
+        return level;
+    }
+
     /**
      * @brief Comprimir un arxiu
      * \pre true
@@ -110,6 +155,258 @@ abstract class Algorithm
         }
     }
 
+    /**
+     * @brief Crear un context de compressió
+     * \pre true
+     * \post Retorna un context nou per a aquest algorisme, que es pot reutilitzar en successives crides a compress(byte[], ByteArray, Context) des d'un mateix fil
+     */
+    Context newContext()
+    {
+        return new Context();
+    }
+
+    /**
+     * @brief Obtenir el context de compressió del fil actual
+     * \pre No s'està fent servir des d'una altra compressió del mateix fil
+     * \post Retorna el context d'aquest algorisme reservat per al fil actual, creat amb newContext() el primer cop, de manera que les compressions successives no tornen a crear les estructures internes
+     */
+    protected final Context localContext()
+    {
+        return contexts.get();
+    }
+
+    /**
+     * @brief Obtenir la mida màxima del resultat d'una compressió
+     * \pre inputsize >= 0
+     * \post Retorna una cota superior de la mida de les dades comprimides d'una entrada de inputsize bytes amb la configuració actual, o -1 si l'algorisme no en té cap. Un buffer de sortida d'aquesta capacitat no ha de créixer mai
+     * \param inputsize Mida de les dades a comprimir
+     */
+    int maxCompressedSize(int inputsize)
+    {
+        return -1;
+    }
+
+    /**
+     * @brief Comprimir un arxiu sobre un buffer donat
+     * \pre ctx és null o s'ha obtingut amb newContext() d'aquest algorisme i no s'està fent servir des d'un altre fil
+     * \post S'ha buidat output i s'hi ha escrit l'array de bytes d'entrada comprimit amb l'algorisme, reutilitzant les estructures internes de ctx. Si la capacitat de output és almenys maxCompressedSize(mida de input), output no creix. S'han actualitzat les estadístiques globals de l'algorisme. Retorna les estadístiques locals de la compressió
+     * \exception AlgorithmException : Si en el procés intern de compressió hi ha algun error es llança excepció
+     * \param input Dades a comprimir
+     * \param output Buffer on s'escriuen les dades comprimides
+     * \param ctx Context de compressió, o null per fer servir el del fil actual
+     */
+    LocalStatistics compress(final byte[] input, ByteArray output, Context ctx) throws AlgorithmException
+    {
+        try
+        {
+            long start = System.currentTimeMillis();
+            output.clear();
+            specificCompress(input, output, ctx != null ? ctx : localContext());
+            long total = System.currentTimeMillis() - start;
+            LocalStatistics ls = new LocalStatistics(input.length, output.size(), (double)total/1000.0);
+            statistics.addCompressionStatistic(ls);
+            return ls;
+        }
+        catch(RuntimeException | ByteArray.ByteArrayException e)
+        {
+            throw new AlgorithmException("Internal error when compressing \n[ " + e.toString() + " ]");
+        }
+    }
+
+    /**
+     * @brief Comprimir un arxiu des d'un canal
+     * \pre input conté almenys inputsize bytes
+     * \post S'han comprimit els inputsize bytes següents del canal d'entrada i s'han escrit al canal de sortida, i s'han actualitzat les estadístiques globals de l'algorisme. Els algorismes que ho admeten treballen amb buffers de mida fixa, independent de la mida de l'arxiu. Retorna les estadístiques locals de la compressió
+     * \exception AlgorithmException : Si en el procés intern de compressió hi ha algun error, o l'entrada no té inputsize bytes, es llança excepció
+     * \param input Canal amb les dades a comprimir
+     * \param inputsize Número de bytes a comprimir
+     * \param output Canal on s'escriuen les dades comprimides
+     */
+    LocalStatistics compress(ReadableByteChannel input, int inputsize, WritableByteChannel output) throws AlgorithmException
+    {
+        try
+        {
+            long start = System.currentTimeMillis();
+            CountingChannel in = new CountingChannel(input, inputsize);
+            CountingChannel out = new CountingChannel(output);
+            specificCompress(in, inputsize, out);
+            long total = System.currentTimeMillis() - start;
+            if(in.count() != inputsize) throw new AlgorithmException("Input size mismatch when compressing");
+            LocalStatistics ls = new LocalStatistics(inputsize, (int)out.count(), (double)total/1000.0);
+            statistics.addCompressionStatistic(ls);
+            return ls;
+        }
+        catch(RuntimeException | ByteArray.ByteArrayException | IOException e)
+        {
+            throw new AlgorithmException("Internal error when compressing \n[ " + e.toString() + " ]");
+        }
+    }
+
+    /**
+     * @brief Descomprimir un arxiu des d'un canal
+     * \pre input conté almenys inputsize bytes, que representen un fitxer vàlid comprimit
+     * \post S'han descomprimit els inputsize bytes següents del canal d'entrada i s'han escrit al canal de sortida, i s'han actualitzat les estadístiques globals de l'algorisme. Els algorismes que ho admeten treballen amb buffers de mida fixa, independent de la mida de l'arxiu. Retorna les estadístiques locals de la descompressió
+     * \exception AlgorithmException : Si en el procés intern de descompressió hi ha algun error o la sortida no té originalsize bytes es llança excepció
+     * \param input Canal amb les dades a descomprimir
+     * \param inputsize Número de bytes comprimits
+     * \param output Canal on s'escriuen les dades descomprimides
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+    LocalStatistics decompress(ReadableByteChannel input, int inputsize, WritableByteChannel output, int originalsize) throws AlgorithmException
+    {
+        try
+        {
+            long start = System.currentTimeMillis();
+            CountingChannel out = new CountingChannel(output);
+            specificDecompress(new CountingChannel(input, inputsize), inputsize, out, originalsize);
+            long total = System.currentTimeMillis() - start;
+            if(out.count() != originalsize) throw new AlgorithmException("Output size mismatch when decompressing");
+            LocalStatistics ls = new LocalStatistics(originalsize, inputsize, (double)total/1000.0);
+            statistics.addDecompressionStatistic(ls);
+            return ls;
+        }
+        catch(RuntimeException | ByteArray.ByteArrayException | IOException e)
+        {
+            throw new AlgorithmException("Internal error when decompressing \n[ " + e.toString() + " ]");
+        }
+    }
+
+    /**
+     * @brief Comprimir un arxiu des d'un canal, implementació específica
+     * \pre input conté inputsize bytes
+     * \post S'han comprimit les dades del canal d'entrada i s'han escrit al canal de sortida. Per defecte es llegeix tota l'entrada a memòria i es comprimeix amb specificCompress(byte[]); els algorismes que poden treballar per parts ho redefineixen
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \exception IOException : Si hi ha algun error en llegir o escriure els canals es llança excepció
+     * \param input Canal amb les dades a comprimir
+     * \param inputsize Número de bytes a comprimir
+     * \param output Canal on s'escriuen les dades comprimides
+     */
+    protected void specificCompress(ReadableByteChannel input, int inputsize, WritableByteChannel output) throws ByteArray.ByteArrayException, IOException
+    {
+        bufferedCompress(input, inputsize, output);
+    }
+
+    /**
+     * @brief Descomprimir un arxiu des d'un canal, implementació específica
+     * \pre input conté inputsize bytes
+     * \post S'han descomprimit les dades del canal d'entrada i s'han escrit al canal de sortida. Per defecte es llegeix tota l'entrada a memòria i es descomprimeix amb specificDecompress(byte[], int); els algorismes que poden treballar per parts ho redefineixen
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+     * \exception IOException : Si hi ha algun error en llegir o escriure els canals es llança excepció
+     * \param input Canal amb les dades a descomprimir
+     * \param inputsize Número de bytes comprimits
+     * \param output Canal on s'escriuen les dades descomprimides
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+    protected void specificDecompress(ReadableByteChannel input, int inputsize, WritableByteChannel output, int originalsize) throws ByteArray.ByteArrayException, IOException
+    {
+        bufferedDecompress(input, inputsize, output, originalsize);
+    }
+
+    /**
+     * @brief Comprimir un arxiu des d'un canal a través de memòria
+     * \pre input conté inputsize bytes
+     * \post S'ha llegit tota l'entrada a memòria, s'ha comprimit amb specificCompress(byte[]) i s'ha escrit el resultat al canal de sortida. Si la cota de la mida comprimida és prou gran, es comprimeix amb specificCompress(byte[], ByteArray, Context) sobre un ByteArray directe, de manera que la sortida no ocupa el heap i s'escriu al canal sense cap còpia intermèdia
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \exception IOException : Si hi ha algun error en llegir o escriure els canals es llança excepció
+     * \param input Canal amb les dades a comprimir
+     * \param inputsize Número de bytes a comprimir
+     * \param output Canal on s'escriuen les dades comprimides
+     */
+    protected final void bufferedCompress(ReadableByteChannel input, int inputsize, WritableByteChannel output) throws ByteArray.ByteArrayException, IOException
+    {
+        byte[] in = new byte[inputsize];
+        readFully(input, in, 0, inputsize);
+        int bound = maxCompressedSize(inputsize);
+        if(bound >= OFFHEAP)
+        {
+            ByteArray out = ByteArray.direct(bound);
+            specificCompress(in, out, localContext());
+            writeFully(output, out.asByteBuffer());
+            return;
+        }
+        byte[] out = specificCompress(in);
+        writeFully(output, out, 0, out.length);
+    }
+
+    /**
+     * @brief Descomprimir un arxiu des d'un canal a través de memòria
+     * \pre input conté inputsize bytes
+     * \post S'ha llegit tota l'entrada a memòria, s'ha descomprimit amb specificDecompress(byte[], int) i s'ha escrit el resultat al canal de sortida
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+     * \exception IOException : Si hi ha algun error en llegir o escriure els canals es llança excepció
+     * \param input Canal amb les dades a descomprimir
+     * \param inputsize Número de bytes comprimits
+     * \param output Canal on s'escriuen les dades descomprimides
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+    protected final void bufferedDecompress(ReadableByteChannel input, int inputsize, WritableByteChannel output, int originalsize) throws ByteArray.ByteArrayException, IOException
+    {
+        byte[] in = new byte[inputsize];
+        if(readFully(input, in, 0, inputsize) != inputsize) throw new ByteArray.ByteArrayException("truncated input");
+        byte[] out = specificDecompress(in, originalsize);
+        writeFully(output, out, 0, out.length);
+    }
+
+    /**
+     * @brief Comprimir un arxiu sobre un buffer de BufferPool
+     * \pre capacity >= 0
+     * \post S'ha comprimit l'entrada amb specificCompress(byte[], ByteArray, Context) sobre un ByteArray de BufferPool d'almenys "capacity" bytes, que s'hi ha retornat, i amb el context de compressió del fil actual. Retorna una còpia del resultat de la mida exacta
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     * \param capacity Capacitat inicial del buffer
+     */
+    protected final byte[] pooledCompress(final byte[] input, int capacity) throws ByteArray.ByteArrayException
+    {
+        ByteArray out = ByteArray.pooled(capacity);
+        try
+        {
+            specificCompress(input, out, localContext());
+            return out.getArray();
+        }
+        finally
+        {
+            out.release();
+        }
+    }
+
+    /**
+     * @brief Llegir d'un canal
+     * \pre 0 <= off, off+len <= mida de dst
+     * \post S'han llegit del canal fins a len bytes a dst a partir de off. Retorna el número de bytes llegits, que només és menor que len si s'ha arribat al final del canal
+     * \exception IOException : Si hi ha algun error en llegir el canal es llança excepció
+     */
+    static int readFully(ReadableByteChannel channel, byte[] dst, int off, int len) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(dst, off, len);
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer) < 0) break;
+        }
+        return buffer.position()-off;
+    }
+
+    /**
+     * @brief Escriure a un canal
+     * \pre 0 <= off, off+len <= mida de src
+     * \post S'han escrit al canal els len bytes de src a partir de off
+     * \exception IOException : Si hi ha algun error en escriure el canal es llança excepció
+     */
+    static void writeFully(WritableByteChannel channel, byte[] src, int off, int len) throws IOException
+    {
+        writeFully(channel, ByteBuffer.wrap(src, off, len));
+    }
+
+    /**
+     * @brief Escriure un ByteBuffer a un canal
+     * \pre true
+     * \post S'han escrit al canal els bytes entre la posició i el límit de src
+     * \exception IOException : Si hi ha algun error en escriure el canal es llança excepció
+     */
+    static void writeFully(WritableByteChannel channel, ByteBuffer src) throws IOException
+    {
+        while(src.hasRemaining()) channel.write(src);
+    }
+
     /**
      * @brief Comprimir un arxiu, implementació específica
      * \pre true
@@ -129,6 +426,117 @@ abstract class Algorithm
      */
     protected abstract byte[] specificDecompress(final byte[] input, int oiginalsize) throws ByteArray.ByteArrayException;
 
+    /**
+     * @brief Comprimir un arxiu sobre un buffer donat, implementació específica
+     * \pre output és buit, ctx s'ha obtingut amb newContext()
+     * \post S'ha escrit a output l'array de bytes d'entrada comprimit. Per defecte es comprimeix amb specificCompress(byte[]) i es copia el resultat; els algorismes que tenen estructures internes reutilitzables ho redefineixen
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     * \param output Buffer on s'escriuen les dades comprimides
+     * \param ctx Context de compressió
+     */
+    protected void specificCompress(final byte[] input, ByteArray output, Context ctx) throws ByteArray.ByteArrayException
+    {
+        byte[] ret = specificCompress(input);
+        if(ret.length > 0) ByteArray.transfer(new ByteArray(ret), 0, output, -1, ret.length);
+    }
+
+    /**
+     * @class Context
+     * @brief Context de compressió
+     * Guarda les estructures internes d'un algorisme (diccionari, taules de hash, finestra) perquè es buidin i es reutilitzin entre compressions en lloc de tornar-les a crear. Cada algorisme en defineix una subclasse amb les seves estructures; un context no es pot fer servir des de més d'un fil alhora.
+     */
+    static class Context
+    {
+    }
+
+    /**
+     * @class CountingChannel
+     * @brief Canal que compta els bytes que hi passen
+     * Embolcall d'un canal de lectura o d'escriptura que compta els bytes llegits o escrits. En lectura es pot limitar el número de bytes, de manera que l'algorisme no llegeix més enllà de les seves dades encara que el canal en tingui més.
+     */
+    private static class CountingChannel implements ReadableByteChannel, WritableByteChannel
+    {
+        /** @brief Canal de lectura, o null */
+        private final ReadableByteChannel in;
+        /** @brief Canal d'escriptura, o null */
+        private final WritableByteChannel out;
+        /** @brief Número màxim de bytes a llegir */
+        private final long limit;
+        /** @brief Número de bytes llegits o escrits */
+        private long count;
+
+        /**
+         * @brief Constructora de lectura
+         * \pre limit >= 0
+         * \post S'ha creat un canal que llegeix com a màxim limit bytes de in
+         */
+        CountingChannel(ReadableByteChannel in, long limit)
+        {
+            this.in = in;
+            this.out = null;
+            this.limit = limit;
+        }
+
+        /**
+         * @brief Constructora d'escriptura
+         * \pre true
+         * \post S'ha creat un canal que escriu a out
+         */
+        CountingChannel(WritableByteChannel out)
+        {
+            this.in = null;
+            this.out = out;
+            this.limit = Long.MAX_VALUE;
+        }
+
+        /**
+         * @brief Obtenir el número de bytes
+         * \pre true
+         * \post Retorna el número de bytes llegits o escrits
+         */
+        long count()
+        {
+            return count;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException
+        {
+            if(count == limit) return -1;
+            int max = (int)Math.min(dst.remaining(), limit-count);
+            ByteBuffer view = dst.slice();
+            view.limit(max);
+            int n = in.read(view);
+            if(n > 0)
+            {
+                dst.position(dst.position()+n);
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException
+        {
+            int n = out.write(src);
+            count += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return in != null ? in.isOpen() : out.isOpen();
+        }
+
+        @Override
+        public void close()
+        {
+            //the wrapped channel belongs to the caller
+        }
+    }
+
     /**
      * @class AlgorithmException
      * @brief Excepció llançada per els mètodes de la classe Algorithm
@@ -0,0 +1,142 @@
+/**
+ * @file BitReader.java
+ */
+
+package Domain;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * @class BitReader
+ * @brief Lector de bits
+ * Estructura de dades que llegeix valors d'un número arbitrari de bits (com a màxim 32) de manera seqüencial sobre un array de bytes, començant pel bit més significatiu. És el complement de BitWriter.
+ * Els bits pendents es guarden alineats a l'esquerra en un acumulador de 64 bits, que es recarga de 7 bytes en 7 bytes amb una sola lectura de long mentre queden almenys 8 bytes per llegir. Per a la descodificació amb taules es pot consultar el següent tros de bits amb peek i avançar-ne només els bits del codi amb consume.
+ */
+
+class BitReader
+{
+    /** @brief Vista de les dades com a longs big-endian */
+    private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /** @brief Dades d'entrada */
+    private final byte[] data;
+    /** @brief Posició del següent byte a carregar a l'acumulador */
+    private int position;
+    /** @brief Acumulador de bits carregats i no llegits, alineats a l'esquerra */
+    private long acc;
+    /** @brief Número de bits vàlids de l'acumulador */
+    private int bits;
+
+    /**
+     * @brief Constructora
+     * \pre true
+     * \post S'ha creat un lector de bits que comença al primer bit de data
+     * \param data Dades a llegir
+     */
+    BitReader(byte[] data)
+    {
+        this(data, 0);
+    }
+
+    /**
+     * @brief Constructora a partir d'una posició
+     * \pre 0 <= offset <= mida de data
+     * \post S'ha creat un lector de bits que comença al primer bit de data[offset]
+     * \param data Dades a llegir
+     * \param offset Posició del primer byte a llegir
+     */
+    BitReader(byte[] data, int offset)
+    {
+        this.data = data;
+        position = offset;
+        acc = 0;
+        bits = 0;
+    }
+
+    /**
+     * @brief Recarregar l'acumulador
+     * \pre true
+     * \post L'acumulador té almenys 57 bits vàlids, o tots els que queden a les dades si n'hi ha menys
+     */
+    private void refill()
+    {
+        if(position <= data.length-8)
+        {
+            //the bytes beyond the counted ones are also loaded, but they are the same bytes the next refill loads at the same place
+            acc |= (long)LONG_BE.get(data, position) >>> bits;
+            int n = (63-bits) >>> 3;
+            position += n;
+            bits += n << 3;
+        }
+        else
+        {
+            while(bits <= 56 && position < data.length)
+            {
+                acc |= (long)(data[position++] & 0xFF) << (56-bits);
+                bits += 8;
+            }
+        }
+    }
+
+    /**
+     * @brief Consultar bits
+     * \pre 0 <= count <= 32
+     * \post Retorna el valor format pels següents "count" bits, sense avançar. Els bits posteriors al final de les dades valen 0
+     * \param count Número de bits
+     */
+    int peek(int count)
+    {
+        if(bits < count) refill();
+        return (int)((acc >>> 1) >>> (63-count));
+    }
+
+    /**
+     * @brief Avançar bits
+     * \pre 0 <= count <= 32
+     * \post S'avança "count" bits
+     * \exception ByteArrayException : Si no queden prou bits per llegir es llança excepció
+     * \param count Número de bits
+     */
+    void consume(int count) throws ByteArray.ByteArrayException
+    {
+        if(bits < count)
+        {
+            refill();
+            if(bits < count) throw new ByteArray.ByteArrayException("consume(int count) : insufficient bits to read");
+        }
+        acc <<= count;
+        bits -= count;
+    }
+
+    /**
+     * @brief Llegir bits
+     * \pre 0 <= count <= 32
+     * \post Retorna el valor format pels següents "count" bits. S'avança "count" bits
+     * \exception ByteArrayException : Si no queden prou bits per llegir es llança excepció
+     * \param count Número de bits
+     */
+    int read(int count) throws ByteArray.ByteArrayException
+    {
+        if(bits < count)
+        {
+            refill();
+            if(bits < count) throw new ByteArray.ByteArrayException("read(int count) : insufficient bits to read");
+        }
+        int value = (int)((acc >>> 1) >>> (63-count));
+        acc <<= count;
+        bits -= count;
+        return value;
+    }
+
+    /**
+     * @brief Obtenir el número de bits restants
+     * \pre true
+     * \post Retorna el número de bits que queden per llegir, incloent-hi els de farciment de l'últim byte
+     */
+    long remaining()
+    {
+        return bits + 8L*(data.length-position);
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * @file BitWriter.java
+ */
+
+package Domain;
+
+/**
+ * @class BitWriter
+ * @brief Escriptor de bits
+ * Estructura de dades que escriu valors d'un número arbitrari de bits (com a màxim 32) de manera seqüencial, començant pel bit més significatiu. Acumula els bits en un long i els bolca a un ByteArray de 32 en 32.
+ */
+
+class BitWriter
+{
+    /** @brief Dades de sortida */
+    private ByteArray out;
+    /** @brief Acumulador de bits pendents d'escriure */
+    private long acc;
+    /** @brief Número de bits vàlids de l'acumulador */
+    private int bits;
+
+    /**
+     * @brief Constructora
+     * \pre true
+     * \post S'ha creat un escriptor de bits buit
+     */
+    BitWriter()
+    {
+        out = new ByteArray();
+        acc = 0;
+        bits = 0;
+    }
+
+    /**
+     * @brief Constructora sobre una sortida
+     * \pre true
+     * \post S'ha creat un escriptor de bits buit que escriu a continuació de la posició del punter intern de out
+     * \param out Dades de sortida
+     */
+    BitWriter(ByteArray out)
+    {
+        this.out = out;
+        acc = 0;
+        bits = 0;
+    }
+
+    /**
+     * @brief Escriure bits
+     * \pre 0 <= count <= 32
+     * \post S'han escrit els "count" bits menys significatius de value, començant pel més significatiu
+     * \param value Valor a escriure
+     * \param count Número de bits
+     */
+    void write(int value, int count)
+    {
+        acc = (acc << count) | (value & ((1L << count)-1));
+        bits += count;
+        if(bits >= 32)
+        {
+            bits -= 32;
+            out.putInt((int)(acc >>> bits));
+        }
+    }
+
+    /**
+     * @brief Acabar l'escriptura
+     * \pre true
+     * \post S'han escrit els bits pendents, completant l'últim byte amb zeros. Retorna els bytes escrits
+     */
+    byte[] finish()
+    {
+        flush();
+        return out.getArray();
+    }
+
+    /**
+     * @brief Buidar els bits pendents
+     * \pre true
+     * \post S'han escrit a la sortida els bits pendents, completant l'últim byte amb zeros
+     */
+    void flush()
+    {
+        while(bits >= 8)
+        {
+            bits -= 8;
+            out.put((byte)(acc >>> bits));
+        }
+        if(bits > 0)
+        {
+            out.put((byte)(acc << (8-bits)));
+            bits = 0;
+        }
+    }
+}
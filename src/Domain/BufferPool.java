@@ -0,0 +1,170 @@
+/**
+ * @file BufferPool.java
+ */
+
+package Domain;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @class BufferPool
+ * @brief Reserva d'arrays de bytes reutilitzables
+ * Guarda arrays de bytes per classes de mida (potències de 2, de 4 KB a 1 GB) perquè ByteArray i els algorismes els reutilitzin en lloc de crear-ne de nous a cada compressió.
+ * Cada fil en guarda un per classe, fins a 4 MB, sense sincronització; la resta van a una reserva global compartida entre fils i limitada a CAPACITY bytes. Els arrays es reutilitzen sense esborrar, així que el seu contingut inicial és arbitrari. Compta els encerts i les fallades per poder comprovar que en règim estacionari gairebé no es reserva memòria.
+ */
+
+class BufferPool
+{
+    /** @brief Classe de mida més petita (2^MINCLASS bytes) */
+    private static final int MINCLASS = 12;
+    /** @brief Classe de mida més gran (2^MAXCLASS bytes). Els arrays més grans no es guarden */
+    private static final int MAXCLASS = 30;
+    /** @brief Classe de mida més gran que es guarda per fil */
+    private static final int LOCALMAXCLASS = 22;
+    /** @brief Número màxim de bytes guardats a la reserva global */
+    private static final long CAPACITY = Math.min(Runtime.getRuntime().maxMemory()/4, 1L << 28);
+
+    /** @brief Array guardat per fil de cada classe, o null */
+    private static final ThreadLocal<byte[][]> local = ThreadLocal.withInitial(() -> new byte[LOCALMAXCLASS+1][]);
+    /** @brief Arrays guardats a la reserva global de cada classe */
+    private static final ArrayList<ConcurrentLinkedDeque<byte[]>> global = new ArrayList<>();
+    /** @brief Número de bytes guardats a la reserva global */
+    private static final AtomicLong retained = new AtomicLong();
+    /** @brief Número de peticions servides amb un array guardat */
+    private static final LongAdder hits = new LongAdder();
+    /** @brief Número de peticions que han reservat un array nou */
+    private static final LongAdder misses = new LongAdder();
+
+    static
+    {
+        for(int c = 0; c <= MAXCLASS; c++) global.add(new ConcurrentLinkedDeque<>());
+    }
+
+    /**
+     * @brief Constructora
+     * \pre true
+     * \post No es poden crear instàncies
+     */
+    private BufferPool()
+    {
+    }
+
+    /**
+     * @brief Obtenir la classe de mida
+     * \pre n >= 0
+     * \post Retorna la classe de mida més petita amb almenys n bytes (pot ser més gran que MAXCLASS)
+     * \param n Número de bytes
+     */
+    private static int sizeClass(int n)
+    {
+        return n <= (1 << MINCLASS) ? MINCLASS : 32-Integer.numberOfLeadingZeros(n-1);
+    }
+
+    /**
+     * @brief Obtenir un array
+     * \pre min >= 0
+     * \post Retorna un array d'almenys "min" bytes amb contingut arbitrari: un de guardat de la classe de mida corresponent si n'hi ha, o un de nou altrament
+     * \param min Mida mínima de l'array
+     */
+    static byte[] acquire(int min)
+    {
+        int c = sizeClass(min);
+        if(c > MAXCLASS)
+        {
+            misses.increment();
+            return new byte[min];
+        }
+        if(c <= LOCALMAXCLASS)
+        {
+            byte[][] slots = local.get();
+            byte[] b = slots[c];
+            if(b != null)
+            {
+                slots[c] = null;
+                hits.increment();
+                return b;
+            }
+        }
+        byte[] b = global.get(c).pollFirst();
+        if(b != null)
+        {
+            retained.addAndGet(-b.length);
+            hits.increment();
+            return b;
+        }
+        misses.increment();
+        return new byte[1 << c];
+    }
+
+    /**
+     * @brief Retornar un array
+     * \pre Ningú més fa servir b
+     * \post Si b té la mida d'una classe i hi cap, s'ha guardat per reutilitzar-lo; altrament es descarta
+     * \param b Array a retornar, o null
+     */
+    static void release(byte[] b)
+    {
+        if(b == null || Integer.bitCount(b.length) != 1) return;
+        int c = Integer.numberOfTrailingZeros(b.length);
+        if(c < MINCLASS || c > MAXCLASS) return;
+        if(c <= LOCALMAXCLASS)
+        {
+            byte[][] slots = local.get();
+            if(slots[c] == null)
+            {
+                slots[c] = b;
+                return;
+            }
+        }
+        if(retained.addAndGet(b.length) > CAPACITY)
+        {
+            retained.addAndGet(-b.length);
+            return;
+        }
+        global.get(c).offerFirst(b);
+    }
+
+    /**
+     * @brief Obtenir el número d'encerts
+     * \pre true
+     * \post Retorna el número de peticions servides amb un array guardat
+     */
+    static long hits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * @brief Obtenir el número de fallades
+     * \pre true
+     * \post Retorna el número de peticions que han reservat un array nou
+     */
+    static long misses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @brief Obtenir la taxa d'encerts
+     * \pre true
+     * \post Retorna la fracció de peticions servides amb un array guardat, o 0 si no n'hi ha hagut cap
+     */
+    static double hitRate()
+    {
+        long h = hits.sum(), total = h + misses.sum();
+        return total == 0 ? 0.0 : (double)h/total;
+    }
+
+    /**
+     * @brief Obtenir el número de bytes guardats
+     * \pre true
+     * \post Retorna el número de bytes guardats a la reserva global (sense comptar l'array per classe que guarda cada fil)
+     */
+    static long retainedBytes()
+    {
+        return retained.get();
+    }
+}
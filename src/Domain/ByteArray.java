@@ -4,16 +4,44 @@
 
 package Domain;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+
 /**
  * @class ByteArray
  * @brief Estructura de dades ByteArray
  * Estructura de dades que emmagatzema un array de bytes. Proporciona accés sequancial, aleatori i creixement dinàmic. També conté altres mètodes útils addicionals.
+ * Els mètodes d'accés aleatori at, setAt, shortAt i intAt no llancen ByteArrayException: comproven els límits amb Objects.checkIndex (que la JVM tracta com una comprovació intrínseca i pot eliminar dels bucles) i llancen IndexOutOfBoundsException, de manera que els bucles interns dels algorismes no necessiten try/catch. Algorithm converteix aquestes excepcions en AlgorithmException.
+ * Els short, int i long es llegeixen i s'escriuen amb vistes VarHandle sobre l'array base (MethodHandles.byteArrayViewVarHandle), que la JVM compila a una única càrrega o escriptura. Per defecte l'ordre és big-endian; els mètodes acabats en LE fan servir little-endian.
+ * Les dades també es poden guardar fora del heap, en un ByteBuffer directe (direct), de manera que les sortides grans no ocupen el heap ni han de passar pel recol·lector. En aquest cas no hi ha array base (array() no es pot fer servir) i els accessos van al ByteBuffer.
+ * Una estructura creada amb pooled pren l'array base de BufferPool, hi torna els arrays que deixa quan creix i l'hi retorna tot amb release, de manera que les compressions repetides no reserven memòria nova.
  */
 
 class ByteArray
 {
-    /** @brief Array de bytes base sobre el que treballa l'estructura de dades*/
+    /** @brief Vista de l'array base com a shorts big-endian */
+    private static final VarHandle SHORT_BE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    /** @brief Vista de l'array base com a ints big-endian */
+    private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    /** @brief Vista de l'array base com a longs big-endian */
+    private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    /** @brief Vista de l'array base com a shorts little-endian */
+    private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    /** @brief Vista de l'array base com a ints little-endian */
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    /** @brief Vista de l'array base com a longs little-endian */
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /** @brief Array de bytes base sobre el que treballa l'estructura de dades, o null si les dades són fora del heap */
     private byte[] data;
+    /** @brief Buffer fora del heap sobre el que treballa l'estructura de dades, o null si les dades són a l'array base */
+    private ByteBuffer buffer;
+    /** @brief Indica si l'array base s'ha pres de BufferPool */
+    private boolean pooled;
     /** @brief Posició de l'iterador intern, per a l'accés seqüencial */
     private int position;
     /** @brief Posició fins la qual hi ha dades vàlides emmagatzemades */
@@ -31,6 +59,19 @@ class ByteArray
         limit = 0;
     }
 
+    /**
+     * @brief Constructora amb capacitat
+     * \pre capacity >= 0
+     * \post S'ha creat l'estructura de dades amb mida 0 i un array base d'almenys "capacity" bytes, de manera que es poden escriure "capacity" bytes sense que creixi. El punter intern apunta a la primera posició
+     * \param capacity Número de bytes a reservar
+     */
+    ByteArray(int capacity)
+    {
+        data = new byte[Math.max(capacity, 4)];
+        position = 0;
+        limit = 0;
+    }
+
     /**
      * @brief Constructora a partir d'un array base
      * \pre true
@@ -50,10 +91,79 @@ class ByteArray
             data = d;
             position = 0;
             limit = data.length;
-            while(data.length < 4) doubleData();
+            ensureCapacity(4);
         }
     }
 
+    /**
+     * @brief Crear una estructura fora del heap
+     * \pre capacity >= 0
+     * \post Retorna una estructura de dades amb mida 0 guardada en un ByteBuffer directe d'almenys "capacity" bytes. El punter intern apunta a la primera posició
+     * \param capacity Número de bytes a reservar
+     */
+    static ByteArray direct(int capacity)
+    {
+        ByteArray ba = new ByteArray(0);
+        ba.data = null;
+        ba.buffer = ByteBuffer.allocateDirect(Math.max(capacity, 4));
+        return ba;
+    }
+
+    /**
+     * @brief Crear una estructura sobre un array de BufferPool
+     * \pre capacity >= 0
+     * \post Retorna una estructura de dades amb mida 0 i un array base d'almenys "capacity" bytes pres de BufferPool. Quan creix, els arrays també es prenen i es retornen a BufferPool. El punter intern apunta a la primera posició
+     * \param capacity Número de bytes a reservar
+     */
+    static ByteArray pooled(int capacity)
+    {
+        ByteArray ba = new ByteArray(0);
+        ba.data = BufferPool.acquire(Math.max(capacity, 4));
+        ba.pooled = true;
+        return ba;
+    }
+
+    /**
+     * @brief Alliberar l'array base
+     * \pre Ningú fa servir l'array obtingut amb array()
+     * \post Si l'array base s'havia pres de BufferPool, s'hi ha retornat. L'estructura queda buida i es pot continuar fent servir
+     */
+    void release()
+    {
+        if(pooled)
+        {
+            BufferPool.release(data);
+            data = new byte[4];
+            pooled = false;
+        }
+        position = 0;
+        limit = 0;
+    }
+
+    /**
+     * @brief Descartar bytes de l'inici
+     * \pre 0 <= n <= size()
+     * \post S'han eliminat els primers "n" bytes i la resta s'han desplaçat a l'inici. El punter intern retrocedeix "n" posicions (sense passar de la primera). Si no es compleix la precondició es llança IndexOutOfBoundsException
+     * \param n Número de bytes a descartar
+     */
+    void discard(int n)
+    {
+        Objects.checkFromIndexSize(0, n, limit);
+        if(buffer == null) System.arraycopy(data, n, data, 0, limit-n); else buffer.put(0, buffer, n, limit-n);
+        limit -= n;
+        position = Math.max(0, position-n);
+    }
+
+    /**
+     * @brief Saber si hi ha array base
+     * \pre true
+     * \post Retorna cert si les dades són a un array del heap (i array() es pot fer servir), fals si són fora del heap
+     */
+    boolean hasArray()
+    {
+        return buffer == null;
+    }
+
     /**
      * @brief Obtenir la mida
      * \pre true
@@ -64,6 +174,57 @@ class ByteArray
         return limit;
     }
 
+    /**
+     * @brief Obtenir la capacitat
+     * \pre true
+     * \post Retorna la mida de l'array base, és a dir, el número de bytes que es poden emmagatzemar sense que l'estructura creixi
+     */
+    int capacity()
+    {
+        return buffer == null ? data.length : buffer.capacity();
+    }
+
+    /**
+     * @brief Assegurar la capacitat
+     * \pre n >= 0
+     * \post L'array base té almenys "n" bytes. Si ha de créixer ho fa una sola vegada, a la mida més gran entre "n" i el doble de la capacitat actual, conservant els bytes emmagatzemats
+     * \param n Capacitat mínima
+     */
+    void ensureCapacity(int n)
+    {
+        int capacity = capacity();
+        if(n <= capacity) return;
+        int newcapacity = (int)Math.max(n, Math.min(2L*capacity, Integer.MAX_VALUE-8));
+        if(pooled)
+        {
+            byte[] newdata = BufferPool.acquire(newcapacity);
+            System.arraycopy(data, 0, newdata, 0, limit);
+            BufferPool.release(data);
+            data = newdata;
+        }
+        else if(buffer == null)
+        {
+            data = Arrays.copyOf(data, newcapacity);
+        }
+        else
+        {
+            ByteBuffer newbuffer = ByteBuffer.allocateDirect(newcapacity);
+            newbuffer.put(0, buffer, 0, limit);
+            buffer = newbuffer;
+        }
+    }
+
+    /**
+     * @brief Buidar l'estructura
+     * \pre true
+     * \post L'estructura té mida 0 i el punter intern apunta a la primera posició. Es conserva l'array base, de manera que es pot reutilitzar sense tornar a reservar memòria
+     */
+    void clear()
+    {
+        position = 0;
+        limit = 0;
+    }
+
     /**
      * @brief Obtenir la posició del punter intern
      * \pre true
@@ -106,7 +267,8 @@ class ByteArray
     byte get() throws ByteArrayException
     {
         if(position == limit) throw new ByteArrayException("get() : no bytes left to read");
-        return data[position++];
+        int pos = position++;
+        return buffer == null ? data[pos] : buffer.get(pos);
     }
 
     /**
@@ -119,7 +281,116 @@ class ByteArray
     byte get(int pos) throws ByteArrayException
     {
         if(pos < 0 || pos >= limit) throw new ByteArrayException("get(int pos) : 'pos' out of bounds");
-        return data[pos];
+        return buffer == null ? data[pos] : buffer.get(pos);
+    }
+
+    /**
+     * @brief Obtenir el byte de una certa posició, sense excepció comprovada
+     * \pre "pos" és una posició valida
+     * \post Retorna el byte que està en la posició indicada. Si no es compleix la precondició es llança IndexOutOfBoundsException
+     * \param pos Posició del byte
+     */
+    byte at(int pos)
+    {
+        Objects.checkIndex(pos, limit);
+        return buffer == null ? data[pos] : buffer.get(pos);
+    }
+
+    /**
+     * @brief Sobreescriure el byte de una certa posició, sense excepció comprovada
+     * \pre "pos" és una posició valida
+     * \post S'ha escrit el byte a la posició indicada. Si no es compleix la precondició es llança IndexOutOfBoundsException
+     * \param pos Posició a escriure
+     * \param b Byte a escriure
+     */
+    void setAt(int pos, byte b)
+    {
+        Objects.checkIndex(pos, limit);
+        if(buffer == null) data[pos] = b; else buffer.put(pos, b);
+    }
+
+    /**
+     * @brief Obtenir el short de una certa posició, sense excepció comprovada
+     * \pre "pos" i "pos"+1 són posicions vàlides
+     * \post Retorna la interpretació com a short dels dos bytes a partir de la posició indicada. Si no es compleix la precondició es llança IndexOutOfBoundsException
+     * \param pos Posició del primer byte
+     */
+    short shortAt(int pos)
+    {
+        Objects.checkFromIndexSize(pos, 2, limit);
+        return buffer == null ? (short)SHORT_BE.get(data, pos) : buffer.getShort(pos);
+    }
+
+    /**
+     * @brief Obtenir el short little-endian de una certa posició, sense excepció comprovada
+     * \pre "pos" i "pos"+1 són posicions vàlides
+     * \post Retorna la interpretació com a short little-endian dels dos bytes a partir de la posició indicada. Si no es compleix la precondició es llança IndexOutOfBoundsException
+     * \param pos Posició del primer byte
+     */
+    short shortAtLE(int pos)
+    {
+        Objects.checkFromIndexSize(pos, 2, limit);
+        return buffer == null ? (short)SHORT_LE.get(data, pos) : Short.reverseBytes(buffer.getShort(pos));
+    }
+
+    /**
+     * @brief Obtenir el int de una certa posició, sense excepció comprovada
+     * \pre De "pos" a "pos"+3 són posicions vàlides
+     * \post Retorna la interpretació com a int dels quatre bytes a partir de la posició indicada. Si no es compleix la precondició es llança IndexOutOfBoundsException
+     * \param pos Posició del primer byte
+     */
+    int intAt(int pos)
+    {
+        Objects.checkFromIndexSize(pos, 4, limit);
+        return buffer == null ? (int)INT_BE.get(data, pos) : buffer.getInt(pos);
+    }
+
+    /**
+     * @brief Obtenir el int little-endian de una certa posició, sense excepció comprovada
+     * \pre De "pos" a "pos"+3 són posicions vàlides
+     * \post Retorna la interpretació com a int little-endian dels quatre bytes a partir de la posició indicada. Si no es compleix la precondició es llança IndexOutOfBoundsException
+     * \param pos Posició del primer byte
+     */
+    int intAtLE(int pos)
+    {
+        Objects.checkFromIndexSize(pos, 4, limit);
+        return buffer == null ? (int)INT_LE.get(data, pos) : Integer.reverseBytes(buffer.getInt(pos));
+    }
+
+    /**
+     * @brief Obtenir el long de una certa posició, sense excepció comprovada
+     * \pre De "pos" a "pos"+7 són posicions vàlides
+     * \post Retorna la interpretació com a long dels vuit bytes a partir de la posició indicada. Si no es compleix la precondició es llança IndexOutOfBoundsException
+     * \param pos Posició del primer byte
+     */
+    long longAt(int pos)
+    {
+        Objects.checkFromIndexSize(pos, 8, limit);
+        return buffer == null ? (long)LONG_BE.get(data, pos) : buffer.getLong(pos);
+    }
+
+    /**
+     * @brief Obtenir el long little-endian de una certa posició, sense excepció comprovada
+     * \pre De "pos" a "pos"+7 són posicions vàlides
+     * \post Retorna la interpretació com a long little-endian dels vuit bytes a partir de la posició indicada. Si no es compleix la precondició es llança IndexOutOfBoundsException
+     * \param pos Posició del primer byte
+     */
+    long longAtLE(int pos)
+    {
+        Objects.checkFromIndexSize(pos, 8, limit);
+        return buffer == null ? (long)LONG_LE.get(data, pos) : Long.reverseBytes(buffer.getLong(pos));
+    }
+
+    /**
+     * @brief Obtenir el short de una certa posició d'un array de bytes
+     * \pre 0 <= pos, pos+2 <= mida de data
+     * \post Retorna la interpretació com a short big-endian dels dos bytes de data a partir de la posició indicada. Si no es compleix la precondició es llança IndexOutOfBoundsException
+     * \param data Array de bytes
+     * \param pos Posició del primer byte
+     */
+    static short shortAt(byte[] data, int pos)
+    {
+        return (short)SHORT_BE.get(data, pos);
     }
 
     /**
@@ -130,9 +401,10 @@ class ByteArray
      */
     void put(byte b)
     {
-        if(position == data.length) doubleData();
+        if(position == capacity()) ensureCapacity(position+1);
         if(position == limit) limit++;
-        data[position++] = b;
+        int pos = position++;
+        if(buffer == null) data[pos] = b; else buffer.put(pos, b);
     }
 
     /**
@@ -146,9 +418,26 @@ class ByteArray
     void put(byte b, int pos) throws ByteArrayException
     {
         if(pos < 0 || pos > limit) throw new ByteArrayException("put(byte b, int pos) : 'pos' out of bounds");
-        if(pos == data.length) doubleData();
+        if(pos == capacity()) ensureCapacity(pos+1);
         if(pos == limit) limit++;
-        data[pos] = b;
+        if(buffer == null) data[pos] = b; else buffer.put(pos, b);
+    }
+
+    /**
+     * @brief Escriure seqüencialent un tros d'un array de bytes
+     * \pre 0 <= off, off+len <= mida de src
+     * \post S'han escrit els "len" bytes de src a partir de off a partir de la posició a la que apunta el punter intern. El punter intern avança "len" posicions. Si no es compleix la precondició es llança IndexOutOfBoundsException
+     * \param src Array d'origen
+     * \param off Posició d'inici a src
+     * \param len Número de bytes a escriure
+     */
+    void put(byte[] src, int off, int len)
+    {
+        Objects.checkFromIndexSize(off, len, src.length);
+        ensureCapacity(position+len);
+        if(buffer == null) System.arraycopy(src, off, data, position, len); else buffer.put(position, src, off, len);
+        position += len;
+        if(position > limit) limit = position;
     }
 
     /**
@@ -159,8 +448,8 @@ class ByteArray
      */
     short getShort() throws ByteArrayException
     {
-        if(position+2 > limit) throw new ByteArrayException("getShort() : insufficient bytes to read");
-        return (short)((data[position++] & 0xFF) << 8 | (data[position++] & 0xFF));
+        int pos = consume(2, "getShort()");
+        return buffer == null ? (short)SHORT_BE.get(data, pos) : buffer.getShort(pos);
     }
 
     /**
@@ -171,10 +460,32 @@ class ByteArray
      */
     void putShort(short val)
     {
-        if(position+2 > data.length) doubleData();
-        if(position+2 > limit) limit = position+2;
-        data[position++] = (byte)(val >> 8);
-        data[position++] = (byte)(val);
+        int pos = reserve(2);
+        if(buffer == null) SHORT_BE.set(data, pos, val); else buffer.putShort(pos, val);
+    }
+
+    /**
+     * @brief Obtenir seqüencialent el següent short little-endian
+     * \pre Queden almenys dos bytes vàlids per llegir a partir del punter intern
+     * \post Retorna la interpretació com a short little-endian del byte al que apunta el punter intern i el següent. El punter intern avança dues posicions
+     * \exception ByteArrayException : Si no es compleix la precondició es llança excepció
+     */
+    short getShortLE() throws ByteArrayException
+    {
+        int pos = consume(2, "getShortLE()");
+        return buffer == null ? (short)SHORT_LE.get(data, pos) : Short.reverseBytes(buffer.getShort(pos));
+    }
+
+    /**
+     * @brief Escriure seqüencialent un short little-endian
+     * \pre true
+     * \post S'ha escrit el parell bytes que formen el short, en ordre little-endian, a la posició a la que apunta el punter intern i la següent. El punter intern avança dues posicions
+     * \param val Short a escriure
+     */
+    void putShortLE(short val)
+    {
+        int pos = reserve(2);
+        if(buffer == null) SHORT_LE.set(data, pos, val); else buffer.putShort(pos, Short.reverseBytes(val));
     }
 
     /**
@@ -185,8 +496,8 @@ class ByteArray
      */
     int getInt() throws ByteArrayException
     {
-        if(position+4 > limit) throw new ByteArrayException("getInt() : insufficient bytes to read");
-        return ((data[position++] & 0xFF) << 24 | (data[position++] & 0xFF) << 16 | (data[position++] & 0xFF) << 8 | (data[position++] & 0xFF));
+        int pos = consume(4, "getInt()");
+        return buffer == null ? (int)INT_BE.get(data, pos) : buffer.getInt(pos);
     }
 
     /**
@@ -197,22 +508,96 @@ class ByteArray
      */
     void putInt(int val)
     {
-        if(position+4 > data.length) doubleData();
-        if(position+4 > limit) limit = position+4;
-        data[position++] = (byte)(val >> 24);
-        data[position++] = (byte)(val >> 16);
-        data[position++] = (byte)(val >> 8);
-        data[position++] = (byte)(val);
+        int pos = reserve(4);
+        if(buffer == null) INT_BE.set(data, pos, val); else buffer.putInt(pos, val);
+    }
+
+    /**
+     * @brief Obtenir seqüencialent el següent int little-endian
+     * \pre Queden almenys quatre bytes vàlids per llegir a partir del punter intern
+     * \post Retorna la interpretació com a int little-endian del byte al que apunta el punter intern i el tres següents. El punter intern avança quatre posicions
+     * \exception ByteArrayException : Si no es compleix la precondició es llança excepció
+     */
+    int getIntLE() throws ByteArrayException
+    {
+        int pos = consume(4, "getIntLE()");
+        return buffer == null ? (int)INT_LE.get(data, pos) : Integer.reverseBytes(buffer.getInt(pos));
+    }
+
+    /**
+     * @brief Escriure seqüencialent un int little-endian
+     * \pre true
+     * \post S'ha escrit els quatre bytes que formen el int, en ordre little-endian, a la posició a la que apunta el punter intern i les tres següent. El punter intern avança quatre posicions
+     * \param val Int a escriure
+     */
+    void putIntLE(int val)
+    {
+        int pos = reserve(4);
+        if(buffer == null) INT_LE.set(data, pos, val); else buffer.putInt(pos, Integer.reverseBytes(val));
+    }
+
+    /**
+     * @brief Obtenir seqüencialent el següent long
+     * \pre Queden almenys vuit bytes vàlids per llegir a partir del punter intern
+     * \post Retorna la interpretació com a long del byte al que apunta el punter intern i els set següents. El punter intern avança vuit posicions
+     * \exception ByteArrayException : Si no es compleix la precondició es llança excepció
+     */
+    long getLong() throws ByteArrayException
+    {
+        int pos = consume(8, "getLong()");
+        return buffer == null ? (long)LONG_BE.get(data, pos) : buffer.getLong(pos);
+    }
+
+    /**
+     * @brief Escriure seqüencialent un long
+     * \pre true
+     * \post S'ha escrit els vuit bytes que formen el long a la posició a la que apunta el punter intern i les set següents. El punter intern avança vuit posicions
+     * \param val Long a escriure
+     */
+    void putLong(long val)
+    {
+        int pos = reserve(8);
+        if(buffer == null) LONG_BE.set(data, pos, val); else buffer.putLong(pos, val);
+    }
+
+    /**
+     * @brief Obtenir seqüencialent el següent long little-endian
+     * \pre Queden almenys vuit bytes vàlids per llegir a partir del punter intern
+     * \post Retorna la interpretació com a long little-endian del byte al que apunta el punter intern i els set següents. El punter intern avança vuit posicions
+     * \exception ByteArrayException : Si no es compleix la precondició es llança excepció
+     */
+    long getLongLE() throws ByteArrayException
+    {
+        int pos = consume(8, "getLongLE()");
+        return buffer == null ? (long)LONG_LE.get(data, pos) : Long.reverseBytes(buffer.getLong(pos));
+    }
+
+    /**
+     * @brief Escriure seqüencialent un long little-endian
+     * \pre true
+     * \post S'ha escrit els vuit bytes que formen el long, en ordre little-endian, a la posició a la que apunta el punter intern i les set següents. El punter intern avança vuit posicions
+     * \param val Long a escriure
+     */
+    void putLongLE(long val)
+    {
+        int pos = reserve(8);
+        if(buffer == null) LONG_LE.set(data, pos, val); else buffer.putLong(pos, Long.reverseBytes(val));
     }
 
     /**
      * @brief Convertir i obtenir a array de bytes
      * \pre true
-     * \post Si en nombre de bytes vàlids és inferior a la mida de l'array base, retorna un nou array de bytes mínim amb tots els bytes emmagatzemats a l'estructura. Altrament retorna l'array de bytes base.
+     * \post Si en nombre de bytes vàlids és inferior a la mida de l'array base, retorna un nou array de bytes mínim amb tots els bytes emmagatzemats a l'estructura. Altrament retorna l'array de bytes base. Si les dades són fora del heap o l'array base és de BufferPool sempre es copien a un array nou
      */
     byte[] getArray()
     {
-        if(limit == data.length)
+        if(buffer != null)
+        {
+            byte[] arr = new byte[limit];
+            buffer.get(0, arr);
+            return arr;
+        }
+        else if(limit == data.length && !pooled)
         {
             return data;
         }
@@ -224,6 +609,39 @@ class ByteArray
         }
     }
 
+    /**
+     * @brief Obtenir l'array base
+     * \pre hasArray()
+     * \post Retorna l'array base sense copiar-lo. Només les posicions [0, size()) contenen bytes vàlids, i deixa de ser l'array base si l'estructura creix. Si les dades són fora del heap es llança UnsupportedOperationException
+     */
+    byte[] array()
+    {
+        if(buffer != null) throw new UnsupportedOperationException("array() : data is off-heap");
+        return data;
+    }
+
+    /**
+     * @brief Obtenir les dades com a ByteBuffer
+     * \pre true
+     * \post Retorna un ByteBuffer que comparteix les dades de l'estructura, amb posició 0 i límit size(), sense copiar-les. Deixa de compartir-les si l'estructura creix
+     */
+    ByteBuffer asByteBuffer()
+    {
+        return region(0, limit);
+    }
+
+    /**
+     * @brief Obtenir una regió com a ByteBuffer
+     * \pre 0 <= pos, pos+len <= capacity()
+     * \post Retorna un ByteBuffer que comparteix els "len" bytes a partir de pos, amb la posició al primer i el límit després de l'últim
+     * \param pos Posició d'inici de la regió
+     * \param len Número de bytes de la regió
+     */
+    private ByteBuffer region(int pos, int len)
+    {
+        return buffer == null ? ByteBuffer.wrap(data, pos, len) : buffer.slice(pos, len);
+    }
+
     /**
      * @brief Transferir bytes de un ByteArray a un altre ByteArray
      * \pre pos1 és una posició vàlida de ba1 o és ‘-1’; pos2 és una posició vàlida de ba2 o és ‘-1’; queden almenys "len" bytes per llegir a partir del punter intern de ba1 si pos1 és ‘-1’, o a partir de la posició pos1 de ba1 altrament
@@ -243,24 +661,69 @@ class ByteArray
         if(pos1 < 0 || pos1 >= ba1.limit) throw new ByteArrayException("transfer(ByteArray ba1, int pos1, ByteArray ba2, int pos2, int len) : 'pos1' out of bounds");
         if(pos2 < 0 || pos2 > ba2.limit) throw new ByteArrayException("transfer(ByteArray ba1, int pos1, ByteArray ba2, int pos2, int len) : 'pos2' out of bounds"); //pos2 can be placed after the last valid byte of ba2
         if(pos1+len > ba1.limit) throw new ByteArrayException("transfer(ByteArray ba1, int pos1, ByteArray ba2, int pos2, int len) : insufficient bytes to read");
-        while(pos2+len > ba2.data.length) ba2.doubleData();
+        ba2.ensureCapacity(pos2+len);
         if(pos2+len > ba2.limit) ba2.limit = pos2+len;
-        System.arraycopy(ba1.data, pos1, ba2.data, pos2, len);
+        if(ba1.buffer == null && ba2.buffer == null) System.arraycopy(ba1.data, pos1, ba2.data, pos2, len);
+        else ba2.region(pos2, len).put(ba1.region(pos1, len));
         if(mpos1) ba1.position += len;
         if(mpos2) ba2.position += len;
     }
 
     /**
-     * @brief Convertir i obtenir a array de bytes
-     * \pre true
-     * \post S'ha assignat com a array base de l'estructura de dades un array de mida el doble que l'anterior en el qual es copien els bytes que hi havia a l'anterior
+     * @brief Copiar una coincidència dins un array de bytes
+     * \pre 0 <= src < dst, dst+len <= mida de data
+     * \post S'han copiat els "len" bytes a partir de src a partir de dst, amb la semàntica dels algorismes LZ77: si les dues regions es solapen (dst-src < len) el patró de dst-src bytes es replica. Es fa amb còpies en bloc de mida creixent
+     * \param data Array de bytes
+     * \param src Posició d'inici de la còpia
+     * \param dst Posició de destí de la còpia
+     * \param len Número de bytes a copiar
+     */
+    static void copyMatch(byte[] data, int src, int dst, int len)
+    {
+        int dist = dst-src;
+        if(dist >= len)
+        {
+            System.arraycopy(data, src, data, dst, len);
+            return;
+        }
+        int copied = 0;
+        while(copied < len) //[src, dst+copied) is periodic, so a chunk of up to dist+copied bytes never overlaps
+        {
+            int n = Math.min(dist+copied, len-copied);
+            System.arraycopy(data, src, data, dst+copied, n);
+            copied += n;
+        }
+    }
+
+    /**
+     * @brief Reservar bytes per a una escriptura seqüencial
+     * \pre n > 0
+     * \post L'array base té espai per a "n" bytes a partir del punter intern, el límit inclou aquests bytes i el punter intern avança "n" posicions. Retorna la posició anterior del punter intern
+     * \param n Número de bytes a escriure
      */
-    private void doubleData()
+    private int reserve(int n)
     {
-        byte[] newData = new byte[data.length*2];
-        System.arraycopy(data, 0, newData, 0, data.length);
-        data = newData;
+        int pos = position;
+        ensureCapacity(pos+n);
+        position = pos+n;
+        if(position > limit) limit = position;
+        return pos;
+    }
 
+    /**
+     * @brief Consumir bytes per a una lectura seqüencial
+     * \pre Queden almenys "n" bytes vàlids per llegir a partir del punter intern
+     * \post El punter intern avança "n" posicions. Retorna la posició anterior del punter intern
+     * \exception ByteArrayException : Si no es compleix la precondició es llança excepció
+     * \param n Número de bytes a llegir
+     * \param method Nom del mètode que llegeix, per al missatge de l'excepció
+     */
+    private int consume(int n, String method) throws ByteArrayException
+    {
+        if(position+n > limit) throw new ByteArrayException(method + " : insufficient bytes to read");
+        int pos = position;
+        position = pos+n;
+        return pos;
     }
 
     /**
@@ -7,6 +7,7 @@ package Domain;
 import Data.DataController;
 import Global.*;
 
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.text.DateFormat;
@@ -22,7 +23,11 @@ import java.util.*;
 public class DomainController
 {
     /** @brief Número d'algorismes implementats */
-    private final int numAlgorithms = 4;
+    private final int numAlgorithms = 10;
+    /** @brief Número màxim de bytes que es llegeixen per descodificar la capçalera d'un fitxer comprimit */
+    private static final int MAXHEADERSIZE = 1 << 16;
+    /** @brief Mida màxima dels arxius d'una carpeta que es comprimeixen en memòria, amb un buffer i un context reutilitzats; els més grans es comprimeixen entre canals */
+    private static final int SMALLFILE = 1 << 20;
     /** @brief Instàncies dels algorismes */
     private Algorithm[] algorithms = new Algorithm[numAlgorithms];
 
@@ -37,6 +42,12 @@ public class DomainController
         algorithms[1] = new LZSS();
         algorithms[2] = new LZW();
         algorithms[3] = new JPEG();
+        algorithms[4] = new LZSSW();
+        algorithms[5] = new LZSSF();
+        algorithms[6] = new LZWV();
+        algorithms[7] = new LZ78V();
+        algorithms[8] = new LZMW();
+        algorithms[9] = new LZAP();
     }
 
     /**
@@ -140,26 +151,74 @@ public class DomainController
             {
                 algs.add("JPEG");
                 algs.add("LZSS");
+                algs.add("LZSSW");
+                algs.add("LZSSF");
                 algs.add("LZ78");
+                algs.add("LZ78V");
                 algs.add("LZW");
+                algs.add("LZWV");
+                algs.add("LZMW");
+                algs.add("LZAP");
             }
                 break;
             case "txt":
             default:
             {
                 algs.add("LZSS");
+                algs.add("LZSSW");
+                algs.add("LZSSF");
                 algs.add("LZ78");
+                algs.add("LZ78V");
                 algs.add("LZW");
+                algs.add("LZWV");
+                algs.add("LZMW");
+                algs.add("LZAP");
             }
                 break;
         }
         return algs;
     }
 
+    /**
+     * @brief Obtenir el nivell màxim de compressió d'un algorisme
+     * \pre Existeix un algorisme amb el nom donat
+     * \post Retorna el nivell de compressió més alt que admet l'algorisme
+     * \exception DomainControllerException : Si no es compleix la precondició es llança excepció
+     * \param algorithm Nom de l'algorisme
+     */
+    public int getMaxLevel(String algorithm) throws DomainControllerException
+    {
+        Algorithm alg = getAlgorithmByName(algorithm);
+        if(alg == null) throw new DomainControllerException("Algorithm not found");
+        return alg.getMaxLevel();
+    }
+
+    /**
+     * @brief Definir el nivell de compressió d'un algorisme
+     * \pre Existeix un algorisme amb el nom donat, 0 <= level <= nivell màxim de l'algorisme
+     * \post Les properes compressions amb l'algorisme utilitzaran el nivell donat
+     * \exception DomainControllerException : Si no es compleix la precondició es llança excepció
+     * \param algorithm Nom de l'algorisme
+     * \param level Nivell de compressió
+     */
+    public void setLevel(String algorithm, int level) throws DomainControllerException
+    {
+        Algorithm alg = getAlgorithmByName(algorithm);
+        if(alg == null) throw new DomainControllerException("Algorithm not found");
+        try
+        {
+            alg.setLevel(level);
+        }
+        catch(Algorithm.AlgorithmException e)
+        {
+            throw new DomainControllerException("Error in setLevel: {\n" + e.getMessage() + "\n}");
+        }
+    }
+
     /**
      * @brief Comprimir un arxiu amb un cert algorisme
      * \pre "input" és un Path vàlid d'un arxiu .txt o .ppm, ha d'existir un algorisme amb el nom donat, "output" és un Path vàlid d'un arxiu existent o no
-     * \post S'ha comprimit l'arxiu del path d'entrada amb l'algorisme amb el nom donat i s'ha guardat al path de sortida donat. S'ha actualitzat les estadístiques globals de l'algorisme i s'ha afegit una entrada a l'historial. Retorna les estadístiques locals de la compressió
+     * \post S'ha comprimit l'arxiu del path d'entrada amb l'algorisme amb el nom donat i s'ha guardat al path de sortida donat (si hi ha algun error, el path de sortida no es modifica). S'ha actualitzat les estadístiques globals de l'algorisme i s'ha afegit una entrada a l'historial. Retorna les estadístiques locals de la compressió
      * \exception DomainControllerException : Si hi ha algun problema per llegir el fitxer a comprimir, en guardar el fitxer comprimit, un problema intern del procés de compressió o no es compleix la precondició es llança excepció
      * \param input Path del fitxer a comprimir
      * \param algorithm Nom de l'algorisme
@@ -172,26 +231,36 @@ public class DomainController
         Algorithm alg = getAlgorithmByName(algorithm);
         if(alg == null) throw new DomainControllerException("Algorithm not found");
 
+        Path temp = null;
         try
         {
-            byte[] in = DataController.readFile(input);
-            Pair<byte[], LocalStatistics> out = alg.compress(in);
-            Header h = Header.fileHeader(out.first().length, input.getFileName().toString(), in.length, algorithm);
-            DataController.writeFile(output, h.encode());
-            DataController.appendToFile(output, out.first());
-            DataController.addToHistory(encodeHistoryEntry("File compression", algorithm, Calendar.getInstance().getTime(), out.second()));
-            return out.second().toStrings();
+            int size = fileSize(input);
+            //written next to the output and moved into place when complete, so a failure never leaves a truncated archive
+            temp = DataController.createTempFile(output.toAbsolutePath().getParent(), output.getFileName().toString());
+            Header h = Header.fileHeader(0, input.getFileName().toString(), size, algorithm);
+            DataController.writeFile(temp, h.encode());
+            LocalStatistics ls = compressToFile(alg, input, size, temp);
+            h = Header.fileHeader(ls.getCompressedSize(), input.getFileName().toString(), size, algorithm);
+            DataController.writeFileAt(temp, 0, h.encode());
+            DataController.moveFile(temp, output);
+            temp = null;
+            DataController.addToHistory(encodeHistoryEntry("File compression", algorithm, Calendar.getInstance().getTime(), ls));
+            return ls.toStrings();
         }
         catch(Algorithm.AlgorithmException | DataController.DataControllerException e)
         {
             throw new DomainControllerException("Error in compressFile: {\n" + e.getMessage() + "\n}");
         }
+        finally
+        {
+            if(temp != null) DataController.deleteFile(temp);
+        }
     }
 
     /**
      * @brief Comprimir una carpeta amb un cert algorisme per els fitxers .txt i un altre pels fitxers .ppm
      * \pre "input" és un Path vàlid d'una carpeta, la carpeta no pot contenir fitxers que no siguin .txt o .ppm, han d'existir els algorismes que corresponen als nom donats, "output" és un Path vàlid d'un arxiu existent o no
-     * \post S'ha comprimit tots els fitxers i subcarpetes dins la carpeta del path d'entrada amb l'algorisme per els fitxers txt i l'algorisme per els fitxers ppm donats i s'ha guardat la carpeta comprimida al path de sortida donat. S'han actualitzat les estadístiques globals dels algorismes i s'ha afegit una entrada a l'historial.  Retorna les estadístiques locals de la compressió
+     * \post S'ha comprimit tots els fitxers i subcarpetes dins la carpeta del path d'entrada amb l'algorisme per els fitxers txt i l'algorisme per els fitxers ppm donats i s'ha guardat la carpeta comprimida al path de sortida donat (si hi ha algun error, el path de sortida no es modifica). S'han actualitzat les estadístiques globals dels algorismes i s'ha afegit una entrada a l'historial.  Retorna les estadístiques locals de la compressió
      * \exception DomainControllerException : Si hi ha algun problema en llegir el fitxers a comprimir, en guardar el fitxer comprimit, un problema intern del procés de compressió o no es compleix la precondició es llança excepció
      * \param input Path de la carpeta a comprimir
      * \param algorithmTXT Nom de l'algorisme per als fitxers .txt
@@ -208,13 +277,18 @@ public class DomainController
         Algorithm algPPM = getAlgorithmByName(algorithmPPM);
         if(algPPM == null) throw new DomainControllerException("Algorithm not found");
 
+        Path temp = null;
         try
         {
+            temp = DataController.createTempFile(output.toAbsolutePath().getParent(), output.getFileName().toString());
             byte[] dH = Header.dummyFolderHeader(input.getFileName().toString());
-            DataController.writeFile(output, dH);
-            LocalStatistics res = compressFolderRecursive(dH.length, input, algTXT, algPPM, output);
+            DataController.writeFile(temp, dH);
+            FolderCompression fc = new FolderCompression(algTXT, algPPM, temp);
+            LocalStatistics res = compressFolderRecursive(dH.length, input, fc);
             Header h = Header.folderHeader(res.getCompressedSize(), input.getFileName().toString());
-            DataController.writeFileAt(output, 0, h.encode());
+            DataController.writeFileAt(temp, 0, h.encode());
+            DataController.moveFile(temp, output);
+            temp = null;
             LocalStatistics ls = new LocalStatistics(res.getDecompressedSize(), res.getCompressedSize()+dH.length, res.getTime());
             DataController.addToHistory(encodeHistoryEntry("Folder compression", algorithmTXT+'/'+algorithmPPM, Calendar.getInstance().getTime(), ls));
             return ls.toStrings();
@@ -223,6 +297,10 @@ public class DomainController
         {
             throw new DomainControllerException("Error in compressFolder: {\n" + e.getMessage() + "\n}");
         }
+        finally
+        {
+            if(temp != null) DataController.deleteFile(temp);
+        }
     }
 
     /**
@@ -234,12 +312,11 @@ public class DomainController
      * \exception DomainControllerException : Si no es compleix la precondició es llança excepció
      * \param currentPosition Posició (en bytes) dins l'arxiu de sortida a partir de la qual guardar la subcarpeta comprimida
      * \param input Path de la subcarpeta a comprimir
-     * \param algorithmTXT Algorisme per als fitxers .txt
-     * \param algorithmPPM Algorisme per als fitxers .ppm
-     * \param output Path de sortida
+     * \param fc Algorismes, contextos, buffer i Path de sortida de la compressió
      */
-    private LocalStatistics compressFolderRecursive(int currentPosition, Path folder, Algorithm algTXT, Algorithm algPPM, Path output) throws DataController.DataControllerException, Algorithm.AlgorithmException, DomainControllerException
+    private LocalStatistics compressFolderRecursive(int currentPosition, Path folder, FolderCompression fc) throws DataController.DataControllerException, Algorithm.AlgorithmException, DomainControllerException
     {
+        Path output = fc.output;
         int size = 0;
         double time = 0.0;
         int originalsize = 0;
@@ -252,7 +329,7 @@ public class DomainController
             {
                 byte[] dH = Header.dummyFolderHeader(elements[i].first().toString());
                 DataController.appendToFile(output, dH);
-                LocalStatistics res = compressFolderRecursive(currentPosition+size+dH.length, folder.resolve(elements[i].first()), algTXT, algPPM, output);
+                LocalStatistics res = compressFolderRecursive(currentPosition+size+dH.length, folder.resolve(elements[i].first()), fc);
                 Header h = Header.folderHeader(res.getCompressedSize(), elements[i].first().toString());
                 DataController.writeFileAt(output, currentPosition+size, h.encode());
                 size += dH.length + res.getCompressedSize();
@@ -261,25 +338,130 @@ public class DomainController
             }
             else
             {
-                byte[] in = DataController.readFile(folder.resolve(elements[i].first()));
+                Path file = folder.resolve(elements[i].first());
                 String ext = elements[i].first().toString();
                 ext = ext.substring(ext.lastIndexOf('.')+1);
-                Pair<byte[], LocalStatistics> out;
-                if(ext.equals("txt")) out = algTXT.compress(in);
-                else if(ext.equals("ppm")) out = algPPM.compress(in);
+                Algorithm alg;
+                Algorithm.Context ctx;
+                if(ext.equals("txt"))
+                {
+                    alg = fc.algTXT;
+                    ctx = fc.ctxTXT;
+                }
+                else if(ext.equals("ppm"))
+                {
+                    alg = fc.algPPM;
+                    ctx = fc.ctxPPM;
+                }
                 else throw new DomainControllerException("Not permitted file < " + elements[i].first().toString() + " >");
-                Header h = Header.fileHeader(out.first().length, elements[i].first().toString(), in.length, (ext.equals("txt") ? algTXT.getName() : algPPM.getName()));
-                DataController.appendToFile(output, h.encode());
-                DataController.appendToFile(output, out.first());
-                size += h.size() + out.first().length;
-                time += out.second().getTime();
-                originalsize += in.length;
+                int filesize = fileSize(file);
+                Header h;
+                LocalStatistics ls;
+                if(filesize <= SMALLFILE) // compressed in memory, reusing the buffer and the algorithm context
+                {
+                    ls = alg.compress(DataController.readFile(file), fc.buffer, ctx);
+                    h = Header.fileHeader(ls.getCompressedSize(), elements[i].first().toString(), filesize, alg.getName());
+                    DataController.appendToFile(output, h.encode());
+                    DataController.appendToFile(output, fc.buffer.array(), fc.buffer.size());
+                }
+                else
+                {
+                    h = Header.fileHeader(0, elements[i].first().toString(), filesize, alg.getName());
+                    DataController.appendToFile(output, h.encode());
+                    ls = compressToFile(alg, file, filesize, output);
+                    h = Header.fileHeader(ls.getCompressedSize(), elements[i].first().toString(), filesize, alg.getName());
+                    DataController.writeFileAt(output, currentPosition+size, h.encode());
+                }
+                size += h.size() + ls.getCompressedSize();
+                time += ls.getTime();
+                originalsize += filesize;
             }
         }
 
         return new LocalStatistics(originalsize, size, time);
     }
 
+    /**
+     * @class FolderCompression
+     * @brief Estat d'una compressió de carpeta
+     * Guarda els algorismes de la compressió, un context per a cadascun i el buffer de sortida, que es reutilitzen per a tots els arxius petits de la carpeta.
+     */
+    private static class FolderCompression
+    {
+        /** @brief Algorisme per als fitxers .txt */
+        final Algorithm algTXT;
+        /** @brief Algorisme per als fitxers .ppm */
+        final Algorithm algPPM;
+        /** @brief Context de l'algorisme per als fitxers .txt */
+        final Algorithm.Context ctxTXT;
+        /** @brief Context de l'algorisme per als fitxers .ppm */
+        final Algorithm.Context ctxPPM;
+        /** @brief Buffer de sortida dels arxius petits */
+        final ByteArray buffer;
+        /** @brief Path de sortida */
+        final Path output;
+
+        /**
+         * @brief Constructora
+         * \pre true
+         * \post S'ha creat l'estat d'una compressió de carpeta amb un context nou per a cada algorisme i un buffer prou gran per comprimir qualsevol arxiu de SMALLFILE bytes sense que creixi (si els algorismes tenen cota)
+         * \param algTXT Algorisme per als fitxers .txt
+         * \param algPPM Algorisme per als fitxers .ppm
+         * \param output Path de sortida
+         */
+        FolderCompression(Algorithm algTXT, Algorithm algPPM, Path output)
+        {
+            this.algTXT = algTXT;
+            this.algPPM = algPPM;
+            this.output = output;
+            ctxTXT = algTXT.newContext();
+            ctxPPM = algPPM == algTXT ? ctxTXT : algPPM.newContext();
+            buffer = new ByteArray(Math.max(SMALLFILE, Math.max(algTXT.maxCompressedSize(SMALLFILE), algPPM.maxCompressedSize(SMALLFILE))));
+        }
+    }
+
+    /**
+     * @brief Obtenir la mida d'un fitxer a comprimir
+     * \pre "input" és un Path vàlid d'un arxiu
+     * \post Retorna la mida de l'arxiu
+     * \exception DataControllerException : Si hi ha algun problema en llegir la mida del fitxer es llança excepció
+     * \exception DomainControllerException : Si l'arxiu és massa gran per al format del fitxer comprimit (mides de 32 bits) es llança excepció
+     * \param input Path de l'arxiu
+     */
+    private static int fileSize(Path input) throws DataController.DataControllerException, DomainControllerException
+    {
+        long size = DataController.fileSize(input);
+        if(size > Integer.MAX_VALUE) throw new DomainControllerException("File too large < " + input.getFileName().toString() + " >");
+        return (int)size;
+    }
+
+    /**
+     * @brief Comprimir un arxiu al final d'un fitxer
+     * \pre "input" és un Path vàlid d'un arxiu de mida "size", "output" és un Path vàlid d'un arxiu existent
+     * \post S'ha comprimit l'arxiu amb l'algorisme donat entre canals, sense carregar-lo sencer a memòria, i s'ha afegit el resultat al final del fitxer de sortida. Retorna les estadístiques locals de la compressió
+     * \exception DataControllerException : Si hi ha algun problema en llegir o escriure els fitxers es llança excepció
+     * \exception AlgorithmException : Si hi ha algun problema intern en el procés de compressió es llança excepció
+     * \param alg Algorisme
+     * \param input Path de l'arxiu a comprimir
+     * \param size Mida de l'arxiu a comprimir
+     * \param output Path de sortida
+     */
+    private static LocalStatistics compressToFile(Algorithm alg, Path input, int size, Path output) throws DataController.DataControllerException, Algorithm.AlgorithmException
+    {
+        FileChannel in = null, out = null;
+        try
+        {
+            in = DataController.openReadChannel(input, 0);
+            out = DataController.openAppendChannel(output);
+            return alg.compress(in, size, out);
+        }
+        finally
+        {
+            DataController.closeChannel(in);
+            DataController.closeChannel(out);
+        }
+    }
+
     /**
      * @brief Descomprimir un fitxer comprimit
      * \pre "input" és un Path d'un fitxer comprimit i aquest és vàlid, "output" és un Path vàlid d'una carpeta
@@ -294,27 +476,26 @@ public class DomainController
 
         try
         {
-            byte[] in = DataController.readFile(input);
-            Header h = Header.decode(in, 0);
+            long total = DataController.fileSize(input);
+            Header h = Header.decode(DataController.readFileHead(input, MAXHEADERSIZE), 0);
             if(h == null) throw new DomainControllerException("Bad header format");
 
             if(h.getType() == Header.Type.file) // it's a compressed file
             {
                 Algorithm alg = getAlgorithmByName(h.getAlgorithm());
                 if(alg == null) throw new DomainControllerException("Algorithm not found");
+                if((long)h.size() + h.getSize() > total) throw new DomainControllerException("Truncated file");
 
-                byte[] data = new byte[h.getSize()];
-                System.arraycopy(in, h.size(), data, 0, h.getSize());
-                Pair<byte[], LocalStatistics> out = alg.decompress(data, h.getOriginalsize());
-                DataController.writeFile(output.resolve(h.getFilename()), out.first());
-                DataController.addToHistory(encodeHistoryEntry("File decompression", alg.getName(), Calendar.getInstance().getTime(), out.second()));
-                return out.second().toStrings();
+                LocalStatistics ls = decompressToFile(alg, input, h.size(), h.getSize(), output.resolve(h.getFilename()), h.getOriginalsize());
+                DataController.addToHistory(encodeHistoryEntry("File decompression", alg.getName(), Calendar.getInstance().getTime(), ls));
+                return ls.toStrings();
             }
             else // it's a compressed folder
             {
+                if((long)h.size() + h.getSize() > total) throw new DomainControllerException("Truncated file");
                 DataController.createFolder(output.resolve(h.getFilename()));
-                Pair<Integer,Double> res = decompressRecursive(in, h.size(), h.getSize(), output.resolve(h.getFilename()));
-                LocalStatistics ls = new LocalStatistics(res.first(), in.length, res.second());
+                Pair<Integer,Double> res = decompressRecursive(input, h.size(), h.getSize(), output.resolve(h.getFilename()));
+                LocalStatistics ls = new LocalStatistics(res.first(), (int)total, res.second());
                 DataController.addToHistory(encodeHistoryEntry("Folder decompression", "multiple", Calendar.getInstance().getTime(), ls));
                 return ls.toStrings();
             }
@@ -328,37 +509,35 @@ public class DomainController
     /**
      * @brief Algorisme recursiu de descompressió de carpetes
      * \pre mida de "input" >= que "offset"+"blocksize", "base" és un Path vàlid d'una carpeta
-     * \post S'ha descomprimit els arxius i subcarpetes que es troben comprimides en la porció de fitxer comprimit que va des de "offset" i té tamany "blocksize", amb l'algorisme utilitzat per comprimir-los, a la ruta de la subcarpeta donada. Retorna la suma de les mides dels arxius i subcarpetes després de descomprimir i la suma dels temps emprats en la descompressió
-     * \exception DataControllerException : Si hi ha algun problema en guardar els fitxers descomprimits o no es compleix la precondició llança excepció
+     * \post S'ha descomprimit els arxius i subcarpetes que es troben comprimides en la porció de fitxer comprimit que va des de "offset" i té tamany "blocksize", amb l'algorisme utilitzat per comprimir-los, a la ruta de la subcarpeta donada. Cada arxiu es descomprimeix entre canals a partir de la seva posició, sense carregar el fitxer comprimit a memòria. Retorna la suma de les mides dels arxius i subcarpetes després de descomprimir i la suma dels temps emprats en la descompressió
+     * \exception DataControllerException : Si hi ha algun problema en llegir el fitxer comprimit, en guardar els fitxers descomprimits o no es compleix la precondició llança excepció
      * \exception AlgorithmException : Si hi ha algun problema intern en el procés de descompressió es llança excepció
      * \exception DomainControllerException : Si algun header del fitxers o subcarpetes no és vàlid o no es troba l'algorisme amb què s'han comprimit els arxius llança excepció
-     * \param input Fitxer comprimit en forma d'array de bytes
+     * \param input Path del fitxer comprimit
      * \param offset Offset (en bytes) des del qual treballar dins el fitxer comprimit
      * \param blocksize Tamany (en bytes) que volem descomprimir dins el fitxer comprimit a partir de offset, porció que representa una subcarpeta
      * \param base Path de la carpeta on guardar els fitxers i subcarpetes descomprimides
      */
     //decompressed size, time
-    private Pair<Integer,Double> decompressRecursive(byte[] input, int offset, int blocksize, Path base) throws DomainControllerException, Algorithm.AlgorithmException, DataController.DataControllerException
+    private Pair<Integer,Double> decompressRecursive(Path input, long offset, long blocksize, Path base) throws DomainControllerException, Algorithm.AlgorithmException, DataController.DataControllerException
     {
         int size = 0;
         double time = 0.0;
-        int limit = offset+blocksize;
+        long limit = offset+blocksize;
 
         while(offset < limit)
         {
-            Header h = Header.decode(input, offset);
+            Header h = Header.decode(DataController.readFileAt(input, offset, (int)Math.min(MAXHEADERSIZE, limit-offset)), 0);
             if(h == null) throw new DomainControllerException("Bad header format");
             offset += h.size();
+            if(offset + h.getSize() > limit) throw new DomainControllerException("Truncated file");
             if(h.getType() == Header.Type.file) // it's a compressed file
             {
                 Algorithm alg = getAlgorithmByName(h.getAlgorithm());
                 if(alg == null) throw new DomainControllerException("Algorithm not found");
-                byte[] data = new byte[h.getSize()];
-                System.arraycopy(input, offset, data, 0, h.getSize());
-                Pair<byte[], LocalStatistics> out = alg.decompress(data, h.getOriginalsize());
-                DataController.writeFile(base.resolve(h.getFilename()), out.first());
-                size += out.first().length;
-                time += out.second().getTime();
+                LocalStatistics ls = decompressToFile(alg, input, offset, h.getSize(), base.resolve(h.getFilename()), h.getOriginalsize());
+                size += h.getOriginalsize();
+                time += ls.getTime();
             }
             else // it's a compressed folder
             {
@@ -372,6 +551,36 @@ public class DomainController
         return new Pair<>(size, time);
     }
 
+    /**
+     * @brief Descomprimir un arxiu d'una posició d'un fitxer
+     * \pre "input" és un Path vàlid d'un arxiu que conté "size" bytes comprimits amb l'algorisme donat a partir de "offset", "output" és un Path vàlid d'un arxiu existent o no
+     * \post S'ha descomprimit l'arxiu amb l'algorisme donat entre canals, sense carregar-lo sencer a memòria, i s'ha guardat al path de sortida. Retorna les estadístiques locals de la descompressió
+     * \exception DataControllerException : Si hi ha algun problema en llegir o escriure els fitxers es llança excepció
+     * \exception AlgorithmException : Si hi ha algun problema intern en el procés de descompressió es llança excepció
+     * \param alg Algorisme
+     * \param input Path del fitxer comprimit
+     * \param offset Posició de les dades comprimides dins el fitxer
+     * \param size Mida de les dades comprimides
+     * \param output Path de sortida
+     * \param originalsize Mida de l'arxiu original
+     */
+    private static LocalStatistics decompressToFile(Algorithm alg, Path input, long offset, int size, Path output, int originalsize) throws DataController.DataControllerException, Algorithm.AlgorithmException
+    {
+        FileChannel in = null, out = null;
+        try
+        {
+            in = DataController.openReadChannel(input, offset);
+            DataController.writeFile(output, new byte[0]);
+            out = DataController.openAppendChannel(output);
+            return alg.decompress(in, size, out, originalsize);
+        }
+        finally
+        {
+            DataController.closeChannel(in);
+            DataController.closeChannel(out);
+        }
+    }
+
     /**
      * @brief Camparar un arxiu abans i després de la compressió/descompressió amb un cert algorisme
      * \pre "input" és un Path vàlid d'un arxiu .txt o .ppm, ha d'existir un algorisme amb el nom donat
@@ -658,7 +867,8 @@ public class DomainController
             byte type = header[offset];
             int size = (header[offset+1] & 0xFF) << 24 | (header[offset+2] & 0xFF) << 16 | (header[offset+3] & 0xFF) << 8 | (header[offset+4] & 0xFF);
             int i = 0;
-            while(header[offset+5+i] != 0x00) i++;
+            while(offset+5+i < header.length && header[offset+5+i] != 0x00) i++;
+            if(offset+5+i == header.length) return null; //unterminated filename
             String filename = new String(header, offset+5, i, StandardCharsets.ISO_8859_1);
             if(size < 0 || filename.isEmpty()) return null; //negative number or empty filename
             if(type == Type.file.getCode())
@@ -668,7 +878,8 @@ public class DomainController
                 int originalsize = (header[k] & 0xFF) << 24 | (header[k+1] & 0xFF) << 16 | (header[k+2] & 0xFF) << 8 | (header[k+3] & 0xFF);
                 if(originalsize < 0) return null; //negative number
                 int j = 0;
-                while(header[k+4+j] != 0x00) j++;
+                while(k+4+j < header.length && header[k+4+j] != 0x00) j++;
+                if(k+4+j == header.length) return null; //unterminated algorithm name
                 String algorithm = new String(header, k+4, j, StandardCharsets.ISO_8859_1);
                 return Header.fileHeader(size, filename, originalsize, algorithm);
             }
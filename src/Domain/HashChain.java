@@ -0,0 +1,232 @@
+/**
+ * @file HashChain.java
+ */
+
+package Domain;
+
+import java.util.Arrays;
+
+/**
+ * @class HashChain
+ * @brief Cercador de coincidències per cadenes de hash
+ * Estructura de dades que indexa les posicions de la finestra de cerca dels algorismes LZ77 (LZSS) segons un hash dels 3 primers bytes. Utilitza una taula de caps i dues cadenes (cap a posicions més antigues i més noves) sobre un buffer circular de la mida de la finestra, tot amb arrays d'ints primitius.
+ * Amb profunditat il·limitada la cerca recorre les posicions de la més antiga a la més nova i retorna exactament la mateixa coincidència que la cerca exhaustiva original; amb profunditat limitada recorre les posicions de la més nova a la més antiga i s'atura en arribar al límit.
+ */
+
+class HashChain
+{
+    /** @brief Número de bits del hash */
+    private static final int HASHBITS = 15;
+    /** @brief Mida de la taula de caps */
+    private static final int HASHSIZE = 1 << HASHBITS;
+    /** @brief Màscara del hash */
+    private static final int HASHMASK = HASHSIZE-1;
+    /** @brief Número mínim de bytes que ha de tenir una coincidència per ser indexada */
+    static final int MINMATCH = 3;
+
+    /** @brief Mida màxima de la finestra de cerca (distància màxima d'una coincidència) */
+    private final int windowSize;
+    /** @brief Mida del buffer circular (potència de 2 major que la finestra) */
+    private final int ringMask;
+    /** @brief Número màxim de posicions a visitar per cerca, 0 vol dir il·limitat */
+    private final int maxChain;
+    /** @brief Indica si una coincidència pot sobrepassar la posició actual (còpia solapada) */
+    private final boolean overlap;
+
+    /** @brief Posició més nova de cada hash, -1 si no n'hi ha */
+    private final int[] head;
+    /** @brief Posició més antiga de cada hash, -1 si no n'hi ha */
+    private final int[] tail;
+    /** @brief Posició anterior (més antiga) amb el mateix hash, indexat pel buffer circular */
+    private final int[] older;
+    /** @brief Posició següent (més nova) amb el mateix hash, indexat pel buffer circular */
+    private final int[] newer;
+    /** @brief Hash de cada posició del buffer circular, -1 si la posició no està indexada */
+    private final int[] hashOf;
+
+    /** @brief Posició d'inici de l'última coincidència trobada */
+    private int matchPos;
+    /** @brief Llargada de l'última coincidència trobada */
+    private int matchLen;
+
+    /**
+     * @brief Constructora
+     * \pre windowSize > 0, maxChain >= 0
+     * \post S'ha creat un cercador buit per a una finestra de mida windowSize, que visita com a màxim maxChain posicions per cerca (0 vol dir il·limitat)
+     * \param windowSize Distància màxima d'una coincidència
+     * \param maxChain Número màxim de posicions a visitar per cerca, 0 vol dir il·limitat
+     * \param overlap Si és cert, una coincidència pot continuar més enllà de la posició on es busca
+     */
+    HashChain(int windowSize, int maxChain, boolean overlap)
+    {
+        int ring = Integer.highestOneBit(windowSize) << 1;
+        this.windowSize = windowSize;
+        this.ringMask = ring-1;
+        this.maxChain = maxChain;
+        this.overlap = overlap;
+        head = new int[HASHSIZE];
+        tail = new int[HASHSIZE];
+        older = new int[ring];
+        newer = new int[ring];
+        hashOf = new int[ring];
+        reset();
+    }
+
+    /**
+     * @brief Obtenir la profunditat de cerca
+     * \pre true
+     * \post Retorna el número màxim de posicions a visitar per cerca, 0 vol dir il·limitat
+     */
+    int maxChain()
+    {
+        return maxChain;
+    }
+
+    /**
+     * @brief Buidar el cercador
+     * \pre true
+     * \post El cercador no conté cap posició
+     */
+    void reset()
+    {
+        Arrays.fill(head, -1);
+        Arrays.fill(tail, -1);
+        Arrays.fill(hashOf, -1);
+    }
+
+    /**
+     * @brief Calcular el hash d'una posició
+     * \pre pos+2 < mida de data
+     * \post Retorna el hash dels 3 bytes a partir de pos
+     */
+    private static int hash(byte[] data, int pos)
+    {
+        return (((data[pos] & 0xFF) << 10) ^ ((data[pos+1] & 0xFF) << 5) ^ (data[pos+2] & 0xFF)) & HASHMASK;
+    }
+
+    /**
+     * @brief Afegir una posició a la finestra
+     * \pre Les posicions s'afegeixen en ordre creixent i consecutiu
+     * \post S'ha afegit la posició pos (si té 3 bytes disponibles abans de end) i s'ha eliminat la posició que queda fora de la finestra
+     * \param data Dades sobre les que es fa la cerca
+     * \param pos Posició a afegir
+     * \param end Límit de les dades vàlides
+     */
+    void insert(byte[] data, int pos, int end)
+    {
+        int expired = pos-windowSize;
+        if(expired >= 0)
+        {
+            int es = expired & ringMask;
+            int eh = hashOf[es];
+            if(eh >= 0 && tail[eh] == expired)
+            {
+                int next = newer[es];
+                tail[eh] = next;
+                if(next < 0) head[eh] = -1;
+            }
+            hashOf[es] = -1;
+        }
+
+        int slot = pos & ringMask;
+        if(pos+MINMATCH > end)
+        {
+            hashOf[slot] = -1;
+            return;
+        }
+        int h = hash(data, pos);
+        int prev = head[h];
+        hashOf[slot] = h;
+        older[slot] = prev;
+        newer[slot] = -1;
+        if(prev >= 0) newer[prev & ringMask] = pos;
+        else tail[h] = pos;
+        head[h] = pos;
+    }
+
+    /**
+     * @brief Trobar la coincidència màxima en la finestra de cerca
+     * \pre Totes les posicions anteriors a pos dins la finestra han estat afegides, maxlen >= 0
+     * \post Retorna la llargada de la coincidència més llarga (0 si no n'hi ha de 3 bytes o més). Amb profunditat il·limitada, entre les més llargues es tria la més antiga. La posició es pot obtenir amb matchPosition()
+     * \param data Dades sobre les que es fa la cerca
+     * \param pos Posició on comença la cadena a cercar
+     * \param maxlen Llargada màxima de la coincidència
+     * \param end Límit de les dades vàlides
+     */
+    int find(byte[] data, int pos, int maxlen, int end)
+    {
+        matchPos = 0;
+        matchLen = 0;
+        int max = Math.min(maxlen, end-pos);
+        if(max < MINMATCH) return 0;
+
+        int h = hash(data, pos);
+        int lowest = pos-windowSize;
+
+        if(maxChain == 0) //exhaustive, oldest first (same choice as a linear scan of the window)
+        {
+            int p = tail[h];
+            while(p >= 0 && p < pos)
+            {
+                int dist = pos-p;
+                if(!overlap && dist <= matchLen) break;
+                if(p >= lowest)
+                {
+                    int len = matchLength(data, p, pos, max);
+                    if(len > matchLen)
+                    {
+                        matchPos = p;
+                        matchLen = len;
+                        if(len == maxlen) break;
+                    }
+                }
+                p = newer[p & ringMask];
+            }
+        }
+        else //bounded, newest first
+        {
+            int p = head[h];
+            int chain = maxChain;
+            while(p >= lowest && p >= 0 && chain-- > 0)
+            {
+                if(p < pos)
+                {
+                    int len = matchLength(data, p, pos, max);
+                    if(len > matchLen)
+                    {
+                        matchPos = p;
+                        matchLen = len;
+                        if(len == max) break;
+                    }
+                }
+                p = older[p & ringMask];
+            }
+        }
+
+        if(matchLen < MINMATCH) matchLen = 0;
+        return matchLen;
+    }
+
+    /**
+     * @brief Llargada de coincidència entre dues posicions
+     * \pre p < pos, pos+max <= mida de data
+     * \post Retorna el número de bytes iguals a partir de p i pos, com a màxim max (i com a màxim pos-p si no es permet solapament)
+     */
+    private int matchLength(byte[] data, int p, int pos, int max)
+    {
+        if(!overlap) max = Math.min(max, pos-p);
+        int len = 0;
+        while(len < max && data[p+len] == data[pos+len]) len++;
+        return len;
+    }
+
+    /**
+     * @brief Obtenir la posició de l'última coincidència
+     * \pre S'ha fet una cerca amb find()
+     * \post Retorna la posició d'inici de l'última coincidència trobada
+     */
+    int matchPosition()
+    {
+        return matchPos;
+    }
+}
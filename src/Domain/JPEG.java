@@ -1,7 +1,9 @@
 package Domain;
 
 import java.util.*;
-import Global.*;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
 
 /**
  * @class JPEG
@@ -21,17 +23,6 @@ class JPEG extends Algorithm
         super("JPEG");
     }
 
-    /**
-     * @class compareValuesPQ
-     * @brief Comparator per valors de la imatge
-     * Es una comparador per orderar la cua de prioritat que s'utilitzarà a la hora de fer la codificació de Huffman
-     */
-    private static class compareValuesPQ implements Comparator<Pair<Integer, Pair<Integer, Integer>>> {
-        public int compare(Pair<Integer, Pair<Integer, Integer>> p1, Pair<Integer, Pair<Integer, Integer>> p2) {
-            return Integer.compare(p1.first(), p2.first());
-        }
-    }
-
     /**
      * @class compareValuesTreePQ
      * @brief Comparator per els nodes de l'arbre de Huffman
@@ -44,46 +35,44 @@ class JPEG extends Algorithm
     }
 
     /**
-     * @brief Declarar matriu de Cosinus
-     * \pre true
-     * \post S'ha creat una matriu de Cosinus. Retorna aquesta matriu de Cosinus
+     * @brief Primer byte del format comprimit actual, amb codis de Huffman canònics. Els fitxers del format anterior, amb els diccionaris de Huffman en text, no el tenen i comencen directament amb el tipus del .ppm ('P')
      */
-    private float[][] declareCos() {
-        float[][] cos = new float[8][8];
-        //CALCULATE MATRIX OF COSINES
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                double aux = Math.cos(((2 * i + 1) * j * Math.PI) / (2 * 8));
-                cos[i][j] = (float) aux;
-            }
-        }
-        return cos;
-    }
+    private static final byte FORMAT = 1;
 
     /**
-     * @brief Declarar matriu de Coeficients
-     * \pre true
-     * \post S'ha creat una matriu de Coeficients. Retorna aquesta matriu de Coeficients
+     * @brief Número de files de cada franja de la imatge que es processa en una tasca (múltiple de 8)
      */
-    private float[][] declareCoeff() {
-        float[][] coeff = new float[8][8];
-        //CALCULATE MATRIX OF COEFFICIENTS
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                float n1, n2;
-                n1 = n2 = 1;
-                if (i == 0) n1 = 1f / (float) Math.sqrt(2);
-                if (j == 0) n2 = 1f / (float) Math.sqrt(2);
-                coeff[i][j] = n1 * n2;
-            }
-        }
-        return coeff;
-    }
+    private static final int STRIPE = 64;
+
+    /**
+     * @brief Posició dins del bloc (en ordre de files) de cada coeficient en l'ordre de la codificació entròpica (zig-zag)
+     */
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    /**
+     * @brief Llargada màxima dels codis de Huffman
+     */
+    private static final int MAXLENGTH = 16;
+
+    /**
+     * @brief Número de bits que es consulten de cop per descodificar un codi de Huffman amb una sola consulta a la taula
+     */
+    private static final int LOOKAHEAD = 10;
+
+    /**
+     * @brief Número de símbols possibles: cada parella (r,n) es codifica com a r * 2^11 + n, amb n en complement a 2 d'11 bits
+     */
+    private static final int NSYMBOLS = 1 << 15;
 
     /**
      * @brief Taula per fer la Quantització Digital
      */
-    private double[][] qTable = new double[][]{
+    private static final double[][] qTable = new double[][]{
             {16, 11, 10, 16, 24, 40, 51, 61},
             {12, 12, 14, 19, 26, 58, 60, 55},
             {14, 13, 16, 24, 40, 57, 69, 56},
@@ -95,245 +84,485 @@ class JPEG extends Algorithm
     };
 
     /**
-     * @brief Declarar lista de parelles de valors
-     * \pre wImg > 0, hImg > 0, arryList no es buida
-     * \post S'ha creat una llista amb totes les parelles (r,s) de cada bloc de la imatge. Retorna aquesta llista de parelles
-     * \param wImg Amplada de la imatge
-     * \param hImg Alçada de la imatge
-     * \param arryList Llista que conte els valors de la matriu amb codificació entròpica
+     * @brief Factors d'escala de la DCT ràpida (AAN) per a cada freqüència: 1 per a la 0 i sqrt(2)*cos(k*PI/16) per a la resta
      */
-    private ArrayList<Pair>[] makeHuffmanStruct(int wImg, int hImg, List<Integer> arrayList) {
+    private static final double[] aanScale = new double[8];
 
-        int numB = (wImg * hImg) / 64;
-        ArrayList<Pair>[] huffman = new ArrayList[numB];
+    /**
+     * @brief Factor pel qual es multiplica cada coeficient de la DCT ràpida per obtenir el de la DCT, en ordre de files
+     */
+    private static final float[] fdctScale = new float[64];
+
+    /**
+     * @brief Factor pel qual es multiplica cada coeficient quantitzat abans de la DCT inversa ràpida. Inclou la desquantització i la normalització de la sortida
+     */
+    private static final float[] idctScale = new float[64];
+
+    /**
+     * @brief Matriu de Cosinus de la DCT directa: dctCos[i][j] = cos((2i+1)*j*PI/16)
+     */
+    private static final float[][] dctCos = new float[8][8];
+
+    /**
+     * @brief Matriu de Coeficients de la DCT directa: producte dels factors de normalització de cada freqüència, 1/sqrt(2) per a la 0 i 1 per a la resta
+     */
+    private static final float[][] dctCoeff = new float[8][8];
+
+    /**
+     * @brief Distància a un empat (x.5) per sota de la qual un valor de la DCT ràpida es torna a calcular amb la DCT directa abans d'arrodonir-lo. És més gran que la diferència entre tots dos càlculs
+     */
+    private static final float TIE = 0.002f;
+
+    static {
+        aanScale[0] = 1.0;
+        for (int k = 1; k < 8; k++) aanScale[k] = Math.sqrt(2) * Math.cos(k * Math.PI / 16);
+        for (int u = 0; u < 8; u++) {
+            for (int v = 0; v < 8; v++) {
+                fdctScale[u * 8 + v] = (float) (1.0 / (8 * aanScale[u] * aanScale[v]));
+                idctScale[u * 8 + v] = (float) (qTable[u][v] * aanScale[u] * aanScale[v] / 8);
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                dctCos[i][j] = (float) Math.cos(((2 * i + 1) * j * Math.PI) / (2 * 8));
+                float n1 = i == 0 ? 1f / (float) Math.sqrt(2) : 1;
+                float n2 = j == 0 ? 1f / (float) Math.sqrt(2) : 1;
+                dctCoeff[i][j] = n1 * n2;
+            }
+        }
+    }
+
+    /**
+     * @brief Indica si un valor estava a prop d'un empat en arrodonir-lo
+     * \pre rounded = Math.round(x)
+     * \post Retorna cert si la part fraccionària de x és a menys de TIE de 0.5
+     * \param x Valor
+     * \param rounded Valor arrodonit
+     */
+    private static boolean nearTie(float x, int rounded) {
+        return Math.abs(x - rounded) > 0.5f - TIE;
+    }
+
+    /**
+     * @brief Coeficient de la DCT d'un bloc amb la DCT directa
+     * \pre src té 64 posicions amb els valors enters del bloc en ordre de files, 0 <= u < 8, 0 <= v < 8
+     * \post Retorna el coeficient (u,v) de la DCT de src arrodonit, calculat amb la suma de cosinus en float en el mateix ordre que la DCT directa, de manera que els empats s'arrodoneixen igual
+     * \param src Valors del bloc
+     * \param u Fila del coeficient
+     * \param v Columna del coeficient
+     */
+    private static int fdctDirect(float[] src, int u, int v) {
+        float sum = 0f;
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                sum += dctCos[i][u] * dctCos[j][v] * src[i * 8 + j];
+            }
+        }
+        return Math.round(1 / (float) Math.sqrt(2 * 8) * dctCoeff[u][v] * sum);
+    }
+
+    /**
+     * @brief Valor d'un bloc amb la DCT inversa directa
+     * \pre coeffs té almenys base + 64 posicions amb els coeficients quantitzats del bloc en ordre zig-zag, 0 <= u < 8, 0 <= v < 8
+     * \post Retorna el valor (u,v) del bloc desquantitzat i transformat arrodonit, calculat amb la suma de cosinus en float en el mateix ordre que la DCT inversa directa, de manera que els empats s'arrodoneixen igual
+     * \param coeffs Coeficients del canal
+     * \param base Posició del primer coeficient del bloc
+     * \param u Fila del valor
+     * \param v Columna del valor
+     */
+    private static int idctDirect(short[] coeffs, int base, int u, int v) {
+        int[] dDct = new int[64];
+        for (int k = 0; k < 64; k++) {
+            int pos = ZIGZAG[k];
+            dDct[pos] = coeffs[base + k] * (int) qTable[pos / 8][pos % 8];
+        }
+        float sum = 0f;
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                sum += dctCos[u][i] * dctCos[v][j] * dDct[i * 8 + j] * dctCoeff[i][j];
+            }
+        }
+        return Math.round(1 / (float) Math.sqrt(2 * 8) * sum);
+    }
+
+    /**
+     * @brief Arrodonir un valor d'un bloc després de la DCT inversa ràpida
+     * \pre block té 64 posicions amb el bloc després de la DCT inversa ràpida, coeffs té almenys base + 64 posicions amb els coeficients quantitzats del bloc en ordre zig-zag, 0 <= pos < 64
+     * \post Retorna block[pos] arrodonit. Si és a prop d'un empat, es torna a calcular amb la DCT inversa directa
+     * \param block Bloc de valors
+     * \param coeffs Coeficients del canal
+     * \param base Posició del primer coeficient del bloc
+     * \param pos Posició del valor dins del bloc, en ordre de files
+     */
+    private static int roundIdct(float[] block, short[] coeffs, int base, int pos) {
+        int rounded = Math.round(block[pos]);
+        if (nearTie(block[pos], rounded)) rounded = idctDirect(coeffs, base, pos / 8, pos % 8);
+        return rounded;
+    }
+
+    /**
+     * @brief DCT ràpida d'un vector de 8 valors
+     * \pre b té almenys off + 7 * stride + 1 posicions
+     * \post S'han substituït els valors b[off + k * stride] per la seva DCT (algorisme AAN), on cada coeficient k queda multiplicat per 2 * aanScale[k]
+     * \param b Dades
+     * \param off Posició del primer valor
+     * \param stride Distància entre dos valors consecutius
+     */
+    private static void fdct8(float[] b, int off, int stride) {
+        float tmp0 = b[off] + b[off + 7 * stride];
+        float tmp7 = b[off] - b[off + 7 * stride];
+        float tmp1 = b[off + stride] + b[off + 6 * stride];
+        float tmp6 = b[off + stride] - b[off + 6 * stride];
+        float tmp2 = b[off + 2 * stride] + b[off + 5 * stride];
+        float tmp5 = b[off + 2 * stride] - b[off + 5 * stride];
+        float tmp3 = b[off + 3 * stride] + b[off + 4 * stride];
+        float tmp4 = b[off + 3 * stride] - b[off + 4 * stride];
+
+        //EVEN PART
+        float tmp10 = tmp0 + tmp3;
+        float tmp13 = tmp0 - tmp3;
+        float tmp11 = tmp1 + tmp2;
+        float tmp12 = tmp1 - tmp2;
+        b[off] = tmp10 + tmp11;
+        b[off + 4 * stride] = tmp10 - tmp11;
+        float z1 = (tmp12 + tmp13) * 0.707106781f;
+        b[off + 2 * stride] = tmp13 + z1;
+        b[off + 6 * stride] = tmp13 - z1;
+
+        //ODD PART
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+        float z5 = (tmp10 - tmp12) * 0.382683433f;
+        float z2 = 0.541196100f * tmp10 + z5;
+        float z4 = 1.306562965f * tmp12 + z5;
+        float z3 = tmp11 * 0.707106781f;
+        float z11 = tmp7 + z3;
+        float z13 = tmp7 - z3;
+        b[off + 5 * stride] = z13 + z2;
+        b[off + 3 * stride] = z13 - z2;
+        b[off + stride] = z11 + z4;
+        b[off + 7 * stride] = z11 - z4;
+    }
+
+    /**
+     * @brief DCT inversa ràpida d'un vector de 8 valors
+     * \pre b té almenys off + 7 * stride + 1 posicions, cada coeficient b[off + k * stride] està multiplicat per aanScale[k]
+     * \post S'han substituït els coeficients per la seva DCT inversa (algorisme AAN), multiplicada per 2 * sqrt(2)
+     * \param b Dades
+     * \param off Posició del primer coeficient
+     * \param stride Distància entre dos coeficients consecutius
+     */
+    private static void idct8(float[] b, int off, int stride) {
+        //EVEN PART
+        float tmp0 = b[off];
+        float tmp1 = b[off + 2 * stride];
+        float tmp2 = b[off + 4 * stride];
+        float tmp3 = b[off + 6 * stride];
+        float tmp10 = tmp0 + tmp2;
+        float tmp11 = tmp0 - tmp2;
+        float tmp13 = tmp1 + tmp3;
+        float tmp12 = (tmp1 - tmp3) * 1.414213562f - tmp13;
+        tmp0 = tmp10 + tmp13;
+        tmp3 = tmp10 - tmp13;
+        tmp1 = tmp11 + tmp12;
+        tmp2 = tmp11 - tmp12;
+
+        //ODD PART
+        float tmp4 = b[off + stride];
+        float tmp5 = b[off + 3 * stride];
+        float tmp6 = b[off + 5 * stride];
+        float tmp7 = b[off + 7 * stride];
+        float z13 = tmp6 + tmp5;
+        float z10 = tmp6 - tmp5;
+        float z11 = tmp4 + tmp7;
+        float z12 = tmp4 - tmp7;
+        tmp7 = z11 + z13;
+        tmp11 = (z11 - z13) * 1.414213562f;
+        float z5 = (z10 + z12) * 1.847759065f;
+        tmp10 = 1.082392200f * z12 - z5;
+        tmp12 = -2.613125930f * z10 + z5;
+        tmp6 = tmp12 - tmp7;
+        tmp5 = tmp11 - tmp6;
+        tmp4 = tmp10 + tmp5;
+
+        b[off] = tmp0 + tmp7;
+        b[off + 7 * stride] = tmp0 - tmp7;
+        b[off + stride] = tmp1 + tmp6;
+        b[off + 6 * stride] = tmp1 - tmp6;
+        b[off + 2 * stride] = tmp2 + tmp5;
+        b[off + 5 * stride] = tmp2 - tmp5;
+        b[off + 4 * stride] = tmp3 + tmp4;
+        b[off + 3 * stride] = tmp3 - tmp4;
+    }
 
-        for (int i = 0; i < numB; i++) huffman[i] = new ArrayList<>();
+    /**
+     * @brief DCT d'un bloc de 8x8
+     * \pre block té 64 posicions amb els valors del bloc en ordre de files
+     * \post S'ha substituït el bloc per la seva DCT per files i després per columnes. Cada coeficient queda dividit per fdctScale
+     * \param block Bloc de valors
+     */
+    private static void fdct8x8(float[] block) {
+        for (int i = 0; i < 8; i++) fdct8(block, i * 8, 1);
+        for (int j = 0; j < 8; j++) fdct8(block, j, 8);
+    }
 
-        for (int b = 0; b < (wImg * hImg); b += 64) {
+    /**
+     * @brief DCT inversa d'un bloc de 8x8
+     * \pre block té 64 posicions amb els coeficients del bloc en ordre de files, multiplicats per idctScale
+     * \post S'ha substituït el bloc per la seva DCT inversa per columnes i després per files
+     * \param block Bloc de coeficients
+     */
+    private static void idct8x8(float[] block) {
+        for (int j = 0; j < 8; j++) idct8(block, j, 8);
+        for (int i = 0; i < 8; i++) idct8(block, i * 8, 1);
+    }
+
+    /**
+     * @brief Processar la imatge per franges
+     * \pre hImg > 0
+     * \post S'ha cridat stripe amb la primera fila de cada franja de STRIPE files de la imatge (l'última pot ser més curta), cadascuna en una tasca del ForkJoinPool comú
+     * \param hImg Alçada de la imatge
+     * \param stripe Acció que processa la franja que comença a la fila donada
+     */
+    private static void forEachStripe(int hImg, IntConsumer stripe) {
+        int n = (hImg + STRIPE - 1) / STRIPE;
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[n];
+        for (int t = 0; t < n; t++) {
+            final int row = t * STRIPE;
+            tasks[t] = new RecursiveAction() {
+                protected void compute() {
+                    stripe.accept(row);
+                }
+            };
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * @brief Recórrer les parelles de valors d'un canal
+     * \pre values té 64 valors per bloc en ordre zig-zag, tots amb valor absolut menor que 1024
+     * \post S'ha cridat action amb el símbol de cada parella (r,n) de cada bloc, en ordre: r zeros seguits del valor n != 0, (15,0) per cada 16 zeros seguits que no arriben al final del bloc, i (0,0) com a final de bloc si l'últim valor del bloc és 0
+     * \param values Valors de la matriu amb codificació entròpica
+     * \param action Acció que rep cada símbol
+     */
+    private static void forEachSymbol(short[] values, IntConsumer action) {
+        for (int b = 0; b < values.length; b += 64) {
             int countZ = 0;
             for (int i = b; i < b + 64; i++) {
-                if (arrayList.get(i) != 0) {
-                    int r, s, n;
-                    n = arrayList.get(i);
-                    r = countZ;
+                if (values[i] != 0) {
+                    action.accept(countZ << 11 | values[i] & 0x7FF);
                     countZ = 0;
-                    s = (int) (Math.log10(Math.abs(n)) / Math.log10(2.0)) + 1;
-                    Pair value = new Pair(r, n);
-                    huffman[b / 64].add(value);
                 } else if (countZ == 15 && i != b + 63) {
-                    int r, s, n;
-                    n = arrayList.get(i);
-                    r = countZ;
+                    action.accept(15 << 11);
                     countZ = 0;
-                    s = 0;
-                    Pair value = new Pair(r, n);
-                    huffman[b / 64].add(value);
                 } else if (i != b + 63) {
                     ++countZ;
                 } else {
-                    Pair value = new Pair(0, 0);
-                    huffman[b / 64].add(value);
+                    action.accept(0);
                 }
             }
         }
-        return huffman;
     }
 
     /**
      * @class huffmanNode
      * @brief Node de l'arbre de Huffman
-     * És un node de l'abre de Huffman que conté la freqüència, el valor i quins son els fills d'aquest node
+     * És un node de l'abre de Huffman que conté la freqüència i quins son els fills d'aquest node
      */
     private static class huffmanNode {
         int freq;
-        Pair<Integer, Integer> value;
         huffmanNode left;
         huffmanNode right;
     }
 
     /**
-     * @brief Diccionai de Huffman de la imatge
+     * @class huffmanTable
+     * @brief Codi de Huffman canònic d'un canal
+     * Guarda quants codis hi ha de cada llargada i els símbols en l'ordre en què se'ls assignen els codis, que és el que s'escriu a la capçalera. A partir d'això calcula el codi i la llargada de cada símbol per codificar, i per descodificar una taula indexada pels següents LOOKAHEAD bits que resol directament els codis curts, més el primer codi i la posició del primer símbol de cada llargada per als codis més llargs.
      */
-    private HashMap dictionaryy;
+    private static class huffmanTable {
+        /** @brief Número de codis de cada llargada, de 1 a MAXLENGTH */
+        final int[] count = new int[MAXLENGTH + 1];
+        /** @brief Símbols ordenats per llargada del codi */
+        int[] symbols;
+        /** @brief Codi de cada símbol */
+        final int[] code = new int[NSYMBOLS];
+        /** @brief Llargada del codi de cada símbol, 0 si no apareix */
+        final int[] length = new int[NSYMBOLS];
+        /** @brief Primer codi de cada llargada */
+        final int[] firstCode = new int[MAXLENGTH + 1];
+        /** @brief Posició a symbols del primer símbol de cada llargada */
+        final int[] firstIndex = new int[MAXLENGTH + 1];
+        /** @brief Símbol i llargada (llargada * 2^16 + símbol) del codi que comença per cada valor de LOOKAHEAD bits, 0 si el codi és més llarg */
+        final int[] lookup = new int[1 << LOOKAHEAD];
+
+        /**
+         * @brief Constructora a partir de les freqüències
+         * \pre freq té NSYMBOLS posicions i almenys una és positiva
+         * \post S'ha creat el codi de Huffman canònic dels símbols amb freqüència positiva, amb codis de com a molt MAXLENGTH bits
+         * \param freq Freqüència de cada símbol
+         */
+        huffmanTable(int[] freq) {
+            //SYMBOLS SORTED BY DECREASING FREQUENCY
+            int n = 0;
+            for (int sym = 0; sym < NSYMBOLS; sym++) if (freq[sym] > 0) n++;
+            long[] order = new long[n];
+            n = 0;
+            for (int sym = 0; sym < NSYMBOLS; sym++) {
+                if (freq[sym] > 0) order[n++] = (long) (Integer.MAX_VALUE - freq[sym]) << 15 | sym;
+            }
+            Arrays.sort(order);
+            symbols = new int[n];
+            for (int i = 0; i < n; i++) symbols[i] = (int) (order[i] & (NSYMBOLS - 1));
 
-    /**
-     * @brief Genera el diccionari de Huffman a partir de l'arbre de Huffman
-     * \pre root != null, s != null
-     * \post S'ha creat un diccionari de Huffman. Retorna aquest diccionari, representat amb un HashMap
-     * \param root Arrel del arbre actual
-     * \param s Codificació de Huffman fins el node actual
-     */
-    private void generateDictionary(huffmanNode root, String s) {
-        if (root.left == null && root.right == null && root.value != null) {
-            dictionaryy.put(root.value, s);
-            return;
-        }
-        if (root.left != null) generateDictionary(root.left, s + "0");
-        if (root.right != null) generateDictionary(root.right, s + "1");
-    }
+            //NUMBER OF LEAVES AT EVERY DEPTH OF THE HUFFMAN TREE
+            int[] bits = new int[Math.max(n, MAXLENGTH) + 1];
+            if (n == 1) bits[1] = 1;
+            else {
+                PriorityQueue<huffmanNode> q = new PriorityQueue<>(new compareValuesTreePQ());
+                for (int i = 0; i < n; i++) {
+                    huffmanNode node = new huffmanNode();
+                    node.freq = freq[symbols[i]];
+                    q.add(node);
+                }
+                while (q.size() > 1) {
+                    huffmanNode nodeRight = q.poll();
+                    huffmanNode nodeLeft = q.poll();
+                    huffmanNode nodeActual = new huffmanNode();
+                    nodeActual.freq = nodeLeft.freq + nodeRight.freq;
+                    nodeActual.left = nodeLeft;
+                    nodeActual.right = nodeRight;
+                    q.add(nodeActual);
+                }
+                countLeaves(q.poll(), 0, bits);
+            }
 
-    /**
-     * @brief Genera el diccionari de Huffman a partir de les parelles de valor de la imatge
-     * \pre PQ not empty
-     * \post S'ha creat un diccionari de Huffman. Retorna aquest diccionari, representat amb un HashMap
-     * \param PQ Cua de prioritat de les parelles de valors i les frequencies d'aquestes parelles
-     */
-    private HashMap generateHuffmanTree(PriorityQueue<Pair<Integer, Pair<Integer, Integer>>> PQ) {
-        PriorityQueue<huffmanNode> q = new PriorityQueue(new compareValuesTreePQ());
-        while (PQ.size() > 0) {
-            Pair<Integer, Pair<Integer, Integer>> pair = PQ.poll();
-            huffmanNode node = new huffmanNode();
-            node.right = null;
-            node.left = null;
-            node.freq = pair.first();
-            node.value = pair.second();
-            q.add(node);
-        }
-        if (q.size() == 1) {
-            dictionaryy = new HashMap();
-            dictionaryy.put(q.poll().value, "0");
-        } else {
-            huffmanNode root = null;
-            while (q.size() > 1) {
-                huffmanNode nodeRight = q.poll();
-                huffmanNode nodeLeft = q.poll();
-                huffmanNode nodeActual = new huffmanNode();
-                nodeActual.freq = nodeLeft.freq + nodeRight.freq;
-                nodeActual.value = null;
-                nodeActual.left = nodeLeft;
-                nodeActual.right = nodeRight;
-                root = nodeActual;
-                q.add(nodeActual);
+            //LIMIT THE LENGTH OF THE CODES: EVERY PAIR OF LEAVES TOO DEEP IS REPLACED BY ONE LEAF A LEVEL UP AND THE
+            // DEEPEST SHALLOWER LEAF BECOMES TWO LEAVES ONE LEVEL DOWN
+            for (int i = bits.length - 1; i > MAXLENGTH; i--) {
+                while (bits[i] > 0) {
+                    int j = i - 2;
+                    while (bits[j] == 0) j--;
+                    bits[i] -= 2;
+                    bits[i - 1]++;
+                    bits[j + 1] += 2;
+                    bits[j]--;
+                }
             }
-            dictionaryy = new HashMap();
-            generateDictionary(root, "");
+            System.arraycopy(bits, 1, count, 1, MAXLENGTH);
+            assign();
         }
-        return dictionaryy;
-    }
 
-    /**
-     * @brief Reconstruiex l'arbre de Huffman a partir de l'arrel, la parella i el seu codi
-     * \pre root != null, code != null, key != null
-     * \post S'ha creat un diccionari de Huffman. Retorna aquest diccionari, representat amb un HashMap
-     * \param root Arrel del arbre actual
-     * \param s Codificació de Huffman fins el node actual
-     */
-    private huffmanNode rebuildTree(huffmanNode root, String code, Pair key) {
-        if (code.charAt(0) == '0') {
-            huffmanNode left;
-            if (root.left == null) {
-                left = new huffmanNode();
-                left.value = null;
-                left.freq = 0;
-            } else left = root.left;
-            if (code.length() > 1) root.left = rebuildTree(left, code.substring(1), key);
-            else {
-                left.value = key;
-                root.left = left;
+        /**
+         * @brief Constructora a partir de la capçalera
+         * \pre true
+         * \post S'ha llegit el codi de Huffman canònic escrit amb write a partir de la posició p de data
+         * \exception ByteArrayException : Si la taula no és vàlida es llança excepció
+         * \param data Dades de la imatge comprimida
+         * \param p Posició del principi de la taula
+         */
+        huffmanTable(byte[] data, int p) throws ByteArray.ByteArrayException {
+            if (p + 2 * MAXLENGTH > data.length) throw new ByteArray.ByteArrayException("JPEG: truncated Huffman table");
+            int n = 0;
+            long space = 0;
+            for (int len = 1; len <= MAXLENGTH; len++, p += 2) {
+                count[len] = ByteArray.shortAt(data, p) & 0xFFFF;
+                n += count[len];
+                space += (long) count[len] << (MAXLENGTH - len);
             }
-        } else if (code.charAt(0) == '1') {
-            huffmanNode right;
-            if (root.right == null) {
-                right = new huffmanNode();
-                right.value = null;
-                right.freq = 0;
-            } else right = root.right;
-            if (code.length() > 1) root.right = rebuildTree(right, code.substring(1), key);
-            else {
-                right.value = key;
-                root.right = right;
+            if (n == 0 || space > 1 << MAXLENGTH || p + 2 * n > data.length) throw new ByteArray.ByteArrayException("JPEG: bad Huffman table");
+            symbols = new int[n];
+            for (int i = 0; i < n; i++, p += 2) {
+                symbols[i] = ByteArray.shortAt(data, p) & 0xFFFF;
+                if (symbols[i] >= NSYMBOLS) throw new ByteArray.ByteArrayException("JPEG: bad Huffman table");
             }
+            assign();
         }
-        return root;
-    }
 
-    /**
-     * @brief Reconstruiex l'arbre de Huffman a partir del diccionari de les parelles de valors
-     * \pre dictionaryAC not empty
-     * \post S'ha creat un arbre que codifica Huffman i a les fulles conte les parelles de valors. Retorna l'arrel d'aquest arbre
-     * \param dictionaryAC HashMap amb totes les codificacions de Huffman de la imatge
-     */
-    private huffmanNode rebuildTreeFromHuffmanCodes(HashMap<Pair<Integer, Integer>, String> dictionaryAC) {
-        huffmanNode root = new huffmanNode();
-        root.value = null;
-        root.freq = 0;
-        for (Map.Entry<Pair<Integer, Integer>, String> entry : dictionaryAC.entrySet()) {
-            Pair key = entry.getKey();
-            String code = entry.getValue();
-            root = rebuildTree(root, code, key);
+        /**
+         * @brief Comptar les fulles de cada profunditat
+         * \pre node != null, bits té més posicions que la profunditat de les fulles de node
+         * \post S'ha sumat a bits[d] el número de fulles de l'arbre de node que són a profunditat d
+         * \param node Arrel de l'arbre actual
+         * \param depth Profunditat de node
+         * \param bits Número de fulles de cada profunditat
+         */
+        private static void countLeaves(huffmanNode node, int depth, int[] bits) {
+            if (node.left == null && node.right == null) {
+                bits[depth]++;
+                return;
+            }
+            if (node.left != null) countLeaves(node.left, depth + 1, bits);
+            if (node.right != null) countLeaves(node.right, depth + 1, bits);
         }
-        return root;
-    }
 
-    /**
-     * @brief Codifica entròpicament la imatge
-     * \pre wImg > 0, hImg > 0, dct son 3 matrius de wImg*hImg dimensions
-     * \post Es llegeixen les 3 matrius entropicament i s'escriuren en una llista els valors. Es retornen aquestes 3 llistes
-     * \param wImg Amplada de imatge
-     * \param hImg Alçada de la imatge
-     * \ dct Matrius amb els 3 canals després de fer dct a la imatge
-     */
-    private List<Integer>[] createEntropyCoding(int wImg, int hImg, int[][][] dct) {
-        //CREATING ENTROPY CODING // arrayListYUV[] Y -> 0 \ U -> 1 \ V -> 2
-        List<Integer>[] arrayListYUV = new ArrayList[3];
-        arrayListYUV[0] = new ArrayList<>();
-        arrayListYUV[1] = new ArrayList<>();
-        arrayListYUV[2] = new ArrayList<>();
-        for (int bi = 0; bi < hImg; bi += 8) {
-            for (int bj = 0; bj < wImg; bj += 8) {
-                boolean end = false;
-                int i = 0;
-                int j = 0;
-                while (!end) {
-                    if (i + 1 == 7 && j - 1 == 7) end = true;
-                    if (j == 0 && i == 0) {
-                        arrayListYUV[0].add(dct[0][bi + i][bj + j]);
-                        arrayListYUV[1].add(dct[1][bi + i][bj + j]);
-                        arrayListYUV[2].add(dct[2][bi + i][bj + j]);
-                        j++;
-                    }
-                    //DOWN FIRST HALF
-                    else if (i - 1 < 0 && j < 8) {
-                        i = 0;
-                        for (; j >= 0; j--, i++) {
-                            arrayListYUV[0].add(dct[0][bi + i][bj + j]);
-                            arrayListYUV[1].add(dct[1][bi + i][bj + j]);
-                            arrayListYUV[2].add(dct[2][bi + i][bj + j]);
-                        }
-                    }
-                    //UP FIRST HALF
-                    else if (j - 1 < 0 && i < 8) {
-                        j = 0;
-                        for (; i >= 0; i--, j++) {
-                            arrayListYUV[0].add(dct[0][bi + i][bj + j]);
-                            arrayListYUV[1].add(dct[1][bi + i][bj + j]);
-                            arrayListYUV[2].add(dct[2][bi + i][bj + j]);
-                        }
-                    }
-                    //DOWN SECOND HALF
-                    else if (i + 1 >= 0 && j + 1 > 7) {
-                        j = 7;
-                        i += 2;
-                        for (; i < 8; j--, i++) {
-                            arrayListYUV[0].add(dct[0][bi + i][bj + j]);
-                            arrayListYUV[1].add(dct[1][bi + i][bj + j]);
-                            arrayListYUV[2].add(dct[2][bi + i][bj + j]);
-                        }
-                    }
-                    //UP SECOND HALF
-                    else if (j + 1 >= 0 && i + 1 > 7) {
-                        j += 2;
-                        i = 7;
-                        for (; j < 8; i--, j++) {
-                            arrayListYUV[0].add(dct[0][bi + i][bj + j]);
-                            arrayListYUV[1].add(dct[1][bi + i][bj + j]);
-                            arrayListYUV[2].add(dct[2][bi + i][bj + j]);
-                        }
+        /**
+         * @brief Assignar els codis
+         * \pre count i symbols estan definits, i els codis de cada llargada hi caben
+         * \post S'han assignat codis consecutius als símbols en l'ordre de symbols, de més curts a més llargs, i s'han calculat les taules per codificar i descodificar
+         */
+        private void assign() {
+            int c = 0;
+            int idx = 0;
+            for (int len = 1; len <= MAXLENGTH; len++) {
+                firstCode[len] = c;
+                firstIndex[len] = idx;
+                for (int i = 0; i < count[len]; i++, c++, idx++) {
+                    code[symbols[idx]] = c;
+                    length[symbols[idx]] = len;
+                    if (len <= LOOKAHEAD) {
+                        int shift = LOOKAHEAD - len;
+                        Arrays.fill(lookup, c << shift, (c + 1) << shift, len << 16 | symbols[idx]);
                     }
                 }
+                c <<= 1;
             }
         }
-        return arrayListYUV;
+
+        /**
+         * @brief Escriure la taula
+         * \pre true
+         * \post S'ha escrit a out el número de codis de cada llargada i els símbols, cadascun com a short
+         * \param out Dades de sortida
+         */
+        void write(ByteArray out) {
+            for (int len = 1; len <= MAXLENGTH; len++) out.putShort((short) count[len]);
+            for (int sym : symbols) out.putShort((short) sym);
+        }
+
+        /**
+         * @brief Mida de la taula
+         * \pre true
+         * \post Retorna el número de bytes que ocupa la taula escrita amb write
+         */
+        int size() {
+            return 2 * (MAXLENGTH + symbols.length);
+        }
+
+        /**
+         * @brief Descodificar un símbol
+         * \pre true
+         * \post Retorna el següent símbol de in. Els codis de com a molt LOOKAHEAD bits es resolen amb una consulta a lookup, i la resta comparant els següents MAXLENGTH bits amb el primer codi de cada llargada
+         * \exception ByteArrayException : Si no queden prou bits o el codi no és vàlid es llança excepció
+         * \param in Lector de bits
+         */
+        int decode(BitReader in) throws ByteArray.ByteArrayException {
+            int e = lookup[in.peek(LOOKAHEAD)];
+            if (e != 0) {
+                in.consume(e >>> 16);
+                return e & 0xFFFF;
+            }
+            int bits = in.peek(MAXLENGTH);
+            for (int len = LOOKAHEAD + 1; len <= MAXLENGTH; len++) {
+                int k = (bits >>> (MAXLENGTH - len)) - firstCode[len];
+                if (k < count[len]) {
+                    in.consume(len);
+                    return symbols[firstIndex[len] + k];
+                }
+            }
+            throw new ByteArray.ByteArrayException("JPEG: bad Huffman code");
+        }
     }
 
     /**
@@ -382,17 +611,14 @@ class JPEG extends Algorithm
     /**
      * @brief LLegeix el Header de la imatge Comprimida
      * \pre true
-     * \post LLegeix el Header de la imatge. Retorna amplada, alçada, pixels d'amplada i alçada fins a multiple de 8, codificació rgb de la imatge, en quin byte de la imatge acaba el header i mida dels diccionaris de Huffman
+     * \post LLegeix el Header de la imatge, que comença a la posició start amb el tipus del .ppm. Retorna amplada, alçada, pixels d'amplada i alçada fins a multiple de 8, codificació rgb de la imatge i en quin byte de la imatge acaba el header
      * \param imageCompressed Dades de la imatge
+     * \param start Posició on comença el header
      */
-    private int[] readHeaderDecompress(byte[] imageCompressed) {
-        String sizeDicACy = "";
-        String sizeDicACu = "";
-        String sizeDicACv = "";
-
-        int[] result = new int[9];
+    private int[] readHeaderDecompress(byte[] imageCompressed, int start) {
+        int[] result = new int[6];
 
-        int itImg = 3;
+        int itImg = start + 3;
         //READ REST OF THE HEADER
         boolean endHeader = false;
         for (; itImg < imageCompressed.length && !endHeader; itImg++) {
@@ -422,27 +648,13 @@ class JPEG extends Algorithm
                 for (; (char) imageCompressed[aux] >= '0' && (char) imageCompressed[aux] <= '9'; aux++) {
                     wTo8String += (char) imageCompressed[aux];
                 }
-                ++aux;
-                for (; (char) imageCompressed[aux] >= '0' && (char) imageCompressed[aux] <= '9'; aux++) {
-                    sizeDicACy += (char) imageCompressed[aux];
-                }
-                ++aux;
-                for (; (char) imageCompressed[aux] >= '0' && (char) imageCompressed[aux] <= '9'; aux++) {
-                    sizeDicACu += (char) imageCompressed[aux];
-                }
-                ++aux;
-                for (; (char) imageCompressed[aux] >= '0' && (char) imageCompressed[aux] <= '9'; aux++) {
-                    sizeDicACv += (char) imageCompressed[aux];
-                }
+
                 ++aux;
                 result[0] = ((Integer.parseInt(wString)) / 8) * 8;
                 result[1] = ((Integer.parseInt(hString) / 8) * 8);
                 result[2] = ((Integer.parseInt(rgbString) / 8) * 8);
                 result[3] = Integer.parseInt(hTo8String);
                 result[4] = Integer.parseInt(wTo8String);
-                result[6] = Integer.parseInt(sizeDicACy);
-                result[7] = Integer.parseInt(sizeDicACu);
-                result[8] = Integer.parseInt(sizeDicACv);
                 itImg = aux - 1;
             }
         }
@@ -451,162 +663,78 @@ class JPEG extends Algorithm
     }
 
     /**
-     * @brief Converteix les parelles (r,s) a una llista mb tots els valors de la imatge
-     * \pre wImg > 0, hImg > 0, dHuffmanAC not empty
-     * \post Crea una llista amb tots els valors de la imatge a partir de les parelles (r,s) afegint els zeros necessaris entre números. Retorna aquesta nova llista
-     * \param wImg Amplada de imatge
-     * \param hImg Alçada de la imatge
-     * \param dHuffmanAC Llista amb les parelles de valors de la imatge
-     */
-    private List<Integer>[] transformPairsToLists(int wImg, int hImg, ArrayList<Pair>[][] dHuffmanAC) {
-        //TRANSFORM PAIRS IN LIST WITH ALL THE ELEMENTS // dArrayList[] Y -> 0 \ U -> 1 \ V -> 2
-        List<Integer>[] dArrayListYUV = new ArrayList[3];
-        dArrayListYUV[0] = new ArrayList<>(wImg * hImg);
-        dArrayListYUV[1] = new ArrayList<>(wImg * hImg);
-        dArrayListYUV[2] = new ArrayList<>(wImg * hImg);
-        //DECLARE
-        for (int i = 0; i < (wImg * hImg); i++) {
-            dArrayListYUV[0].add(0);
-            dArrayListYUV[2].add(0);
-            dArrayListYUV[1].add(0);
-        }
-        //TRANSFORM
-        for (int i = 0; i < (wImg * hImg) / 64; i++) {
-            for (int yuv = 0; yuv < 3; yuv++) {
-                int pointer = i * 64;
-                for (int j = 0; j < dHuffmanAC[yuv][i].size(); j++) {
-                    Pair value = dHuffmanAC[yuv][i].get(j);
-                    int r = (int) value.first();
-                    int n = (int) value.second();
-                    while (r > 0) {
-                        r--;
-                        dArrayListYUV[yuv].set(pointer, 0);
-                        ++pointer;
-                    }
-                    dArrayListYUV[yuv].set(pointer, n);
-                    ++pointer;
-                }
+     * @brief Descodifica les parelles (r,n) d'un canal
+     * \pre values té 64 valors per bloc, tots a 0
+     * \post S'han llegit de in els símbols de tots els blocs del canal i s'han escrit els seus valors a values, deixant els zeros necessaris entre números, 64 valors per bloc en ordre zig-zag. Un bloc acaba amb (0,0) o quan s'ha omplert
+     * \exception ByteArrayException : Si les dades no són vàlides es llança excepció
+     * \param in Lector de bits
+     * \param table Codi de Huffman del canal
+     * \param values Valors del canal
+     */
+    private static void decodeChannel(BitReader in, huffmanTable table, short[] values) throws ByteArray.ByteArrayException {
+        for (int b = 0; b < values.length; b += 64) {
+            int pointer = b;
+            while (pointer < b + 64) {
+                int sym = table.decode(in);
+                if (sym == 0) break;
+                pointer += sym >>> 11;
+                if (pointer >= b + 64) throw new ByteArray.ByteArrayException("JPEG: run out of block");
+                values[pointer] = (short) (sym << 21 >> 21);
+                ++pointer;
             }
         }
-        return dArrayListYUV;
     }
 
     /**
-     * @brief Desfà la codificació entropica
-     * \pre wImg > 0, hImg > 0, dArrayListYUV not empty
-     * \post Declara tres matrius (per els tres canals) amb els valors de la imatge al desfer la codificació entròpica realizada en la compressio. Retorna aquestes tres matrius
+     * @brief Desfà la quantització, la DCT i la conversió a YUV
+     * \pre wImg > 0, hImg > 0 són múltiples de 8, dCoeffYUV té wImg*hImg valors per canal, wOut <= wImg, hOut <= hImg, imageDC té almenys offset + 3*wOut*hOut posicions
+     * \post S'han escrit a imageDC, a partir de offset, els píxels RGB de les primeres hOut files i wOut columnes de la imatge, desfent bloc a bloc la quantització, el zig-zag, la DCT i la conversió a YUV realitzades en la compressió, cada franja de files en una tasca
      * \param wImg Amplada de imatge
      * \param hImg Alçada de la imatge
-     * \param dArrayListYUV Llista amb els valors de la imatge després de fer la codificació entròpica
-     */
-    private int[][][] reverseEntropyCoding(int wImg, int hImg, List<Integer>[] dArrayListYUV) {
-        //INVERSE ENTROPY CODING // dDct[] Y -> 0 \ U -> 1 \ V -> 2
-        int[][][] dDct = new int[3][hImg][wImg];
-        int it = 0;
-        for (int bi = 0; bi < hImg; bi += 8) {
-            for (int bj = 0; bj < wImg; bj += 8) {
-                boolean end = false;
-                int i = 0;
-                int j = 0;
-                while (!end) {
-                    if (i + 1 == 7 && j - 1 == 7) end = true;
-                    if (j == 0 && i == 0) {
-                        dDct[0][bi + i][bj + j] = dArrayListYUV[0].get(it);
-                        dDct[1][bi + i][bj + j] = dArrayListYUV[1].get(it);
-                        dDct[2][bi + i][bj + j] = dArrayListYUV[2].get(it);
-                        it++;
-                        j++;
-                    }
-                    //DOWN FIRST HALF
-                    else if (i - 1 < 0 && j < 8) {
-                        i = 0;
-                        for (; j >= 0; j--, i++) {
-                            dDct[0][bi + i][bj + j] = dArrayListYUV[0].get(it);
-                            dDct[1][bi + i][bj + j] = dArrayListYUV[1].get(it);
-                            dDct[2][bi + i][bj + j] = dArrayListYUV[2].get(it);
-                            it++;
-                        }
-                    }
-                    //UP FIRST HALF
-                    else if (j - 1 < 0 && i < 8) {
-                        j = 0;
-                        for (; i >= 0; i--, j++) {
-                            dDct[0][bi + i][bj + j] = dArrayListYUV[0].get(it);
-                            dDct[1][bi + i][bj + j] = dArrayListYUV[1].get(it);
-                            dDct[2][bi + i][bj + j] = dArrayListYUV[2].get(it);
-                            it++;
-                        }
-                    }
-                    //DOWN SECOND HALF
-                    else if (i + 1 >= 0 && j + 1 > 7) {
-                        j = 7;
-                        i += 2;
-                        for (; i < 8; j--, i++) {
-                            dDct[0][bi + i][bj + j] = dArrayListYUV[0].get(it);
-                            dDct[1][bi + i][bj + j] = dArrayListYUV[1].get(it);
-                            dDct[2][bi + i][bj + j] = dArrayListYUV[2].get(it);
-                            it++;
-                        }
-                    }
-                    //UP SECOND HALF
-                    else if (j + 1 >= 0 && i + 1 > 7) {
-                        j += 2;
-                        i = 7;
-                        for (; j < 8; i--, j++) {
-                            dDct[0][bi + i][bj + j] = dArrayListYUV[0].get(it);
-                            dDct[1][bi + i][bj + j] = dArrayListYUV[1].get(it);
-                            dDct[2][bi + i][bj + j] = dArrayListYUV[2].get(it);
-                            it++;
+     * \param dCoeffYUV Plans dels 3 canals de la imatge després de fer DCT, quantització i zig-zag, 64 valors per bloc
+     * \param imageDC Imatge descomprimida
+     * \param offset Posició del primer píxel a imageDC
+     * \param wOut Amplada de la imatge descomprimida
+     * \param hOut Alçada de la imatge descomprimida
+     */
+    private void reverseDCT(int wImg, int hImg, short[][] dCoeffYUV, byte[] imageDC, int offset, int wOut, int hOut) {
+        forEachStripe(hImg, row -> {
+            float[][] block = new float[3][64];
+            for (int bi = row; bi < Math.min(row + STRIPE, hImg); bi += 8) {
+                for (int bj = 0; bj < wImg; bj += 8) {
+                    //DCT INVERSE // block[] Y -> 0 \ U -> 1 \ V -> 2
+                    int base = (bi / 8 * (wImg / 8) + bj / 8) * 64;
+                    for (int yuv = 0; yuv < 3; yuv++) {
+                        for (int k = 0; k < 64; k++) {
+                            int pos = ZIGZAG[k];
+                            block[yuv][pos] = dCoeffYUV[yuv][base + k] * idctScale[pos];
                         }
+                        idct8x8(block[yuv]);
                     }
-                }
-            }
-        }
-        return dDct;
-    }
-
-    /**
-     * @brief Desfà la DCT
-     * \pre wImg > 0, hImg > 0, dDct not empty
-     * \post Declara tres matrius (per els tres canals) amb els valors de la imatge al desfer la DCT realizada en la compressió. Retorna aquestes tres matrius
-     * \param wImg Amplada de imatge
-     * \param hImg Alçada de la imatge
-     * \param dDct Matrius dels 3 canals de la imatge després de fer DCT a la imatge
-     */
-    private int[][][] reverseDCT(int wImg, int hImg, int[][][] dDct) {
-        float[][] cos = declareCos();
-        float[][] coeff = declareCoeff();
-
-        //DCT INVERSE // dImgYUV[] Y -> 0 \ U -> 1 \ V -> 2
-        int[][][] dImgYUV = new int[3][hImg][wImg];
-        for (int bi = 0; bi < hImg; bi += 8) {
-            for (int bj = 0; bj < wImg; bj += 8) {
-                for (int u = bi; u < bi + 8; u++) {
-                    for (int v = bj; v < bj + 8; v++) {
-                        float sumY = 0f;
-                        float sumU = 0f;
-                        float sumV = 0f;
-                        for (int i = bi; i < bi + 8; i++) {
-                            for (int j = bj; j < bj + 8; j++) {
-                                sumY += cos[u % 8][i % 8] * cos[v % 8][j % 8] * dDct[0][i][j] * coeff[i % 8][j % 8];
-                                sumU += cos[u % 8][i % 8] * cos[v % 8][j % 8] * dDct[1][i][j] * coeff[i % 8][j % 8];
-                                sumV += cos[u % 8][i % 8] * cos[v % 8][j % 8] * dDct[2][i][j] * coeff[i % 8][j % 8];
-                            }
+                    //RGB FORM
+                    for (int i = 0; i < 8 && bi + i < hOut; i++) {
+                        for (int j = 0; j < 8 && bj + j < wOut; j++) {
+                            int y = roundIdct(block[0], dCoeffYUV[0], base, i * 8 + j) + 128;
+                            int u = roundIdct(block[1], dCoeffYUV[1], base, i * 8 + j) + 128;
+                            int v = roundIdct(block[2], dCoeffYUV[2], base, i * 8 + j) + 128;
+                            int c0 = (int) (1.164 * (y - 16f) + 2.018 * (u - 128f));
+                            int c1 = (int) (1.164 * (y - 16) - 0.813 * (v - 128) - 0.391 * (u - 128));
+                            int c2 = (int) (1.164 * (y - 16) + 1.596 * (v - 128));
+                            int point = offset + 3 * ((bi + i) * wOut + bj + j);
+                            imageDC[point] = (byte) Math.max(0, Math.min(255, c2));
+                            imageDC[point + 1] = (byte) Math.max(0, Math.min(255, c1));
+                            imageDC[point + 2] = (byte) Math.max(0, Math.min(255, c0));
                         }
-                        dImgYUV[0][u][v] = Math.round(1 / (float) Math.sqrt(2 * 8) * sumY) + 128;
-                        dImgYUV[1][u][v] = Math.round(1 / (float) Math.sqrt(2 * 8) * sumU) + 128;
-                        dImgYUV[2][u][v] = Math.round(1 / (float) Math.sqrt(2 * 8) * sumV) + 128;
                     }
                 }
             }
-        }
-        return dImgYUV;
+        });
     }
 
     /**
      * @brief Comprimir un arxiu, implementació específica
      * \pre true
-     * \post S'ha comprimit l'array de bytes d'entrada amb l'algorisme JPEG. Retorna l'array de bytes que representa el fitxer comprimit
+     * \post S'ha comprimit l'array de bytes d'entrada amb l'algorisme JPEG, processant cada franja de files en una tasca del ForkJoinPool comú fins a la codificació de Huffman. Retorna l'array de bytes que representa el fitxer comprimit
      * \param data Dades a comprimir
      */
     public byte[] specificCompress(final byte[] data) {
@@ -626,368 +754,303 @@ class JPEG extends Algorithm
         rgbImg = header[4];
         int itImg = header[5];
 
-        //READ ALL DATA INFORMATION ABOUT THE PIXELS OF THE IMAGE IN RGB, CONVERT IT TO YUV AND SUBTRACT 128 FROM
-        // EVERY VALUE. ADD NEUTRAL PIXELS IF IMAGE IS NOT 8X8 MULTIPLE IN HORIZONTAL OR VERTICAL AXIS AND SAVE HOW
-        // MANY PIXELS ADDED IN ORDER TO DELETE THEM IN DECOMPRESSION.
-        int addW, addH;
-        addW = addH = 0;
-        if (wExtra8 != 0) addW = 8 - wExtra8;
-        else wExtra8 = 8;
-        if (hExtra8 != 0) addH = 8 - hExtra8;
-        else hExtra8 = 8;
-
-        int[][][] imgRGB = new int[3][hImg + addH][wImg + addW];
-        int[][][] imgYUV = new int[3][hImg + addH][wImg + addW];
-        for (int i = 0; i < hImg; i++) {
-            for (int j = 0; j < wImg; j++) {
-                int value = (int) data[itImg];
-                if (value < 0) value += 256;
-                imgRGB[0][i][j] = value;
-                value = (int) data[itImg + 1];
-                if (value < 0) value += 256;
-                imgRGB[1][i][j] = value;
-                value = (int) data[itImg + 2];
-                if (value < 0) value += 256;
-                imgRGB[2][i][j] = value;
-                itImg += 3;
-                float yValue = 0.257f * imgRGB[0][i][j] + 0.504f * imgRGB[1][i][j] + 0.098f * imgRGB[2][i][j] + 16f;
-                imgYUV[0][i][j] = Math.round(yValue) - 128;
-                float uValue = -0.148f * imgRGB[0][i][j] - 0.291f * imgRGB[1][i][j] + 0.439f * imgRGB[2][i][j] + 128f;
-                imgYUV[1][i][j] = Math.round(uValue) - 128;
-                float vValue = 0.439f * imgRGB[0][i][j] - 0.368f * imgRGB[1][i][j] - 0.071f * imgRGB[2][i][j] + 128f;
-                imgYUV[2][i][j] = Math.round(vValue) - 128;
-            }
-            for (int iAux = 0; iAux < 8 - wExtra8; iAux++) {
-                imgYUV[0][i][wImg + iAux] = 0;
-                imgYUV[1][i][wImg + iAux] = 0;
-                imgYUV[2][i][wImg + iAux] = 0;
-            }
-        }
-        for (int iAux = 0; iAux < 8 - hExtra8; iAux++) {
-            for (int jAux = 0; jAux < wImg + addW; jAux++) {
-                imgYUV[0][hImg + iAux][jAux] = 0;
-                imgYUV[1][hImg + iAux][jAux] = 0;
-                imgYUV[2][hImg + iAux][jAux] = 0;
-            }
-        }
+        //ADD NEUTRAL PIXELS IF IMAGE IS NOT 8X8 MULTIPLE IN HORIZONTAL OR VERTICAL AXIS AND SAVE HOW MANY PIXELS ADDED
+        // IN ORDER TO DELETE THEM IN DECOMPRESSION.
+        if (wExtra8 == 0) wExtra8 = 8;
+        if (hExtra8 == 0) hExtra8 = 8;
+
+        final int wOrig = wImg, hOrig = hImg, pixels = itImg;
         wImg += (8 - wExtra8);
         hImg += (8 - hExtra8);
-
-        //DCT OVER THE IMAGE AND QUANTIZATION // dct[] Y -> 0 \ U -> 1 \ V -> 2
-        float[][] cos = declareCos();
-        float[][] coeff = declareCoeff();
-        int[][][] dct = new int[3][hImg][wImg];
-        for (int bi = 0; bi < hImg; bi += 8) {
-            for (int bj = 0; bj < wImg; bj += 8) {
-                for (int u = bi; u < bi + 8; u++) {
-                    for (int v = bj; v < bj + 8; v++) {
-                        float sumY = 0f;
-                        float sumU = 0f;
-                        float sumV = 0f;
-                        for (int i = bi; i < bi + 8; i++) {
-                            for (int j = bj; j < bj + 8; j++) {
-                                sumY += cos[i % 8][u % 8] * cos[j % 8][v % 8] * imgYUV[0][i][j];
-                                sumU += cos[i % 8][u % 8] * cos[j % 8][v % 8] * imgYUV[1][i][j];
-                                sumV += cos[i % 8][u % 8] * cos[j % 8][v % 8] * imgYUV[2][i][j];
+        final int wPad = wImg, hPad = hImg;
+
+        //EVERY STRIPE OF ROWS IS PROCESSED IN ITS OWN TASK, ONE BLOCK AT A TIME: READ ITS PIXELS IN RGB, CONVERT THEM TO
+        // YUV SUBTRACTING 128 FROM EVERY VALUE, THEN DO THE DCT, QUANTIZATION AND ZIGZAG. NEUTRAL PIXELS HAVE VALUE 0
+        // coeffYUV[] Y -> 0 \ U -> 1 \ V -> 2, 64 VALUES PER BLOCK IN ZIGZAG ORDER
+        short[][] coeffYUV = new short[3][wPad * hPad];
+        forEachStripe(hPad, row -> {
+            float[][] block = new float[3][64];
+            float[] src = new float[64];
+            for (int bi = row; bi < Math.min(row + STRIPE, hPad); bi += 8) {
+                for (int bj = 0; bj < wPad; bj += 8) {
+                    for (int i = 0; i < 8; i++) {
+                        int it = pixels + 3 * ((bi + i) * wOrig + bj);
+                        for (int j = 0; j < 8; j++, it += 3) {
+                            if (bi + i < hOrig && bj + j < wOrig) {
+                                int r = data[it] & 0xFF;
+                                int g = data[it + 1] & 0xFF;
+                                int b = data[it + 2] & 0xFF;
+                                float yValue = 0.257f * r + 0.504f * g + 0.098f * b + 16f;
+                                block[0][i * 8 + j] = Math.round(yValue) - 128;
+                                float uValue = -0.148f * r - 0.291f * g + 0.439f * b + 128f;
+                                block[1][i * 8 + j] = Math.round(uValue) - 128;
+                                float vValue = 0.439f * r - 0.368f * g - 0.071f * b + 128f;
+                                block[2][i * 8 + j] = Math.round(vValue) - 128;
+                            } else {
+                                block[0][i * 8 + j] = block[1][i * 8 + j] = block[2][i * 8 + j] = 0;
                             }
                         }
-                        double rY = (double) (Math.round(1 / (float) Math.sqrt(2 * 8) * coeff[u % 8][v % 8] * sumY)) / (double) qTable[u % 8][v % 8];
-                        double rU = (double) (Math.round(1 / (float) Math.sqrt(2 * 8) * coeff[u % 8][v % 8] * sumU)) / (double) qTable[u % 8][v % 8];
-                        double rV = (double) (Math.round(1 / (float) Math.sqrt(2 * 8) * coeff[u % 8][v % 8] * sumV)) / (double) qTable[u % 8][v % 8];
-                        dct[0][u][v] = (int) Math.round(rY);
-                        dct[1][u][v] = (int) Math.round(rU);
-                        dct[2][u][v] = (int) Math.round(rV);
-
+                    }
+                    int base = (bi / 8 * (wPad / 8) + bj / 8) * 64;
+                    for (int yuv = 0; yuv < 3; yuv++) {
+                        System.arraycopy(block[yuv], 0, src, 0, 64);
+                        fdct8x8(block[yuv]);
+                        for (int k = 0; k < 64; k++) {
+                            int pos = ZIGZAG[k];
+                            float c = block[yuv][pos] * fdctScale[pos];
+                            int rounded = Math.round(c);
+                            if (nearTie(c, rounded)) rounded = fdctDirect(src, pos / 8, pos % 8);
+                            double r = (double) rounded / qTable[pos / 8][pos % 8];
+                            coeffYUV[yuv][base + k] = (short) Math.round(r);
+                        }
                     }
                 }
             }
-        }
-
-        List<Integer>[] arrayListYUV = createEntropyCoding(wImg, hImg, dct);
+        });
 
-        // huffmanDC[] and huffmanAC Y -> 0 \ U -> 1 \ V -> 2
-        int numB = (wImg * hImg) / 64;
-        ArrayList<Pair>[][] huffman = new ArrayList[3][numB];
-
-        //DECLARE AC
-        for (int i = 0; i < numB; i++) {
-            huffman[0][i] = new ArrayList<>();
-            huffman[1][i] = new ArrayList<>();
-            huffman[2][i] = new ArrayList<>();
+        //CANONICAL HUFFMAN CODE OF EVERY CHANNEL FROM THE FREQUENCIES OF ITS (r,n) PAIRS // table[] Y -> 0 \ U -> 1 \ V -> 2
+        huffmanTable[] table = new huffmanTable[3];
+        for (int yuv = 0; yuv < 3; yuv++) {
+            int[] freq = new int[NSYMBOLS];
+            forEachSymbol(coeffYUV[yuv], sym -> freq[sym]++);
+            table[yuv] = new huffmanTable(freq);
         }
 
-        //MAKING PAIRS LIST FOR Y,U,V
-        for (int i = 0; i < 3; i++) huffman[i] = makeHuffmanStruct(wImg, hImg, arrayListYUV[i]);
-
-        //HASHMAP OF FREQUENCIES OF AC PAIRS // freqAC[] Y -> 0 \ U -> 1 \ V -> 2
-        HashMap<Pair<Integer, Integer>, Integer>[] freq = new HashMap[3];
-        freq[0] = new HashMap<>();
-        freq[1] = new HashMap<>();
-        freq[2] = new HashMap<>();
+        //SAVE FORMAT, HEADER, THE CODE TABLES, AND THEN THE CODES OF ALL THE PAIRS OF Y, U AND V
+        String headerImage = type + "\n" + wImg + "\n" + hImg + "\n" + rgbImg + "\n" + hExtra8 + "\n" + wExtra8 + "\n";
+        ByteArray imageCompressed = new ByteArray(1 + headerImage.length() + table[0].size() + table[1].size() + table[2].size() + wImg * hImg / 8);
+        imageCompressed.put(FORMAT);
+        for (int p = 0; p < headerImage.length(); p++) {
+            imageCompressed.put((byte) headerImage.charAt(p));
+        }
+        for (int yuv = 0; yuv < 3; yuv++) table[yuv].write(imageCompressed);
+        BitWriter bits = new BitWriter(imageCompressed);
         for (int yuv = 0; yuv < 3; yuv++) {
-            for (int i = 0; i < huffman[yuv].length; i++) {
-                for (int j = 0; j < huffman[yuv][i].size(); j++) {
-                    //Y
-                    if (freq[yuv].containsKey(huffman[yuv][i].get(j)))
-                        freq[yuv].put(huffman[yuv][i].get(j), freq[yuv].get(huffman[yuv][i].get(j)) + 1);
-                    else freq[yuv].put(huffman[yuv][i].get(j), 1);
-                }
-            }
+            huffmanTable t = table[yuv];
+            forEachSymbol(coeffYUV[yuv], sym -> bits.write(t.code[sym], t.length[sym]));
         }
+        bits.flush();
 
-        //PRIORITY QUEUES FOR DC AND AC HUFFMAN
-        PriorityQueue<Pair<Integer, Pair<Integer, Integer>>>[] PQ = new PriorityQueue[3];
-        PQ[0] = new PriorityQueue<>(new compareValuesPQ());
-        PQ[1] = new PriorityQueue<>(new compareValuesPQ());
-        PQ[2] = new PriorityQueue<>(new compareValuesPQ());
+        return imageCompressed.getArray();
+    }
 
+    /**
+     * @brief Descomprimir un arxiu, implementació específica
+     * \pre true
+     * \post S'ha descomprimit l'array de bytes d'entrada amb l'algorisme JEPG, en el format actual o en el format anterior. Retorna l'array de bytes que representa el fitxer descomprimit
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides o són d'un format desconegut es llança excepció
+     * \param imageCompressed Dades a descomprimir
+     * \param originalsize Parametre utilitzat per els altres algorsimes
+     */
+    public byte[] specificDecompress(final byte[] imageCompressed, int originalsize) throws ByteArray.ByteArrayException {
+        if (imageCompressed.length == 0) throw new ByteArray.ByteArrayException("JPEG: empty data");
+        if (imageCompressed[0] == 'P') return legacyDecompress(imageCompressed);
+        if (imageCompressed[0] != FORMAT) throw new ByteArray.ByteArrayException("JPEG: unknown format " + imageCompressed[0]);
 
-        //CREATING PRIORITY QUEUE AC VALUES
-        for (int yuv = 0; yuv < 3; yuv++) {
-            for (Map.Entry<Pair<Integer, Integer>, Integer> entry : freq[yuv].entrySet()) {
-                Pair<Integer, Pair<Integer, Integer>> value = new Pair<>(entry.getValue(), entry.getKey());
-                PQ[yuv].add(value);
-            }
-        }
+        //READ TYPE OF THE .PPM
+        String type = "";
+        type += (char) imageCompressed[1];
+        type += (char) imageCompressed[2];
 
-        //GENERATING DICTIONARIES FOR HUFFMAN ENCODING
-        //AC
-        HashMap<Pair<Integer, Integer>, String>[] dictionary = new HashMap[3];
-        dictionary[0] = generateHuffmanTree(PQ[0]);
-        dictionary[1] = generateHuffmanTree(PQ[1]);
-        dictionary[2] = generateHuffmanTree(PQ[2]);
+        int[] header = readHeaderDecompress(imageCompressed, 1);
+        int wImg, hImg, rgbImg, hTo8, wTo8;
+        wImg = header[0];
+        hImg = header[1];
+        rgbImg = header[2];
+        hTo8 = header[3];
+        wTo8 = header[4];
+        int itImg = header[5];
 
-        //CALCULATING SIZE OF HUFFMAN BITSET // [] Y -> 0 \ U -> 1 \ V -> 2
-        int[] sizeBitSet = new int[3];
-        int[] sizeDictionary = new int[3];
+        //READ THE CODE TABLES, THEN THE PAIRS OF Y, U AND V // table[] and dCoeffYUV[] Y -> 0 \ U -> 1 \ V -> 2
+        int p = itImg;
+        huffmanTable[] table = new huffmanTable[3];
         for (int yuv = 0; yuv < 3; yuv++) {
-            sizeBitSet[yuv] = 0;
-            sizeDictionary[yuv] = 0;
-            for (Map.Entry<Pair<Integer, Integer>, String> entry : dictionary[yuv].entrySet()) {
-                sizeDictionary[yuv] += entry.getValue().length();
-                sizeBitSet[yuv] += entry.getValue().length() * freq[yuv].get(entry.getKey());
-            }
-            sizeDictionary[yuv] += 4 * dictionary[yuv].size();
+            table[yuv] = new huffmanTable(imageCompressed, p);
+            p += table[yuv].size();
         }
+        BitReader in = new BitReader(imageCompressed, p);
+        short[][] dCoeffYUV = new short[3][wImg * hImg];
+        for (int yuv = 0; yuv < 3; yuv++) decodeChannel(in, table[yuv], dCoeffYUV[yuv]);
+
+        //WRITE HEADER, THEN EVERY BLOCK OF PIXELS IN RGB STRAIGHT INTO ITS PLACE
+        int wOut = wImg;
+        int hOut = hImg;
+        if (hTo8 != 0) hOut = hImg - 8 + hTo8;
+        if (wTo8 != 0) wOut = wImg - 8 + wTo8;
+        String finalImage = type + "\n" + wOut + "\n" + hOut + "\n" + rgbImg + "\n";
+        byte[] imageDC = new byte[finalImage.length() + wOut * hOut * 3];
+        int point = 0;
+        for (; point < finalImage.length(); point++) {
+            imageDC[point] = (byte) finalImage.charAt(point);
+        }
+        reverseDCT(wImg, hImg, dCoeffYUV, imageDC, point, wOut, hOut);
+        return imageDC;
+    }
 
-        int sizeAllDictionaries = sizeDictionary[0] + sizeDictionary[1] + sizeDictionary[2];
-
-        //SAVE BITS IN ARRAY (byteSetAC) WITH HUFFMAN ENCODING
-        BitSet bitSet[] = new BitSet[3];
-        bitSet[0] = new BitSet(sizeBitSet[0]);
-        bitSet[1] = new BitSet(sizeBitSet[1]);
-        bitSet[2] = new BitSet(sizeBitSet[2]);
-        byte[][] byteSet = new byte[3][];
-        for (int yuv = 0; yuv < 3; yuv++) {
-            //Y
-            int itBitSet = 0;
-            for (int i = 0; i < huffman[yuv].length; i++) {
-                for (int j = 0; j < huffman[yuv][i].size(); j++) {
-                    Pair value = huffman[yuv][i].get(j);
-                    String code = dictionary[yuv].get(value);
-                    for (int iCode = 0; iCode < code.length(); iCode++) {
-                        if (code.charAt(iCode) == '1') bitSet[yuv].set(itBitSet);
-                        ++itBitSet;
+    /**
+     * @class legacyTree
+     * @brief Arbre de Huffman del format anterior
+     * Es construeix a partir del diccionari d'un canal tal com l'escrivia el format anterior: per a cada parella (r,n), els bytes r i n, un espai, el codi amb caràcters '0' i '1' i un espai. Els nodes es guarden en arrays, amb l'arrel al node 0.
+     */
+    private static class legacyTree {
+        /** @brief Fill de cada node pel bit 0, 0 si no en té */
+        final int[] left;
+        /** @brief Fill de cada node pel bit 1, 0 si no en té */
+        final int[] right;
+        /** @brief Indica si cada node és una fulla */
+        final boolean[] leaf;
+        /** @brief Valor r de la parella de cada fulla */
+        final int[] r;
+        /** @brief Valor n de la parella de cada fulla */
+        final int[] n;
+        /** @brief Llargada del codi de cada fulla */
+        final int[] length;
+        /** @brief Posició de les dades on acaba el diccionari */
+        final int end;
+
+        /**
+         * @brief Constructora a partir d'un diccionari
+         * \pre 0 <= p, size >= 0
+         * \post S'ha creat l'arbre amb les entrades del diccionari que comença a la posició p de data i ocupa size bytes
+         * \exception ByteArrayException : Si el diccionari no és vàlid es llança excepció
+         * \param data Dades de la imatge comprimida
+         * \param p Posició on comença el diccionari
+         * \param size Mida del diccionari
+         */
+        legacyTree(byte[] data, int p, int size) throws ByteArray.ByteArrayException {
+            left = new int[size + 1];
+            right = new int[size + 1];
+            leaf = new boolean[size + 1];
+            r = new int[size + 1];
+            n = new int[size + 1];
+            length = new int[size + 1];
+            int nodes = 1;
+            int max = p + size;
+            while (p < max) {
+                if (p + 3 > data.length) throw new ByteArray.ByteArrayException("JPEG: truncated Huffman dictionary");
+                int first = data[p];
+                int second = data[p + 1];
+                p += 3;
+                int node = 0;
+                int start = p;
+                for (; p < data.length && (data[p] == '0' || data[p] == '1'); p++) {
+                    int[] next = data[p] == '0' ? left : right;
+                    if (next[node] == 0) {
+                        if (leaf[node] || nodes == left.length) throw new ByteArray.ByteArrayException("JPEG: bad Huffman dictionary");
+                        next[node] = nodes++;
                     }
+                    node = next[node];
                 }
+                if (node == 0 || left[node] != 0 || right[node] != 0) throw new ByteArray.ByteArrayException("JPEG: bad Huffman dictionary");
+                leaf[node] = true;
+                r[node] = first;
+                n[node] = second;
+                length[node] = p - start;
+                p++;
             }
-            byteSet[yuv] = new byte[(sizeBitSet[yuv] + 7) / 8];
-            for (int i = 0; i < sizeBitSet[yuv]; i++) {
-                if (bitSet[yuv].get(i)) {
-                    byteSet[yuv][i / 8] |= 1 << (7 - i % 8);
-                }
-            }
+            end = p;
         }
 
-        int sizeSets = byteSet[0].length + byteSet[1].length + byteSet[2].length;
-
-        //SAVE ALL DATA IN ARRAY TO RETURN IMAGE COMPRESSED
-        String headerImage = type + "\n" + wImg + "\n" + hImg + "\n" + rgbImg + "\n" + hExtra8 + "\n" + wExtra8 + "\n" +
-                sizeDictionary[0] + "\n" + sizeDictionary[1] + "\n" + sizeDictionary[2] + "\n";
-        int sizeImageCompressed = headerImage.length() + 3 + sizeAllDictionaries + sizeSets;
-        byte[] imageCompressed = new byte[sizeImageCompressed];
-        int p = 0;
-        //SAVE HEADER
-        for (; p < headerImage.length(); p++) {
-            imageCompressed[p] = (byte) headerImage.charAt(p);
-        }
-
-        //SAVE AC DICTIONARIES
-        for (int yuv = 0; yuv < 3; yuv++) {
-            for (Map.Entry<Pair<Integer, Integer>, String> entry : dictionary[yuv].entrySet()) {
-                imageCompressed[p] = entry.getKey().first().byteValue();
-                p++;
-                imageCompressed[p] = entry.getKey().second().byteValue();
-                p++;
-                imageCompressed[p] = (byte) ' ';
-                p++;
-                for (int i = 0; i < entry.getValue().length(); p++, i++) {
-                    imageCompressed[p] = (byte) entry.getValue().charAt(i);
+        /**
+         * @brief Descodificar un símbol
+         * \pre bit >= 0
+         * \post Retorna la fulla del codi que comença al bit "bit" de data, que ocupa length[fulla] bits. Si repeat, després de l'últim byte de data es torna a llegir aquest mateix byte indefinidament, tal com ho feia la descompressió d'aquest format amb l'últim canal
+         * \exception ByteArrayException : Si els bits no formen cap codi o no n'hi ha prou es llança excepció
+         * \param data Dades de la imatge comprimida
+         * \param bit Posició del primer bit del codi
+         * \param repeat Indica si es repeteix l'últim byte de data
+         */
+        int decode(byte[] data, long bit, boolean repeat) throws ByteArray.ByteArrayException {
+            int node = 0;
+            do {
+                long index = bit >>> 3;
+                if (index >= data.length) {
+                    if (!repeat || data.length == 0) throw new ByteArray.ByteArrayException("JPEG: insufficient bits to read");
+                    index = data.length - 1;
                 }
-                imageCompressed[p] = ' ';
-                p++;
-            }
+                node = ((data[(int) index] >>> (7 - (int) (bit & 7))) & 1) == 0 ? left[node] : right[node];
+                if (node == 0) throw new ByteArray.ByteArrayException("JPEG: bad Huffman code");
+                ++bit;
+            } while (!leaf[node]);
+            return node;
         }
-
-        //THEN SAVE AC's
-        for (int i = 0; i < byteSet[0].length; i++, p++) imageCompressed[p] = byteSet[0][i];
-        for (int i = 0; i < byteSet[1].length; i++, p++) imageCompressed[p] = byteSet[1][i];
-        for (int i = 0; i < byteSet[2].length; i++, p++) imageCompressed[p] = byteSet[2][i];
-
-        return imageCompressed;
     }
 
     /**
-     * @brief Descomprimir un arxiu, implementació específica
-     * \pre true
-     * \post S'ha descomprimit l'array de bytes d'entrada amb l'algorisme JEPG. Retorna l'array de bytes que representa el fitxer descomprimit
+     * @brief Descomprimir un arxiu del format anterior
+     * \pre imageCompressed comença amb el tipus del .ppm
+     * \post S'ha descomprimit l'array de bytes d'entrada en el format anterior: el header porta també la mida del diccionari de cada canal, els diccionaris estan en text i els codis de cada canal comencen en un byte nou. Les parelles (r,n) es posen als plans igual que ho feia la descompressió d'aquest format: cada bloc comença després d'una parella (0,0) i els r zeros de cada parella s'escriuen, trepitjant els valors que el bloc anterior hagi deixat més enllà del seu final. Retorna l'array de bytes que representa el fitxer descomprimit
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
      * \param imageCompressed Dades a descomprimir
-     * \param originalsize Parametre utilitzat per els altres algorsimes
      */
-    public byte[] specificDecompress(final byte[] imageCompressed, int originalsize) {
+    private byte[] legacyDecompress(final byte[] imageCompressed) throws ByteArray.ByteArrayException {
 
         //READ TYPE OF THE .PPM
         String type = "";
         type += (char) imageCompressed[0];
         type += (char) imageCompressed[1];
 
-        int[] header = readHeaderDecompress(imageCompressed);
+        int[] header = readHeaderDecompress(imageCompressed, 0);
         int wImg, hImg, rgbImg, hTo8, wTo8;
         wImg = header[0];
         hImg = header[1];
         rgbImg = header[2];
         hTo8 = header[3];
         wTo8 = header[4];
-        int itImg = header[5];
-
-        int sizeHeader = itImg;
-        int numB = (wImg * hImg) / 64;
-        int p = sizeHeader;
-
-        int[] sizeDictAC = new int[3]; // sizeDictAC[] Y -> 0 \ U -> 1 \ V -> 2
-        sizeDictAC[0] = header[6];
-        sizeDictAC[1] = header[7];
-        sizeDictAC[2] = header[8];
+        int p = header[5];
 
-        HashMap<Pair<Integer, Integer>, String>[] dictionaryAC = new HashMap[3];
-        dictionaryAC[0] = new HashMap<>();
-        dictionaryAC[1] = new HashMap<>();
-        dictionaryAC[2] = new HashMap<>();
+        //READ THE SIZES OF THE DICTIONARIES, THEN THE DICTIONARIES // tree[] Y -> 0 \ U -> 1 \ V -> 2
+        int[] sizeDict = new int[3];
         for (int yuv = 0; yuv < 3; yuv++) {
-            int max = sizeDictAC[yuv] + p;
-            while (p < max) {
-                int keyFirst = (int) imageCompressed[p];
-                p++;
-                int keySecond = (int) imageCompressed[p];
-                p += 2;
-                String value = "";
-                while ((char) imageCompressed[p] == '0' || (char) imageCompressed[p] == '1') {
-                    value += (char) imageCompressed[p];
-                    ++p;
-                }
-                dictionaryAC[yuv].put(new Pair<Integer, Integer>(keyFirst, keySecond), value);
-                p++;
+            for (; p < imageCompressed.length && imageCompressed[p] >= '0' && imageCompressed[p] <= '9'; p++) {
+                sizeDict[yuv] = sizeDict[yuv] * 10 + (imageCompressed[p] - '0');
             }
+            ++p;
         }
-
-        huffmanNode[] rootAC = new huffmanNode[3];
-        rootAC[0] = rebuildTreeFromHuffmanCodes(dictionaryAC[0]);
-        rootAC[1] = rebuildTreeFromHuffmanCodes(dictionaryAC[1]);
-        rootAC[2] = rebuildTreeFromHuffmanCodes(dictionaryAC[2]);
-        huffmanNode[] nodeAC = new huffmanNode[3];
-        nodeAC[0] = rootAC[0];
-        nodeAC[1] = rootAC[1];
-        nodeAC[2] = rootAC[2];
-
-        //READ IMAGE INFORMATION
-        ArrayList<Pair>[][] dHuffmanAC = new ArrayList[3][numB];
-        for (int i = 0; i < numB; i++) {
-            dHuffmanAC[0][i] = new ArrayList<>();
-            dHuffmanAC[1][i] = new ArrayList<>();
-            dHuffmanAC[2][i] = new ArrayList<>();
+        legacyTree[] tree = new legacyTree[3];
+        for (int yuv = 0; yuv < 3; yuv++) {
+            tree[yuv] = new legacyTree(imageCompressed, p, sizeDict[yuv]);
+            p = tree[yuv].end;
         }
 
-        //READ AC VALUES
+        //READ THE PAIRS OF EVERY CHANNEL, EACH ONE STARTING IN THE BYTE AFTER THE LAST CODE OF THE PREVIOUS ONE. A CHANNEL
+        // ENDS WITH ITS numB-TH (0,0), SO IT MAY GO ON INTO THE CODES OF THE NEXT ONE, AND THE LAST ONE INTO ITS LAST BYTE AGAIN
+        short[][] dCoeffYUV = new short[3][wImg * hImg];
+        int numB = (wImg * hImg) / 64;
         for (int yuv = 0; yuv < 3; yuv++) {
-            int iAux = 0;
-            while (iAux < numB) {
-                int b = imageCompressed[p];
-                int mask = 128;
-                for (int j = 0; j < 8 && iAux < numB; j++) {
-                    int value = b & mask;
-                    if (value == 0) {
-                        if (nodeAC[yuv].value == null) nodeAC[yuv] = nodeAC[yuv].left;
-                        else {
-                            dHuffmanAC[yuv][iAux].add(nodeAC[yuv].value);
-                            if (nodeAC[yuv].value.first() == 0 && nodeAC[yuv].value.second() == 0) ++iAux;
-                            nodeAC[yuv] = rootAC[yuv].left;
-                            if (j == 0 && iAux == numB) p--;
-                        }
-                    } else {
-                        if (nodeAC[yuv].value == null) nodeAC[yuv] = nodeAC[yuv].right;
-                        else {
-                            dHuffmanAC[yuv][iAux].add(nodeAC[yuv].value);
-                            if (nodeAC[yuv].value.first() == 0 && nodeAC[yuv].value.second() == 0) ++iAux;
-                            nodeAC[yuv] = rootAC[yuv].right;
-                            if (j == 0 && iAux == numB) p--;
-                        }
-                    }
-                    b = b << 1;
+            short[] values = dCoeffYUV[yuv];
+            long bit = 8L * p;
+            int pointer = 0;
+            for (int b = 0; b < numB; ) {
+                int node = tree[yuv].decode(imageCompressed, bit, yuv == 2);
+                bit += tree[yuv].length[node];
+                int r = tree[yuv].r[node];
+                int n = tree[yuv].n[node];
+                if (r < 0 || pointer + r >= values.length) throw new ByteArray.ByteArrayException("JPEG: run out of image");
+                Arrays.fill(values, pointer, pointer + r, (short) 0);
+                pointer += r;
+                values[pointer] = (short) n;
+                ++pointer;
+                if (r == 0 && n == 0) {
+                    ++b;
+                    pointer = b * 64;
                 }
-                p++;
-
-                if (yuv == 2 && p == imageCompressed.length) --p;
             }
+            p = (int) ((bit + 7) / 8);
         }
 
-        List<Integer>[] dArrayListYUV = transformPairsToLists(wImg, hImg, dHuffmanAC);
-        int[][][] dDct = reverseEntropyCoding(wImg, hImg, dArrayListYUV);
-
-        //QUANTIZATION INVERSE
-        for (int i = 0; i < hImg; i++) {
-            for (int j = 0; j < wImg; j++) {
-                dDct[0][i][j] = dDct[0][i][j] * (int)qTable[i % 8][j % 8];
-                dDct[1][i][j] = dDct[1][i][j] * (int)qTable[i % 8][j % 8];
-                dDct[2][i][j] = dDct[2][i][j] * (int)qTable[i % 8][j % 8];
-            }
-        }
-        int[][][] dImgYUV = reverseDCT(wImg, hImg, dDct);
-
-        //RGB FORM // dImgRGB[] Y -> 0 \ U -> 1 \ V -> 2
-        int[][][] dImgRGB = new int[3][hImg][wImg];
-        for (int i = 0; i < hImg; i++) {
-            for (int j = 0; j < wImg; j++) {
-                dImgRGB[0][i][j] = (int) (1.164 * (dImgYUV[0][i][j] - 16f) + 2.018 * (dImgYUV[1][i][j] - 128f));
-                dImgRGB[1][i][j] = (int) (1.164 * (dImgYUV[0][i][j] - 16) - 0.813 * (dImgYUV[2][i][j] - 128) - 0.391 * (dImgYUV[1][i][j] - 128));
-                dImgRGB[2][i][j] = (int) (1.164 * (dImgYUV[0][i][j] - 16) + 1.596 * (dImgYUV[2][i][j] - 128));
-                if (dImgRGB[2][i][j] < 0) dImgRGB[2][i][j] = 0;
-                else if (dImgRGB[2][i][j] >= 256) dImgRGB[2][i][j] = 255;
-                if (dImgRGB[1][i][j] < 0) dImgRGB[1][i][j] = 0;
-                else if (dImgRGB[1][i][j] >= 256) dImgRGB[1][i][j] = 255;
-                if (dImgRGB[0][i][j] < 0) dImgRGB[0][i][j] = 0;
-                else if (dImgRGB[0][i][j] >= 256) dImgRGB[0][i][j] = 255;
-            }
-        }
-
-        //WRITE BYTES AND RETURN
-        if (hTo8 != 0) hImg = hImg - 8 + hTo8;
-        if (wTo8 != 0) wImg = wImg - 8 + wTo8;
-        String finalImage = type + "\n" + wImg + "\n" + hImg + "\n" + rgbImg + "\n";
-        byte[] imageDC = new byte[finalImage.length() + wImg * hImg * 3];
+        //WRITE HEADER, THEN EVERY BLOCK OF PIXELS IN RGB STRAIGHT INTO ITS PLACE
+        int wOut = wImg;
+        int hOut = hImg;
+        if (hTo8 != 0) hOut = hImg - 8 + hTo8;
+        if (wTo8 != 0) wOut = wImg - 8 + wTo8;
+        String finalImage = type + "\n" + wOut + "\n" + hOut + "\n" + rgbImg + "\n";
+        byte[] imageDC = new byte[finalImage.length() + wOut * hOut * 3];
         int point = 0;
         for (; point < finalImage.length(); point++) {
             imageDC[point] = (byte) finalImage.charAt(point);
         }
-        for (int i = 0; i < hImg; i++) {
-            for (int j = 0; j < wImg; j++) {
-                imageDC[point] = (byte) dImgRGB[2][i][j];
-                ++point;
-                imageDC[point] = (byte) dImgRGB[1][i][j];
-                ++point;
-                imageDC[point] = (byte) dImgRGB[0][i][j];
-                ++point;
-            }
-        }
+        reverseDCT(wImg, hImg, dCoeffYUV, imageDC, point, wOut, hOut);
         return imageDC;
     }
 
@@ -3,15 +3,27 @@
  */
 package Domain;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * @class LZ78
  * @brief Implementació específica de l'algorisme de compressió LZ78
  * És la classe que implementa els mètodes específics de compressió i descompressió heredats de Algorithm per a l'algorisme LZ78
+ * L'índex Short.MAX_VALUE indica que el diccionari es buida. Amb la política ADAPTIVE el compressor l'emet quan la taxa de compressió empitjora, i quan el diccionari és ple el congela en lloc de buidar-lo; el format no canvia. Amb la política PRUNE el fitxer comença amb aquest índex, i quan el diccionari és ple el compressor i el descompressor reutilitzen l'índex de la fulla usada fa més temps. La política per defecte és ADAPTIVE.
+ * La compressió i la descompressió entre canals fan servir el mateix codificador i descodificador que les de byte[], per trossos de STREAMCHUNK bytes. El compressor conserva MAXPHRASE bytes per davant de la posició actual, de manera que cap paraula queda tallada i el resultat és idèntic.
  */
 class LZ78 extends Algorithm
 {
+	/** @brief Mida dels trossos de la compressió i descompressió entre canals */
+	private static final int STREAMCHUNK = 1 << 20;
+	/** @brief Llargada màxima d'una paraula del diccionari més el seu byte següent */
+	private static final int MAXPHRASE = Short.MAX_VALUE+1;
+
+	/** @brief Política del diccionari */
+	private Trie.ResetPolicy policy = Trie.ResetPolicy.ADAPTIVE;
+
 	/**
      * @brief Constructora
      * \pre true
@@ -21,6 +33,27 @@ class LZ78 extends Algorithm
 	{
 		super("LZ78");
 	}
+
+	/**
+     * @brief Definir la política del diccionari
+     * \pre policy != null
+     * \post Les properes compressions faran servir la política donada quan el diccionari s'ompli
+     * \param policy Política del diccionari
+     */
+	void setResetPolicy(Trie.ResetPolicy policy)
+	{
+		this.policy = policy;
+	}
+
+	/**
+     * @brief Obtenir la política del diccionari
+     * \pre true
+     * \post Retorna la política del diccionari de les compressions
+     */
+	Trie.ResetPolicy getResetPolicy()
+	{
+		return policy;
+	}
 	
 	/**
      * @brief Comprimir un arxiu, implementació específica
@@ -31,99 +64,305 @@ class LZ78 extends Algorithm
      */
 	protected byte[] specificCompress(final byte[] input) throws ByteArray.ByteArrayException
 	{
-		Trie.Node dict = new Trie.Node();
-		ByteArray ret = new ByteArray();
-		int indexdict = 1;
-		Trie.Node currentnode = dict;
-		int outindex1 = 0;
-		for (int i = 0; i < input.length; ++i) {
-			Trie.Node findnode = currentnode.SearchChildNode(input[i]); //find current word
-			if (findnode == null) {
-				//add current word to dictionary
-                findnode = currentnode.AddChildNode(input[i],indexdict);
+		return pooledCompress(input, maxCompressedSize(input.length));
+	}
+
+	/**
+     * @brief Crear un context de compressió
+     * \pre true
+     * \post Retorna un codificador que conserva el diccionari entre compressions
+     */
+	@Override
+	Context newContext()
+	{
+		return new Encoder(policy);
+	}
+
+	/**
+     * @brief Obtenir la mida màxima del resultat d'una compressió
+     * \pre inputsize >= 0
+     * \post Retorna una cota de la mida de la sortida: cada parell de 3 bytes codifica almenys un byte, més les marques de buidat (com a molt una per cada 16 KB d'entrada, i la inicial de la política PRUNE)
+     * \param inputsize Mida de les dades a comprimir
+     */
+	@Override
+	int maxCompressedSize(int inputsize)
+	{
+		return (int)Math.min(Integer.MAX_VALUE, 3L*inputsize + 2L*(inputsize/16384 + 2));
+	}
+
+	/**
+     * @brief Comprimir un arxiu sobre un buffer donat, implementació específica
+     * \pre output és buit, ctx s'ha obtingut amb newContext()
+     * \post S'ha escrit a output l'array de bytes d'entrada comprimit amb l'algorisme LZ78, buidant i reutilitzant el diccionari del context. El resultat és idèntic al de specificCompress(byte[])
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     * \param output Buffer on s'escriuen les dades comprimides
+     * \param ctx Context de compressió
+     */
+	@Override
+	protected void specificCompress(final byte[] input, ByteArray output, Context ctx) throws ByteArray.ByteArrayException
+	{
+		Encoder e = (Encoder)ctx;
+		e.reset(policy, output);
+		e.encode(input, 0, input.length, input.length);
+	}
+
+	/**
+     * @brief Comprimir un arxiu des d'un canal, implementació específica
+     * \pre input conté inputsize bytes
+     * \post S'ha comprimit l'entrada per trossos de STREAMCHUNK bytes i s'ha escrit al canal de sortida. El resultat és idèntic al de specificCompress(byte[])
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \exception IOException : Si hi ha algun error en llegir o escriure els canals es llança excepció
+     * \param input Canal amb les dades a comprimir
+     * \param inputsize Número de bytes a comprimir
+     * \param output Canal on s'escriuen les dades comprimides
+     */
+	@Override
+	protected void specificCompress(ReadableByteChannel input, int inputsize, WritableByteChannel output) throws ByteArray.ByteArrayException, IOException
+	{
+		ByteArray codes = ByteArray.pooled(Math.min(STREAMCHUNK, inputsize));
+		try {
+			Encoder e = (Encoder)localContext();
+			e.reset(policy, codes);
+			byte[] buffer = new byte[Math.min(STREAMCHUNK, inputsize) + MAXPHRASE];
+			int n = 0, i = 0;
+			while (true) {
+				n += readFully(input, buffer, n, buffer.length-n);
+				boolean eof = n < buffer.length;
+				i = e.encode(buffer, i, eof ? n : n-MAXPHRASE, n);
+				writeFully(output, codes.asByteBuffer());
+				codes.clear();
+				if (eof) break;
+				System.arraycopy(buffer, i, buffer, 0, n-i);
+				n -= i;
+				i = 0;
+			}
+		} finally {
+			codes.release();
+		}
+	}
+
+	/**
+     * @brief Descomprimir un arxiu, implementació específica
+     * \pre true
+     * \post S'ha descomprimit l'array de bytes d'entrada amb l'algorisme LZ78 directament sobre un array de la mida original, amb el diccionari en arrays primitius (PhraseTable). Retorna l'array de bytes que representa el fitxer descomprimit
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+     * \param input Dades a descomprimir
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+	protected byte[] specificDecompress(final byte[] input, int originalsize) throws ByteArray.ByteArrayException
+	{
+		byte[] ret = new byte[originalsize];
+		Decoder d = new Decoder();
+		d.decode(input, input.length, true, ret, 0);
+		if (d.i < input.length) throw new ByteArray.ByteArrayException("LZ78: truncated input");
+		return ret;
+	}
+
+	/**
+     * @brief Descomprimir un arxiu des d'un canal, implementació específica
+     * \pre input conté inputsize bytes
+     * \post S'ha descomprimit l'entrada per trossos sobre un buffer de STREAMCHUNK bytes més MAXPHRASE, que s'escriu al canal de sortida cada cop que s'omple
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+     * \exception IOException : Si hi ha algun error en llegir o escriure els canals es llança excepció
+     * \param input Canal amb les dades a descomprimir
+     * \param inputsize Número de bytes comprimits
+     * \param output Canal on s'escriuen les dades descomprimides
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+	@Override
+	protected void specificDecompress(ReadableByteChannel input, int inputsize, WritableByteChannel output, int originalsize) throws ByteArray.ByteArrayException, IOException
+	{
+		byte[] in = new byte[Math.min(STREAMCHUNK, Math.max(inputsize, 3))];
+		byte[] out = new byte[Math.min(STREAMCHUNK, originalsize) + MAXPHRASE];
+		Decoder d = new Decoder();
+		int iend = 0;
+		boolean eof = false;
+		long written = 0;
+		while (true) {
+			d.decode(in, iend, eof, out, MAXPHRASE);
+			if (out.length-d.op < MAXPHRASE) { //output full
+				written += d.op;
+				if (written > originalsize) throw new ByteArray.ByteArrayException("LZ78: output overflow");
+				writeFully(output, out, 0, d.op);
+				d.op = 0;
+				continue;
+			}
+			if (eof) break;
+			int rest = iend-d.i;
+			System.arraycopy(in, d.i, in, 0, rest);
+			d.i = 0;
+			iend = rest + readFully(input, in, rest, in.length-rest);
+			eof = iend < in.length;
+		}
+		if (d.i < iend) throw new ByteArray.ByteArrayException("LZ78: truncated input");
+		if (written + d.op > originalsize) throw new ByteArray.ByteArrayException("LZ78: output overflow");
+		writeFully(output, out, 0, d.op);
+	}
+
+	/**
+     * @class Encoder
+     * @brief Codificador LZ78
+     * Guarda l'estat d'una compressió (diccionari, política i tokens emesos), de manera que l'entrada es pot codificar per trossos. També és el context de compressió de LZ78: es pot buidar i reutilitzar per comprimir un altre arxiu sense tornar a crear el diccionari.
+     */
+	private static class Encoder extends Context
+	{
+		/** @brief Tokens emesos */
+		ByteArray ret;
+		/** @brief Diccionari */
+		private final Trie dict = new Trie();
+		/** @brief Política del diccionari */
+		private Trie.ResetPolicy policy;
+		/** @brief Indica si la política és PRUNE */
+		private boolean prune;
+		/** @brief Monitor de la taxa de compressió (política ADAPTIVE), o null */
+		private RatioMonitor monitor;
+		/** @brief Fulles del diccionari per ordre d'ús (política PRUNE), o null */
+		private LeafLRU lru;
+		/** @brief Índex que s'assignarà a la següent paraula */
+		private int indexdict;
+
+		/**
+         * @brief Constructora
+         * \pre true
+         * \post S'ha creat un codificador amb el diccionari buit i la política donada. Amb la política PRUNE ja s'ha emès la marca inicial
+         */
+		Encoder(Trie.ResetPolicy policy)
+		{
+			reset(policy, new ByteArray());
+		}
+
+		/**
+         * @brief Reiniciar el codificador
+         * \pre true
+         * \post El codificador torna a l'estat inicial amb la política donada i escriu els tokens a continuació de la posició del punter intern de ret. Es reutilitzen el diccionari i, si la política no canvia, el monitor o les fulles. Amb la política PRUNE ja s'ha emès la marca inicial
+         */
+		void reset(Trie.ResetPolicy policy, ByteArray ret)
+		{
+			this.policy = policy;
+			this.ret = ret;
+			prune = policy == Trie.ResetPolicy.PRUNE;
+			if (policy != Trie.ResetPolicy.ADAPTIVE) monitor = null;
+			else if (monitor == null) monitor = new RatioMonitor();
+			else monitor.reset();
+			if (!prune) lru = null;
+			else if (lru == null) lru = new LeafLRU(Short.MAX_VALUE+1, 1);
+			else lru.reset();
+			dict.Clear();
+			indexdict = 1;
+			if (prune) ret.putShort(Short.MAX_VALUE);
+		}
+
+		/**
+         * @brief Codificar un tros
+         * \pre 0 <= i <= limit <= end <= mida de input; si limit < end, end-limit >= MAXPHRASE
+         * \post S'han codificat les paraules de input que comencen abans de limit, sense llegir més enllà de end. Retorna la posició de la següent paraula
+         */
+		int encode(final byte[] input, int i, int limit, int end)
+		{
+			while (i < limit) {
+				int start = i;
+				boolean full = indexdict == Short.MAX_VALUE;
+				//find the longest word in dict, and add it plus the next character as a new word
+				int code = dict.Search_Insert(input, i, end, indexdict, prune && full ? 0 : Short.MAX_VALUE);
+				i = dict.GetPosition();
 				//add the code of current word to output
-                ret.putShort((short)outindex1);
-				ret.put(input[i]);
+				ret.putShort((short)code);
+				if (i == end) break; //last word has no next character
+				byte c = input[i++];
+				ret.put(c);
+				if (prune) {
+					//reuse the least recently used leaf if trie is full
+					lru.used(code);
+					int newcode = indexdict;
+					if (full) {
+						newcode = lru.victim(code);
+						int parent = lru.parent(newcode);
+						dict.RemoveChild(parent == 0 ? -1 : parent, lru.symbol(newcode));
+						dict.AddChild(code == 0 ? -1 : code, c, newcode);
+					}
+					lru.added(newcode, code, c);
+				}
 				//empty trie if trie is full
 				if (indexdict < Short.MAX_VALUE) {
-				    indexdict++;
-				} else {
+					indexdict++;
+				} else if (policy == Trie.ResetPolicy.FULL) {
 					indexdict = 1;
-					dict = new Trie.Node();
+					dict.Clear();
+					ret.putShort(Short.MAX_VALUE);
+				}
+				//empty trie if the compression ratio gets worse
+				if (monitor != null && monitor.update(i-start, 24) && i < end) {
+					indexdict = 1;
+					dict.Clear();
 					ret.putShort(Short.MAX_VALUE);
 				}
-				currentnode = dict;
-				outindex1 = 0;
-			}
-			else if (i == input.length-1) {
-				//add the code of current word to output
-				ret.putShort((short)findnode.GetCode());
-				currentnode = findnode;
-			}
-			else {
-				outindex1 = findnode.GetCode();
-				currentnode = findnode;
 			}
+			return i;
 		}
-		
-		return ret.getArray();
 	}
-	
+
 	/**
-     * @brief Descomprimir un arxiu, implementació específica
-     * \pre true
-     * \post S'ha descomprimit l'array de bytes d'entrada amb l'algorisme LZ78. Retorna l'array de bytes que representa el fitxer descomprimit
-     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
-     * \param input Dades a descomprimir
-     * \param originalsize Mida de l'arxiu original sense comprimir
+     * @class Decoder
+     * @brief Descodificador LZ78
+     * Guarda l'estat d'una descompressió (diccionari i posicions de lectura i escriptura), de manera que l'entrada es pot descodificar per trossos i la sortida es pot buidar entre trossos.
      */
-	protected byte[] specificDecompress(final byte[] input, int originalsize) throws ByteArray.ByteArrayException
+	private static class Decoder
 	{
-		ArrayList<ByteArray> dict = new ArrayList<ByteArray>();
-		ByteArray ret = new ByteArray(new byte[originalsize]);
+		/** @brief Diccionari */
+		private final PhraseTable dict = new PhraseTable(Short.MAX_VALUE+1, false);
+		/** @brief Fulles del diccionari per ordre d'ús (política PRUNE), o null */
+		private LeafLRU lru = null;
+		/** @brief Indica si encara no s'ha llegit cap token */
+		private boolean first = true;
+		/** @brief Posició de lectura */
 		int i = 0;
-		int dictindex = 0;
-		while (i < input.length) {
-			//convert the code to the position of word in dict
-			dictindex = (int)((input[i] & 0xFF) << 8 | (input[i+1] & 0xFF));
-			if (dictindex >= Short.MAX_VALUE) {
-				dict = new ArrayList<ByteArray>();
-				dictindex = 0;
+		/** @brief Posició d'escriptura */
+		int op = 0;
+
+		/**
+         * @brief Descodificar un tros
+         * \pre 0 <= i <= iend <= mida de input, 0 <= op <= mida de ret
+         * \post S'han descodificat els tokens sencers de [i, iend) mentre a ret quedaven almenys room bytes lliures, i s'han avançat i i op. Si eof és fals, no es descodifica cap token que pugui continuar més enllà de iend
+         * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+         */
+		void decode(final byte[] input, int iend, boolean eof, byte[] ret, int room) throws ByteArray.ByteArrayException
+		{
+			while ((iend-i >= 3 || (eof && iend-i >= 2)) && ret.length-op >= room) {
+				//convert the code to the position of word in dict
+				int dictindex = ByteArray.shortAt(input, i) & 0xFFFF;
 				i += 2;
-			}
-			else {
-				if (i+1 != input.length-1) {
-					byte c2 = input[i+2];
-					if (dictindex == 0) {
-						ByteArray tmp = new ByteArray();
-						tmp.put(c2);
-						//add a character to dict
-						dict.add(tmp);
-						//add a character to output
-						ret.put(c2);
-					}
-					else {
-						ByteArray str = dict.get(dictindex-1);
-						ByteArray str2 = new ByteArray(str.getArray());
-						str2.put(c2, str2.size());
-						//add current word to dict
-						dict.add(str2);
-						//add current word to output
-						ByteArray.transfer(str2, 0, ret, -1, str2.size());
+				if (dictindex >= Short.MAX_VALUE) {
+					//leading marker: PRUNE policy
+					if (first) lru = new LeafLRU(Short.MAX_VALUE+1, 1);
+					first = false;
+					dict.reset(1);
+					continue;
+				}
+				first = false;
+				if (dictindex >= dict.size()) throw new ByteArray.ByteArrayException("LZ78: index out of range");
+				//add current word to output
+				op = dict.emit(dictindex, ret, op);
+				if (i == iend) break; //last word has no next character
+				if (op == ret.length) throw new ByteArray.ByteArrayException("LZ78: output overflow");
+				byte c = input[i++];
+				ret[op++] = c;
+				//add current word to dict: the next index, or the one of the least recently used leaf if dict is full (PRUNE)
+				if (lru != null) {
+					lru.used(dictindex);
+					int code;
+					if (dict.size() < Short.MAX_VALUE) {
+						code = dict.add(dictindex, c);
+					} else {
+						code = lru.victim(dictindex);
+						dict.define(code, dictindex, c);
 					}
+					lru.added(code, dictindex, c);
 				}
 				else {
-					if (dictindex != 0) {
-						//add current word to output
-						ByteArray str = dict.get(dictindex-1);
-						ByteArray.transfer(str, 0, ret, -1, str.size());
-					}
+					dict.add(dictindex, c);
 				}
-			dictindex = 0;
-			i+=3;
 			}
 		}
-
-		return ret.getArray();
 	}
 }
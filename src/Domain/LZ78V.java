@@ -0,0 +1,166 @@
+/**
+ * @file LZ78V.java
+ */
+package Domain;
+
+/**
+ * @class LZ78V
+ * @brief Implementació específica de l'algorisme de compressió LZ78 amb índexs d'amplada variable
+ * És la classe que implementa els mètodes específics de compressió i descompressió heredats de Algorithm per a una variant de LZ78 on cada parell (índex, byte) s'escriu empaquetat a nivell de bit, amb l'índex en el mínim número de bits (de 1 a 16) que permet representar tots els índexs assignats fins al moment.
+ * L'índex 0 és la frase buida, l'índex 1 (CLEAR) indica que el diccionari es buida, i les frases noves s'assignen a partir del 2. L'últim parell pot no tenir byte, si la frase arriba al final del fitxer. El diccionari es gestiona com la política ADAPTIVE de LZ78: quan és ple es congela, i es buida quan la taxa de compressió empitjora (RatioMonitor).
+ */
+class LZ78V extends Algorithm
+{
+    /** @brief Índex que indica que el diccionari es buida */
+    static final int CLEAR = 1;
+    /** @brief Primer índex assignable */
+    static final int FIRSTCODE = 2;
+    /** @brief Número màxim d'índexs (16 bits) */
+    static final int MAXCODES = 1 << 16;
+
+    /**
+     * @brief Constructora
+     * \pre true
+     * \post S'ha creat una instància de l'algorisme LZ78 d'amplada variable, amb el nom "LZ78V"
+     */
+    LZ78V()
+    {
+        super("LZ78V");
+    }
+
+    /**
+     * @brief Amplada dels índexs
+     * \pre next > 1
+     * \post Retorna el número de bits necessari per escriure qualsevol índex menor que next
+     * \param next Número d'índexs assignats
+     */
+    static int width(int next)
+    {
+        return 32-Integer.numberOfLeadingZeros(next-1);
+    }
+
+    /**
+     * @brief Comprimir un arxiu, implementació específica
+     * \pre true
+     * \post S'ha comprimit l'array de bytes d'entrada amb l'algorisme LZ78 d'amplada variable. Retorna l'array de bytes que representa el fitxer comprimit
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     */
+    protected byte[] specificCompress(final byte[] input) throws ByteArray.ByteArrayException
+    {
+        return pooledCompress(input, maxCompressedSize(input.length));
+    }
+
+    /**
+     * @brief Crear un context de compressió
+     * \pre true
+     * \post Retorna un context que conserva el diccionari i el monitor de la taxa de compressió entre compressions
+     */
+    @Override
+    Context newContext()
+    {
+        return new Workspace();
+    }
+
+    /**
+     * @brief Obtenir la mida màxima del resultat d'una compressió
+     * \pre inputsize >= 0
+     * \post Retorna una cota de la mida de la sortida: cada parell de com a molt 24 bits codifica almenys un byte, més els CLEAR (com a molt un per cada 16 KB d'entrada)
+     * \param inputsize Mida de les dades a comprimir
+     */
+    @Override
+    int maxCompressedSize(int inputsize)
+    {
+        return (int)Math.min(Integer.MAX_VALUE, 3L*inputsize + 2L*(inputsize/16384 + 2));
+    }
+
+    /**
+     * @brief Comprimir un arxiu sobre un buffer donat, implementació específica
+     * \pre output és buit, ctx s'ha obtingut amb newContext()
+     * \post S'ha escrit a out l'array de bytes d'entrada comprimit amb l'algorisme LZ78 d'amplada variable, buidant i reutilitzant el diccionari i el monitor del context
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     * \param out Buffer on s'escriuen les dades comprimides
+     * \param ctx Context de compressió
+     */
+    @Override
+    protected void specificCompress(final byte[] input, ByteArray out, Context ctx) throws ByteArray.ByteArrayException
+    {
+        BitWriter output = new BitWriter(out);
+        Workspace ws = (Workspace)ctx;
+        Trie dict = ws.dict;
+        RatioMonitor monitor = ws.monitor;
+        dict.Clear();
+        monitor.reset();
+        int next = FIRSTCODE;
+        int i = 0;
+        while(i < input.length)
+        {
+            int start = i;
+            int w = width(next);
+            int code = dict.Search_Insert(input, i, next, MAXCODES);
+            i = dict.GetPosition();
+            output.write(code, w);
+            if(i == input.length) break; //last word has no next character
+            output.write(input[i++] & 0xFF, 8);
+            if(next < MAXCODES) next++;
+            if(monitor.update(i-start, w+8) && i < input.length)
+            {
+                output.write(CLEAR, width(next));
+                dict.Clear();
+                next = FIRSTCODE;
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * @brief Descomprimir un arxiu, implementació específica
+     * \pre true
+     * \post S'ha descomprimit l'array de bytes d'entrada amb l'algorisme LZ78 d'amplada variable. Retorna l'array de bytes que representa el fitxer descomprimit
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+     * \param input Dades a descomprimir
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+    protected byte[] specificDecompress(final byte[] input, int originalsize) throws ByteArray.ByteArrayException
+    {
+        BitReader in = new BitReader(input);
+        byte[] out = new byte[originalsize];
+        PhraseTable table = new PhraseTable(MAXCODES, false);
+        table.reset(FIRSTCODE);
+
+        int op = 0;
+        int next = FIRSTCODE;
+        while(op < originalsize)
+        {
+            int code = in.read(width(next));
+            if(code == CLEAR)
+            {
+                table.reset(FIRSTCODE);
+                next = FIRSTCODE;
+                continue;
+            }
+            if(code >= table.size()) throw new ByteArray.ByteArrayException("LZ78V: index out of range");
+            op = table.emit(code, out, op);
+            if(op == originalsize) break; //last word has no next character
+            byte c = (byte)in.read(8);
+            out[op++] = c;
+            table.add(code, c);
+            if(next < MAXCODES) next++;
+        }
+        return out;
+    }
+
+    /**
+     * @class Workspace
+     * @brief Context de compressió LZ78V
+     * Conserva el diccionari i el monitor de la taxa de compressió, que es buiden a cada compressió.
+     */
+    private static class Workspace extends Context
+    {
+        /** @brief Diccionari */
+        final Trie dict = new Trie(MAXCODES);
+        /** @brief Monitor de la taxa de compressió */
+        final RatioMonitor monitor = new RatioMonitor();
+    }
+}
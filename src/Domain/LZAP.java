@@ -0,0 +1,22 @@
+/**
+ * @file LZAP.java
+ */
+package Domain;
+
+/**
+ * @class LZAP
+ * @brief Implementació específica de l'algorisme de compressió LZAP
+ * És la classe que implementa l'algorisme LZAP (Storer): com LZMW, però a cada pas s'afegeixen al diccionari tots els prefixos de la concatenació de les dues últimes frases que allarguen la penúltima. El diccionari creix més ràpid i conté totes les frases intermèdies. El format del fitxer comprimit és el mateix que el de LZMW.
+ */
+class LZAP extends LZMW
+{
+    /**
+     * @brief Constructora
+     * \pre true
+     * \post S'ha creat una instància de l'algorisme LZAP, amb el nom "LZAP"
+     */
+    LZAP()
+    {
+        super("LZAP", true);
+    }
+}
@@ -0,0 +1,289 @@
+/**
+ * @file LZMW.java
+ */
+package Domain;
+
+/**
+ * @class LZMW
+ * @brief Implementació específica de l'algorisme de compressió LZMW
+ * És la classe que implementa els mètodes específics de compressió i descompressió heredats de Algorithm per a l'algorisme LZMW (Miller-Wegman): a cada pas s'afegeix al diccionari la concatenació de les dues últimes frases, de manera que les repeticions llargues s'aprenen molt més ràpid que amb LZW.
+ * El fitxer comprimit té el mateix format que LZW: codis de 16 bits, on 0-255 són els bytes i Short.MAX_VALUE indica que el diccionari es buida. Quan el diccionari és ple es congela, i es buida quan la taxa de compressió empitjora (RatioMonitor).
+ * El compressor i el descompressor mantenen el mateix Trie. Com que els prefixos d'una frase no sempre són frases, els nodes del Trie tenen un identificador propi i només alguns tenen codi. El descompressor escriu cada frase copiant-la de la seva aparició anterior a la sortida.
+ */
+class LZMW extends Algorithm
+{
+    /** @brief Codi que indica que el diccionari es buida */
+    static final int RESET = Short.MAX_VALUE;
+    /** @brief Número màxim de nodes del Trie */
+    private static final int MAXNODES = 1 << 17;
+
+    /** @brief Indica si s'afegeixen tots els prefixos de la concatenació (LZAP) o només la concatenació (LZMW) */
+    private final boolean allPrefixes;
+
+    /**
+     * @brief Constructora
+     * \pre true
+     * \post S'ha creat una instància de l'algorisme LZMW, amb el nom "LZMW"
+     */
+    LZMW()
+    {
+        this("LZMW", false);
+    }
+
+    /**
+     * @brief Constructora per a les variants
+     * \pre true
+     * \post S'ha creat una instància de l'algorisme amb el nom donat, que afegeix al diccionari tots els prefixos de la concatenació de les dues últimes frases si allPrefixes és cert
+     * \param name Nom de l'algorisme
+     * \param allPrefixes Si és cert, s'afegeixen tots els prefixos de la concatenació que allarguen la penúltima frase
+     */
+    protected LZMW(String name, boolean allPrefixes)
+    {
+        super(name);
+        this.allPrefixes = allPrefixes;
+    }
+
+    /**
+     * @class Dictionary
+     * @brief Diccionari compartit pel compressor i el descompressor
+     * Guarda el Trie de les frases, el codi de cada node (-1 si el node no és una frase), i el node i l'aparició (posició i llargada) de cada codi.
+     */
+    private static class Dictionary
+    {
+        /** @brief Arbre de les frases, indexat per identificador de node */
+        private final Trie trie = new Trie(MAXNODES);
+        /** @brief Codi de cada node, -1 si no és una frase */
+        private final int[] nodeCode = new int[MAXNODES];
+        /** @brief Node de cada codi */
+        private final int[] codeNode = new int[RESET];
+        /** @brief Posició d'una aparició de cada codi a les dades */
+        private final int[] codeStart = new int[RESET];
+        /** @brief Llargada de la frase de cada codi */
+        private final int[] codeLength = new int[RESET];
+        /** @brief Indica si s'afegeixen tots els prefixos de la concatenació */
+        private final boolean allPrefixes;
+        /** @brief Següent identificador de node */
+        private int nextNode;
+        /** @brief Següent codi */
+        private int nextCode;
+
+        /**
+         * @brief Constructora
+         * \pre true
+         * \post S'ha creat un diccionari amb els 256 bytes
+         */
+        Dictionary(boolean allPrefixes)
+        {
+            this.allPrefixes = allPrefixes;
+            reset();
+        }
+
+        /**
+         * @brief Buidar el diccionari
+         * \pre true
+         * \post El diccionari només conté els 256 bytes, amb node i codi igual al seu valor
+         */
+        void reset()
+        {
+            trie.InitializeTriesASCII();
+            for(int i = 0; i < 256; i++)
+            {
+                nodeCode[i] = i;
+                codeNode[i] = i;
+                codeLength[i] = 1;
+            }
+            nextNode = 256;
+            nextCode = 256;
+        }
+
+        /**
+         * @brief Cercar la frase més llarga
+         * \pre pos < end
+         * \post Retorna el codi de la frase més llarga del diccionari que comença a data[pos]. La llargada de la frase és codeLength del codi
+         */
+        int longest(byte[] data, int pos, int end)
+        {
+            int node = data[pos] & 0xFF;
+            int code = node;
+            for(int p = pos+1; p < end; p++)
+            {
+                node = trie.SearchChild(node, data[p]);
+                if(node < 0) break;
+                if(nodeCode[node] >= 0) code = nodeCode[node];
+            }
+            return code;
+        }
+
+        /**
+         * @brief Afegir la concatenació de dues frases
+         * \pre prev és el codi de la frase que comença a data[start] i acaba a data[from-1], from < to
+         * \post S'ha afegit la frase data[start..to) (LZMW) o totes les frases data[start..j), from < j <= to (LZAP) que no hi eren, mentre quedin nodes i codis lliures
+         * \param data Dades on apareixen les dues frases consecutives
+         * \param prev Codi de la primera frase
+         * \param start Posició de la primera frase
+         * \param from Posició de la segona frase
+         * \param to Posició següent a l'últim byte de la segona frase
+         */
+        void extend(byte[] data, int prev, int start, int from, int to)
+        {
+            int node = codeNode[prev];
+            for(int j = from; j < to; j++)
+            {
+                int child = trie.SearchChild(node, data[j]);
+                if(child < 0)
+                {
+                    if(nextNode == MAXNODES) return;
+                    child = nextNode++;
+                    trie.AddChild(node, data[j], child);
+                    nodeCode[child] = -1;
+                }
+                node = child;
+                if((allPrefixes || j == to-1) && nodeCode[node] < 0)
+                {
+                    if(nextCode == RESET) return;
+                    nodeCode[node] = nextCode;
+                    codeNode[nextCode] = node;
+                    codeStart[nextCode] = start;
+                    codeLength[nextCode] = j+1-start;
+                    nextCode++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Comprimir un arxiu, implementació específica
+     * \pre true
+     * \post S'ha comprimit l'array de bytes d'entrada. Retorna l'array de bytes que representa el fitxer comprimit
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     */
+    protected byte[] specificCompress(final byte[] input) throws ByteArray.ByteArrayException
+    {
+        return pooledCompress(input, maxCompressedSize(input.length));
+    }
+
+    /**
+     * @brief Crear un context de compressió
+     * \pre true
+     * \post Retorna un context que conserva el diccionari i el monitor de la taxa de compressió entre compressions
+     */
+    @Override
+    Context newContext()
+    {
+        return new Workspace(allPrefixes);
+    }
+
+    /**
+     * @brief Obtenir la mida màxima del resultat d'una compressió
+     * \pre inputsize >= 0
+     * \post Retorna una cota de la mida de la sortida: cada codi de 2 bytes codifica almenys un byte, més les marques de buidat (com a molt una per cada 16 KB d'entrada)
+     * \param inputsize Mida de les dades a comprimir
+     */
+    @Override
+    int maxCompressedSize(int inputsize)
+    {
+        return (int)Math.min(Integer.MAX_VALUE, 2L*(inputsize + inputsize/16384 + 2));
+    }
+
+    /**
+     * @brief Comprimir un arxiu sobre un buffer donat, implementació específica
+     * \pre output és buit, ctx s'ha obtingut amb newContext() d'aquest algorisme
+     * \post S'ha escrit a output l'array de bytes d'entrada comprimit, buidant i reutilitzant el diccionari i el monitor del context
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     * \param output Buffer on s'escriuen les dades comprimides
+     * \param ctx Context de compressió
+     */
+    @Override
+    protected void specificCompress(final byte[] input, ByteArray output, Context ctx) throws ByteArray.ByteArrayException
+    {
+        Workspace ws = (Workspace)ctx;
+        Dictionary dict = ws.dict;
+        RatioMonitor monitor = ws.monitor;
+        dict.reset();
+        monitor.reset();
+        int prev = -1;
+        int prevStart = 0;
+        int pos = 0;
+        while(pos < input.length)
+        {
+            int code = dict.longest(input, pos, input.length);
+            int end = pos + dict.codeLength[code];
+            output.putShort((short)code);
+            if(prev >= 0) dict.extend(input, prev, prevStart, pos, end);
+            prev = code;
+            prevStart = pos;
+            if(monitor.update(end-pos, 16) && end < input.length)
+            {
+                output.putShort((short)RESET);
+                dict.reset();
+                prev = -1;
+            }
+            pos = end;
+        }
+    }
+
+    /**
+     * @brief Descomprimir un arxiu, implementació específica
+     * \pre true
+     * \post S'ha descomprimit l'array de bytes d'entrada directament sobre un array de la mida original. Retorna l'array de bytes que representa el fitxer descomprimit
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+     * \param input Dades a descomprimir
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+    protected byte[] specificDecompress(final byte[] input, int originalsize) throws ByteArray.ByteArrayException
+    {
+        byte[] output = new byte[originalsize];
+        Dictionary dict = new Dictionary(allPrefixes);
+        int prev = -1;
+        int prevStart = 0;
+        int ip = 0, op = 0;
+        while(ip < input.length)
+        {
+            if(ip+2 > input.length) throw new ByteArray.ByteArrayException(getName() + ": truncated input");
+            int code = ByteArray.shortAt(input, ip) & 0xFFFF;
+            ip += 2;
+            if(code == RESET)
+            {
+                dict.reset();
+                prev = -1;
+                continue;
+            }
+            if(code >= dict.nextCode) throw new ByteArray.ByteArrayException(getName() + ": code out of range");
+
+            int len = dict.codeLength[code];
+            if(len > originalsize-op) throw new ByteArray.ByteArrayException(getName() + ": output overflow");
+            if(code < 256) output[op] = (byte)code;
+            else System.arraycopy(output, dict.codeStart[code], output, op, len);
+            if(prev >= 0) dict.extend(output, prev, prevStart, op, op+len);
+            prev = code;
+            prevStart = op;
+            op += len;
+        }
+        return output;
+    }
+
+    /**
+     * @class Workspace
+     * @brief Context de compressió LZMW
+     * Conserva el diccionari i el monitor de la taxa de compressió, que es buiden a cada compressió.
+     */
+    private static class Workspace extends Context
+    {
+        /** @brief Diccionari */
+        final Dictionary dict;
+        /** @brief Monitor de la taxa de compressió */
+        final RatioMonitor monitor = new RatioMonitor();
+
+        /**
+         * @brief Constructora
+         * \pre true
+         * \post S'ha creat un context amb un diccionari que afegeix tots els prefixos de la concatenació si allPrefixes és cert
+         */
+        Workspace(boolean allPrefixes)
+        {
+            dict = new Dictionary(allPrefixes);
+        }
+    }
+}
@@ -4,274 +4,816 @@
 
 package Domain;
 
-import java.util.*;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 /**
  * @class LZSS
  * @brief Implementació específica de l'algorisme de compressió LZSS
  * És la classe que implementa els mètodes específics de compressió i descompressió heredats de Algorithm per a l'algorisme LZSS
+ * També implementa la compressió i descompressió entre canals: l'entrada es processa per trossos de STREAMCHUNK bytes que conserven els últims MAXWINDOWSIZE bytes com a finestra, de manera que la memòria no depèn de la mida de l'arxiu.
  */
 
 class LZSS extends Algorithm
 {
+    /** @brief Mida màxima de la finestra de cerca (12 bits d'offset) */
+    private static final int MAXWINDOWSIZE = 4095;
+    /** @brief Llargada màxima d'una coincidència (4 bits de llargada + 3) */
+    private static final int MAXLENGTH = 18; //length never will be < 3 because is not worth replacing
+
+    /** @brief Mida dels trossos de la compressió i descompressió entre canals */
+    private static final int STREAMCHUNK = 1 << 20;
+    /** @brief Número màxim de bytes d'entrada d'un grup de tokens (byte de flags i 8 parells) */
+    private static final int GROUPINPUT = 1 + 8*2;
+    /** @brief Número màxim de bytes de sortida d'un grup de tokens */
+    private static final int GROUPOUTPUT = 8*MAXLENGTH;
+
+    /** @brief Profunditat de cerca per defecte: acota el cost per byte en entrades de baixa entropia perdent poca compressió */
+    static final int DEFAULTMAXCHAIN = 128;
+
+    /** @brief Mida inicial de la finestra de l'anàlisi òptima (creix si els camins no s'ajunten) */
+    private static final int OPTIMALSEGMENT = 1 << 16;
+
+    /** @brief Nivell de compressió: anàlisi voraç */
+    static final int LEVEL_GREEDY = 0;
+    /** @brief Nivell de compressió: anàlisi mandrosa d'un pas */
+    static final int LEVEL_LAZY = 1;
+    /** @brief Nivell de compressió: anàlisi òptima amb programació dinàmica */
+    static final int LEVEL_OPTIMAL = 2;
+
+    /** @brief Número màxim de posicions que visita el cercador de coincidències per byte, 0 vol dir il·limitat */
+    private int maxChain;
+
     /**
      * @brief Constructora
      * \pre true
-     * \post S'ha creat una instància de l'algorisme LZSS, amb el nom "LZSS"
+     * \post S'ha creat una instància de l'algorisme LZSS, amb el nom "LZSS" i profunditat de cerca DEFAULTMAXCHAIN. Per a la cerca exhaustiva s'ha d'usar LZSS(0) o setMaxChain(0)
      */
     LZSS()
     {
-        super("LZSS");
+        this(DEFAULTMAXCHAIN);
+    }
+
+    /**
+     * @brief Constructora amb profunditat de cerca
+     * \pre maxChain >= 0
+     * \post S'ha creat una instància de l'algorisme LZSS, amb el nom "LZSS", que visita com a màxim maxChain posicions per cerca (0 vol dir il·limitat)
+     * \param maxChain Número màxim de posicions a visitar per cerca
+     */
+    LZSS(int maxChain)
+    {
+        this("LZSS", maxChain);
+    }
+
+    /**
+     * @brief Constructora per a variants
+     * \pre maxChain >= 0
+     * \post S'ha creat una instància de l'algorisme LZSS amb el nom donat, que visita com a màxim maxChain posicions per cerca (0 vol dir il·limitat)
+     * \param name Nom de l'algorisme
+     * \param maxChain Número màxim de posicions a visitar per cerca
+     */
+    protected LZSS(String name, int maxChain)
+    {
+        super(name);
+        this.maxChain = maxChain;
+    }
+
+    /**
+     * @brief Definir la profunditat de cerca
+     * \pre maxChain >= 0
+     * \post El cercador de coincidències visitarà com a màxim maxChain posicions per cerca (0 vol dir il·limitat, i la sortida és idèntica a la cerca exhaustiva)
+     * \param maxChain Número màxim de posicions a visitar per cerca
+     */
+    void setMaxChain(int maxChain)
+    {
+        this.maxChain = maxChain;
+    }
+
+    /**
+     * @brief Obtenir la profunditat de cerca
+     * \pre true
+     * \post Retorna el número màxim de posicions que visita el cercador per cerca (0 vol dir il·limitat)
+     */
+    int getMaxChain()
+    {
+        return maxChain;
+    }
+
+    /**
+     * @brief Obtenir el nivell màxim de compressió
+     * \pre true
+     * \post Retorna LEVEL_OPTIMAL
+     */
+    @Override
+    int getMaxLevel()
+    {
+        return LEVEL_OPTIMAL;
     }
 
     /**
      * @brief Comprimir un arxiu, implementació específica
      * \pre true
-     * \post S'ha comprimit l'array de bytes d'entrada amb l'algorisme LZSS. Retorna l'array de bytes que representa el fitxer comprimit
+     * \post S'ha comprimit l'array de bytes d'entrada amb l'algorisme LZSS i l'estratègia d'anàlisi del nivell actual. Retorna l'array de bytes que representa el fitxer comprimit
      * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
      * \param input Dades a comprimir
      */
     protected byte[] specificCompress(final byte[] input) throws ByteArray.ByteArrayException
     {
-        ByteArray in = new ByteArray(input);
-        ByteArray out = new ByteArray();
-        WindowPositionsHolder wph = new WindowPositionsHolder();
+        return pooledCompress(input, maxCompressedSize(input.length));
+    }
+
+    /**
+     * @brief Crear un context de compressió
+     * \pre true
+     * \post Retorna un context que conserva el cercador de coincidències entre compressions
+     */
+    @Override
+    Context newContext()
+    {
+        return new Workspace();
+    }
+
+    /**
+     * @brief Obtenir la mida màxima del resultat d'una compressió
+     * \pre inputsize >= 0
+     * \post Retorna la mida de la sortida si tots els bytes són literals: inputsize literals, la marca de final i un byte de flags per cada 8 tokens
+     * \param inputsize Mida de les dades a comprimir
+     */
+    @Override
+    int maxCompressedSize(int inputsize)
+    {
+        return (int)Math.min(Integer.MAX_VALUE, blockBound(inputsize));
+    }
+
+    /**
+     * @brief Mida màxima d'un bloc comprimit
+     * \pre n >= 0
+     * \post Retorna la mida màxima del resultat de comprimir n bytes en un bloc LZSS
+     */
+    static long blockBound(long n)
+    {
+        return n + (n+1+7)/8 + 2;
+    }
 
-        int remainingflags = 8;
-        int flagsposition = 0;
-        byte flags = 0x00;
-        out.put((byte)0x00);
+    /**
+     * @brief Comprimir un arxiu sobre un buffer donat, implementació específica
+     * \pre output és buit, ctx s'ha obtingut amb newContext()
+     * \post S'ha escrit a output l'array de bytes d'entrada comprimit amb l'algorisme LZSS, reutilitzant el cercador de coincidències del context. El resultat és idèntic al de specificCompress(byte[])
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     * \param output Buffer on s'escriuen les dades comprimides
+     * \param ctx Context de compressió
+     */
+    @Override
+    protected void specificCompress(final byte[] input, ByteArray output, Context ctx) throws ByteArray.ByteArrayException
+    {
+        TokenWriter out = new TokenWriter(output);
+        parse(input, 0, 0, input.length, out, ((Workspace)ctx).matcher(maxChain));
+        out.end();
+    }
 
-        int count = 0;
-        while(count < 3 && in.remaining() > 0) //first 3 bytes aren't processed, because < min length
+    /**
+     * @brief Comprimir un bloc
+     * \pre 0 <= base <= start <= end <= mida de input
+     * \post S'ha comprimit el bloc [start, end) de l'entrada amb l'estratègia d'anàlisi del nivell actual, permetent coincidències amb els bytes de [base, start), sobre un buffer de BufferPool. Retorna el bloc comprimit, en el mateix format que un fitxer LZSS
+     * \param input Dades a comprimir
+     * \param base Inici de les dades que poden ser referenciades (finestra inicial)
+     * \param start Inici del bloc
+     * \param end Final del bloc
+     */
+    byte[] compressBlock(final byte[] input, int base, int start, int end)
+    {
+        ByteArray buffer = ByteArray.pooled(end-start);
+        try
         {
-            byte b = in.get();
-            out.put(b);
-            wph.add(b, count);
-            //flags <<= 1;
-            remainingflags--;
-            count++;
+            TokenWriter out = new TokenWriter(buffer);
+            parse(input, base, start, end, out, new HashChain(MAXWINDOWSIZE, maxChain, false));
+            out.end();
+            return buffer.getArray();
         }
+        finally
+        {
+            buffer.release();
+        }
+    }
 
-        while(in.remaining() > 0)
+    /**
+     * @brief Analitzar un bloc
+     * \pre 0 <= base <= start <= end <= mida de input, hc és buit
+     * \post S'han escrit a out els tokens del bloc [start, end) de l'entrada amb l'estratègia d'anàlisi del nivell actual, permetent coincidències amb els bytes de [base, start)
+     */
+    private void parse(final byte[] input, int base, int start, int end, TokenWriter out, HashChain hc)
+    {
+        for(int p = Math.max(base, start-MAXWINDOWSIZE); p < start; p++) hc.insert(input, p, end);
+
+        switch(getLevel())
         {
-            if(remainingflags == 0)
+            case LEVEL_LAZY:
+                parseLazy(input, start, end, hc, out);
+                break;
+            case LEVEL_OPTIMAL:
+                parseOptimal(input, start, end, hc, out);
+                break;
+            case LEVEL_GREEDY:
+            default:
+                parseGreedy(input, start, end, hc, out);
+                break;
+        }
+    }
+
+    /**
+     * @brief Comprimir un arxiu des d'un canal, implementació específica
+     * \pre input conté inputsize bytes
+     * \post S'ha comprimit l'entrada per trossos de STREAMCHUNK bytes, cadascun amb la finestra plena amb el final del tros anterior, i s'ha escrit al canal de sortida en el mateix format que specificCompress(byte[])
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \exception IOException : Si hi ha algun error en llegir o escriure els canals es llança excepció
+     * \param input Canal amb les dades a comprimir
+     * \param inputsize Número de bytes a comprimir
+     * \param output Canal on s'escriuen les dades comprimides
+     */
+    @Override
+    protected void specificCompress(ReadableByteChannel input, int inputsize, WritableByteChannel output) throws ByteArray.ByteArrayException, IOException
+    {
+        byte[] buffer = new byte[MAXWINDOWSIZE + Math.min(STREAMCHUNK, inputsize)];
+        ByteArray tokens = ByteArray.pooled((int)blockBound(Math.min(STREAMCHUNK, inputsize)));
+        try
+        {
+            TokenWriter out = new TokenWriter(tokens);
+            Workspace ws = (Workspace)localContext();
+            int history = 0;
+            while(true)
             {
-                out.put(flags, flagsposition);
-                flagsposition = out.position();
-                flags = 0x00;
-                out.put((byte)0x00);
-                remainingflags = 8;
+                int n = history + readFully(input, buffer, history, buffer.length-history);
+                if(n == history) break;
+                parse(buffer, 0, history, n, out, ws.matcher(maxChain));
+                out.drain(output);
+                history = Math.min(n, MAXWINDOWSIZE);
+                System.arraycopy(buffer, n-history, buffer, 0, history);
             }
+            out.end();
+            writeFully(output, tokens.asByteBuffer());
+        }
+        finally
+        {
+            tokens.release();
+        }
+    }
 
-            //PARAMS (16 bits: 12 bits offset + 4 bits length)
-            int MAXWINDOWSIZE = 4095;
-            int MAXLENGHT = 18; //length never will be < 3 because is not worth replacing
-
-            int window = Math.max(0, in.position()-MAXWINDOWSIZE);
-            boolean fw = (window == in.position()-MAXWINDOWSIZE);
-            int mlength = Math.min(MAXLENGHT, in.position());
+    /**
+     * @brief Anàlisi voraç
+     * \pre hc conté les posicions anteriors a start dins la finestra
+     * \post S'han escrit a out els tokens que resulten de prendre sempre la coincidència més llarga a cada posició
+     * \param input Dades a comprimir
+     * \param start Inici del bloc
+     * \param end Final del bloc
+     * \param hc Cercador de coincidències
+     * \param out Escriptor de tokens
+     */
+    private static void parseGreedy(final byte[] input, int start, int end, HashChain hc, TokenWriter out)
+    {
+        int pos = start;
+        while(pos < end)
+        {
+            int length = hc.find(input, pos, Math.min(MAXLENGTH, pos), end);
+            if(length >= 3) //worth replacing
+            {
+                out.match(pos-hc.matchPosition(), length);
+                for(int i = 0; i < length; i++) hc.insert(input, pos++, end);
+            }
+            else //not worth replacing because max is length 2, the length of codeword
+            {
+                out.literal(input[pos]);
+                hc.insert(input, pos++, end);
+            }
+        }
+    }
 
-            int[] results = searchCoincidence(in, wph, mlength);
+    /**
+     * @brief Anàlisi mandrosa d'un pas
+     * \pre hc conté les posicions anteriors a start dins la finestra
+     * \post S'han escrit a out els tokens de l'anàlisi voraç, excepte quan a la posició següent a una coincidència n'hi ha una de més llarga: llavors se segueix el camí voraç fins on arriba aquesta coincidència i es posposa (literal i coincidència) només si arriba a un dels seus tokens amb menys bits (9 per literal, 17 per coincidència). La sortida mai és més gran que la de l'anàlisi voraç amb el mateix cercador
+     * \param input Dades a comprimir
+     * \param start Inici del bloc
+     * \param end Final del bloc
+     * \param hc Cercador de coincidències
+     * \param out Escriptor de tokens
+     */
+    private static void parseLazy(final byte[] input, int start, int end, HashChain hc, TokenWriter out)
+    {
+        final int LITERALCOST = 9, MATCHCOST = 17;
+        int[] starts = new int[MAXLENGTH+1];
+        int[] lengths = new int[MAXLENGTH+1];
+        int[] offsets = new int[MAXLENGTH+1];
+
+        int pos = start;
+        int length = hc.find(input, pos, Math.min(MAXLENGTH, pos), end);
+        int mpos = hc.matchPosition();
+        while(pos < end)
+        {
+            hc.insert(input, pos, end);
+            if(pos+1 == end)
+            {
+                out.literal(input[pos++]);
+                break;
+            }
 
-            if(results[1] >= 3) //worth replacing
+            int next = hc.find(input, pos+1, Math.min(MAXLENGTH, pos+1), end);
+            int npos = hc.matchPosition();
+            if(length < 3) //literal, the search at pos+1 is reused
             {
-                int offset = in.position()-results[0];
-                int length = results[1];
+                out.literal(input[pos++]);
+                length = next;
+                mpos = npos;
+                continue;
+            }
 
-                short offsetlength = (short)((offset << 4) | ((length-3) & 0x000F)); //encode codepair
-                out.putShort(offsetlength);
+            //greedy tokens from pos while they end within the longer match at pos+1
+            int limit = next > length ? pos+1+next : pos+length;
+            int count = 0, cost = 0;
+            int g = pos;
+            while(g < end)
+            {
+                int l = length >= 3 ? length : 1;
+                if(g+l > limit) break;
+                starts[count] = g;
+                lengths[count] = l;
+                offsets[count++] = g-mpos;
+                cost += (l >= 3) ? MATCHCOST : LITERALCOST;
+                for(int i = (g == pos) ? 1 : 0; i < l; i++) hc.insert(input, g+i, end);
+                g += l;
+                if(g < end)
+                {
+                    length = hc.find(input, g, Math.min(MAXLENGTH, g), end);
+                    mpos = hc.matchPosition();
+                }
+            }
 
-                in.position(in.position());
+            if(g-pos-1 >= 3 && LITERALCOST+MATCHCOST < cost) //defer: literal now, match from pos+1 to the same greedy position
+            {
+                out.literal(input[pos]);
+                out.match(pos+1-npos, g-pos-1);
+            }
+            else
+            {
+                for(int i = 0; i < count; i++)
+                {
+                    if(lengths[i] >= 3) out.match(offsets[i], lengths[i]);
+                    else out.literal(input[starts[i]]);
+                }
+            }
+            pos = g;
+        }
+    }
 
-                for(int i = 0; i < length; i++)
+    /**
+     * @brief Anàlisi òptima
+     * \pre hc conté les posicions anteriors a start dins la finestra
+     * \post S'han escrit a out els tokens que minimitzen el número de bits de sortida (9 bits per literal, 17 per coincidència) entre tots els camins formats per literals i prefixos de la coincidència més llarga de cada posició, calculats amb programació dinàmica. La sortida mai és més gran que la de les anàlisis voraç i mandrosa amb el mateix cercador
+     * \param input Dades a comprimir
+     * \param start Inici del bloc
+     * \param end Final del bloc
+     * \param hc Cercador de coincidències
+     * \param out Escriptor de tokens
+     */
+    private static void parseOptimal(final byte[] input, int start, int end, HashChain hc, TokenWriter out)
+    {
+        final int LITERALCOST = 9, MATCHCOST = 17, UNREACHED = Integer.MAX_VALUE;
+        //forward over a window [base, base+cap): cost of the cheapest path to every position and the token that ends it
+        int cap = Math.min(OPTIMALSEGMENT, end-start) + MAXLENGTH + 1;
+        int[] cost = new int[cap];
+        byte[] lengths = new byte[cap];
+        short[] offsets = new short[cap];
+        byte[] marks = new byte[cap];
+
+        int base = start;
+        int top = 0;
+        cost[0] = 0;
+        for(int p = start; p < end; p++)
+        {
+            if(p-base+MAXLENGTH >= cap)
+            {
+                //the tokens up to the last position shared by the cheapest paths to all the positions a token crossing p can start from are final
+                int c = commonAncestor(lengths, marks, base, Math.max(base, p-MAXLENGTH), p-1);
+                emitPath(input, lengths, offsets, marks, base, c, out);
+                int d = c-base;
+                top -= d;
+                System.arraycopy(cost, d, cost, 0, top+1);
+                System.arraycopy(lengths, d, lengths, 0, top+1);
+                System.arraycopy(offsets, d, offsets, 0, top+1);
+                for(int j = top; j > 0; j--) if(cost[j] != UNREACHED) cost[j] -= cost[0];
+                cost[0] = 0;
+                base = c;
+                if(2*(p-base+MAXLENGTH) >= cap) //the paths have not merged for a long stretch
                 {
-                    byte b = in.get();
-                    wph.add(b, in.position()-1);
-                    if(fw) wph.delete(in.get(window+i));
-                    else if(in.position()-1-MAXWINDOWSIZE >= 0) wph.delete(in.get(in.position()-1-MAXWINDOWSIZE));
+                    cap *= 2;
+                    cost = Arrays.copyOf(cost, cap);
+                    lengths = Arrays.copyOf(lengths, cap);
+                    offsets = Arrays.copyOf(offsets, cap);
+                    marks = new byte[cap];
                 }
+            }
 
-                flags <<= 1;
-                flags |= 0b1;
+            int k = p-base;
+            int length = hc.find(input, p, Math.min(MAXLENGTH, p), end);
+            int offset = p-hc.matchPosition();
+            hc.insert(input, p, end);
+            while(top < k+Math.max(length, 1)) cost[++top] = UNREACHED;
+
+            int c = cost[k]+LITERALCOST;
+            if(c < cost[k+1])
+            {
+                cost[k+1] = c;
+                lengths[k+1] = 1;
             }
-            else //not worth replacing because max is length 2, the length of codeword
+            c = cost[k]+MATCHCOST;
+            for(int l = 3; l <= length; l++)
             {
-                byte b = in.get();
-                wph.add(b, in.position()-1);
-                if(fw) wph.delete(in.get(window));
-
-                out.put(b);
-                flags <<= 1;
+                if(c < cost[k+l])
+                {
+                    cost[k+l] = c;
+                    lengths[k+l] = (byte)l;
+                    offsets[k+l] = (short)offset;
+                }
             }
-            remainingflags--;
         }
+        emitPath(input, lengths, offsets, marks, base, end, out);
+    }
 
-        if(remainingflags == 0)
+    /**
+     * @brief Obtenir l'antecessor comú de posicions de l'anàlisi òptima
+     * \pre base <= lo <= hi, lengths conté el token que acaba a cada posició de (base, hi] del camí més barat fins a ella (relativa a base), marks és tot zeros
+     * \post Retorna la posició més gran per on passen els camins més barats fins a totes les posicions de [lo, hi]. marks continua sent tot zeros
+     * \param lengths Llargada del token que acaba a cada posició (1 per a literals)
+     * \param marks Número de camins que arriben a cada posició
+     * \param base Posició inicial dels camins
+     * \param lo Primera posició
+     * \param hi Última posició
+     */
+    private static int commonAncestor(byte[] lengths, byte[] marks, int base, int lo, int hi)
+    {
+        for(int j = lo; j <= hi; j++) marks[j-base] = 1;
+        int paths = hi-lo+1;
+        int j = hi;
+        while(true)
         {
-            out.put(flags, flagsposition);
-            flagsposition = out.position();
-            flags = 0x00;
-            out.put((byte)0x00);
-            remainingflags = 8;
+            int m = marks[j-base];
+            if(m > 0)
+            {
+                paths -= m-1; //the paths that arrive at j merge
+                if(paths == 1) break;
+                marks[j-base-lengths[j-base]]++;
+            }
+            j--;
         }
+        for(int i = j; i <= hi; i++) marks[i-base] = 0;
+        return j;
+    }
 
-        flags <<= 1;
-        flags |= 0b1;
-        out.putShort((short)0x0000); //end condition: offset 0
-        remainingflags--;
-        while (remainingflags > 0)
+    /**
+     * @brief Escriure el camí de l'anàlisi òptima
+     * \pre base <= to, lengths i offsets contenen el token que acaba a cada posició de (base, to] del camí més barat fins a ella (relativa a base), marks és tot zeros
+     * \post S'han escrit a out els tokens del camí més barat de base a to. marks continua sent tot zeros
+     * \param input Dades a comprimir
+     * \param lengths Llargada del token que acaba a cada posició (1 per a literals)
+     * \param offsets Offset de la coincidència que acaba a cada posició
+     * \param marks Espai de treball on es guarda la llargada del token que comença a cada posició
+     * \param base Posició inicial del camí
+     * \param to Posició final del camí
+     * \param out Escriptor de tokens
+     */
+    private static void emitPath(final byte[] input, byte[] lengths, short[] offsets, byte[] marks, int base, int to, TokenWriter out)
+    {
+        for(int j = to-base; j > 0; j -= lengths[j]) marks[j-lengths[j]] = lengths[j];
+        for(int j = 0; j < to-base; )
         {
-            flags <<= 1;
-            remainingflags--;
+            int l = marks[j];
+            marks[j] = 0;
+            if(l >= 3) out.match(offsets[j+l], l);
+            else out.literal(input[base+j]);
+            j += l;
         }
-        out.put(flags, flagsposition);
-
-        return out.getArray();
     }
 
     /**
      * @brief Descomprimir un arxiu, implementació específica
      * \pre true
-     * \post S'ha descomprimit l'array de bytes d'entrada amb l'algorisme LZSS. Retorna l'array de bytes que representa el fitxer descomprimit
-     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \post S'ha descomprimit l'array de bytes d'entrada amb l'algorisme LZSS directament sobre un array de la mida original. Retorna l'array de bytes que representa el fitxer descomprimit
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides (truncades o amb referències fora de límits) es llança excepció
      * \param input Dades a descomprimir
      * \param originalsize Mida de l'arxiu original sense comprimir
      */
     protected byte[] specificDecompress(final byte[] input, int originalsize) throws ByteArray.ByteArrayException
     {
-        ByteArray in = new ByteArray(input);
-        ByteArray out = new ByteArray(new byte[originalsize]);
+        byte[] out = new byte[originalsize];
+        decompressBlock(input, 0, input.length, out, 0, originalsize, 0);
+        return out;
+    }
 
-        int remainingflags = 8;
-        byte flags = in.get();
+    /**
+     * @brief Descomprimir un bloc
+     * \pre 0 <= ip <= iend <= mida de input, 0 <= lowest <= op <= oend <= mida de out, els bytes de [lowest, op) de out ja estan descomprimits
+     * \post S'ha descomprimit el bloc LZSS que hi ha a [ip, iend) de l'entrada a partir de la posició op de out, amb referències com a molt fins a lowest. Retorna la posició de out següent a l'últim byte descomprimit
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides (truncades o amb referències fora de límits) es llança excepció
+     * \param input Dades comprimides
+     * \param ip Inici del bloc comprimit
+     * \param iend Final del bloc comprimit
+     * \param out Dades descomprimides
+     * \param op Posició on es comença a descomprimir
+     * \param oend Límit de la descompressió
+     * \param lowest Primera posició de out que es pot referenciar
+     */
+    static int decompressBlock(final byte[] input, int ip, int iend, byte[] out, int op, int oend, int lowest) throws ByteArray.ByteArrayException
+    {
+        Decoder d = new Decoder(input, ip, iend, out, op, oend, lowest);
+        while(!d.group());
+        return d.op;
+    }
 
-        while (true)
+    /**
+     * @brief Descomprimir un arxiu des d'un canal, implementació específica
+     * \pre input conté inputsize bytes
+     * \post S'ha descomprimit l'entrada per grups de tokens sobre un buffer de STREAMCHUNK bytes més la finestra, que s'escriu al canal de sortida cada cop que s'omple
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides (truncades o amb referències fora de límits) es llança excepció
+     * \exception IOException : Si hi ha algun error en llegir o escriure els canals es llança excepció
+     * \param input Canal amb les dades a descomprimir
+     * \param inputsize Número de bytes comprimits
+     * \param output Canal on s'escriuen les dades descomprimides
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+    @Override
+    protected void specificDecompress(ReadableByteChannel input, int inputsize, WritableByteChannel output, int originalsize) throws ByteArray.ByteArrayException, IOException
+    {
+        byte[] in = new byte[Math.min(STREAMCHUNK, Math.max(inputsize, GROUPINPUT))];
+        byte[] out = new byte[MAXWINDOWSIZE + Math.min(STREAMCHUNK, originalsize) + GROUPOUTPUT];
+        Decoder d = new Decoder(in, 0, readFully(input, in, 0, in.length), out, 0, out.length, 0);
+        boolean eof = d.iend < in.length;
+        int flushed = 0; //first byte of out not yet written
+        long written = 0;
+        while(true)
         {
-            if ((flags >> 7) == 0) //is byte
+            if(!eof && d.iend-d.ip < GROUPINPUT)
             {
-                out.put(in.get());
+                int rest = d.iend-d.ip;
+                System.arraycopy(in, d.ip, in, 0, rest);
+                d.ip = 0;
+                d.iend = rest + readFully(input, in, rest, in.length-rest);
+                eof = d.iend < in.length;
             }
-            else //is repetition pair info
+            if(d.oend-d.op < GROUPOUTPUT)
             {
-                short offsetlength = in.getShort();
-                int offset = (offsetlength >> 4) & 0xFFF;
-                int length = (offsetlength & 0x000F) + 3; //compress length is length-3
-
-                if (offset == 0) break; //finish cond: offsetlength statement with offset 0
-
-                ByteArray.transfer(out, out.position()-offset, out, -1, length);
-            }
-
-            flags <<= 1;
-            remainingflags--;
-            if (remainingflags == 0) {
-                flags = in.get();
-                remainingflags = 8;
+                written += d.op-flushed;
+                if(written > originalsize) throw new ByteArray.ByteArrayException("LZSS: output overflow");
+                writeFully(output, out, flushed, d.op-flushed);
+                System.arraycopy(out, d.op-MAXWINDOWSIZE, out, 0, MAXWINDOWSIZE);
+                d.op = MAXWINDOWSIZE;
+                flushed = MAXWINDOWSIZE;
             }
+            if(d.group()) break;
         }
-
-        return out.getArray();
+        if(written + d.op-flushed > originalsize) throw new ByteArray.ByteArrayException("LZSS: output overflow");
+        writeFully(output, out, flushed, d.op-flushed);
     }
 
     /**
-     * @brief Trabar la coincidència màxima en la finestra de cerca
-     * \pre maxlen >= 0, el punter intern de ba esta en una posició vàlida i les posicions guardades en sw són vàlides per al ByteArray donat (ba)
-     * \post S'ha realitzat la cerca. Retorna un array de ints de mida 2: El primer valor indica la posició on comença la coincidècia i el segon valor la llargada d'aquesta.
-     * \exception ByteArrayException : Si en el procés hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
-     * \param ba ByteArray sobre el que es fa la cerca
-     * \param sw WindowPositionsHolder que conte les posicions d'incici del ByteArray passat com a primer paràmetre
-     * \param maxlen Llargada màxima de la coincidència que volem trobar
+     * @class Decoder
+     * @brief Descodificador de tokens LZSS
+     * Guarda les posicions de lectura i escriptura d'una descompressió, de manera que es pot descomprimir grup a grup (un byte de flags i els seus 8 tokens) i buidar o reomplir els buffers entre grups.
      */
-    private static int[] searchCoincidence(ByteArray ba, WindowPositionsHolder sw, int maxlen) throws ByteArray.ByteArrayException
+    private static class Decoder
     {
-        int[] res = new int[2];
-        int fixposition = ba.position();
-        int max = Math.min(maxlen, ba.remaining());
+        /** @brief Dades comprimides */
+        final byte[] input;
+        /** @brief Posició de lectura */
+        int ip;
+        /** @brief Final de les dades comprimides disponibles */
+        int iend;
+        /** @brief Dades descomprimides */
+        final byte[] out;
+        /** @brief Posició d'escriptura */
+        int op;
+        /** @brief Límit de la descompressió */
+        final int oend;
+        /** @brief Primera posició de out que es pot referenciar */
+        final int lowest;
 
-        Iterator<Integer> it = sw.iterator(ba.get());
-        while(it.hasNext())
+        /**
+         * @brief Constructora
+         * \pre 0 <= ip <= iend <= mida de input, 0 <= lowest <= op <= oend <= mida de out
+         * \post S'ha creat un descodificador amb les posicions donades
+         */
+        Decoder(byte[] input, int ip, int iend, byte[] out, int op, int oend, int lowest)
         {
-            int p = it.next();
-            if(fixposition-p <= res[1]) break;
-            ba.position(fixposition+1);
-            int j = p+1;
-            int tmplen = 1;
-            while(tmplen < max && j < fixposition && ba.get(j) == ba.get())
+            this.input = input;
+            this.ip = ip;
+            this.iend = iend;
+            this.out = out;
+            this.op = op;
+            this.oend = oend;
+            this.lowest = lowest;
+        }
+
+        /**
+         * @brief Descomprimir un grup de tokens
+         * \pre Els bytes de [lowest, op) de out ja estan descomprimits
+         * \post S'ha descomprimit el següent byte de flags i els seus tokens, o fins a la marca de final. Retorna cert si s'ha trobat la marca de final
+         * \exception ByteArrayException : Si les dades d'entrada no són vàlides (truncades o amb referències fora de límits) es llança excepció
+         */
+        boolean group() throws ByteArray.ByteArrayException
+        {
+            final byte[] input = this.input, out = this.out;
+            int ip = this.ip, op = this.op;
+            try
             {
-                j++;
-                tmplen++;
+                if(ip >= iend) throw new ByteArray.ByteArrayException("LZSS: truncated input");
+                int flags = input[ip++] & 0xFF;
+
+                if(iend-ip >= GROUPINPUT-1 && oend-op >= GROUPOUTPUT) //the whole group fits in both buffers: only offsets need checking
+                {
+                    if(flags == 0) //whole group of literals
+                    {
+                        System.arraycopy(input, ip, out, op, 8);
+                        ip += 8;
+                        op += 8;
+                        return false;
+                    }
+                    for(int mask = 0x80; mask != 0; mask >>>= 1)
+                    {
+                        if((flags & mask) == 0)
+                        {
+                            out[op++] = input[ip++];
+                        }
+                        else
+                        {
+                            int offsetlength = ByteArray.shortAt(input, ip) & 0xFFFF;
+                            ip += 2;
+                            int offset = offsetlength >>> 4;
+                            if(offset == 0) return true;
+                            if(offset > op-lowest) throw new ByteArray.ByteArrayException("LZSS: match out of bounds");
+                            int length = (offsetlength & 0x000F) + 3;
+                            ByteArray.copyMatch(out, op-offset, op, length);
+                            op += length;
+                        }
+                    }
+                    return false;
+                }
+
+                for(int mask = 0x80; mask != 0; mask >>>= 1) //near the end of a buffer: every token is checked
+                {
+                    if((flags & mask) == 0) //is byte
+                    {
+                        if(ip >= iend || op >= oend) throw new ByteArray.ByteArrayException("LZSS: literal out of bounds");
+                        out[op++] = input[ip++];
+                    }
+                    else //is repetition pair info
+                    {
+                        if(ip+2 > iend) throw new ByteArray.ByteArrayException("LZSS: truncated input");
+                        int offsetlength = ByteArray.shortAt(input, ip) & 0xFFFF;
+                        ip += 2;
+                        int offset = offsetlength >>> 4;
+                        int length = (offsetlength & 0x000F) + 3; //compress length is length-3
+
+                        if(offset == 0) return true; //finish cond: offsetlength statement with offset 0
+
+                        if(offset > op-lowest || length > oend-op) throw new ByteArray.ByteArrayException("LZSS: match out of bounds");
+                        ByteArray.copyMatch(out, op-offset, op, length);
+                        op += length;
+                    }
+                }
+                return false;
             }
-            if(tmplen > res[1])
+            finally
             {
-                res[0] = p;
-                res[1] = tmplen;
-                if(res[1] == maxlen) break;
+                this.ip = ip;
+                this.op = op;
             }
         }
-        ba.position(fixposition);
+    }
 
-        return res;
+    /**
+     * @class Workspace
+     * @brief Context de compressió LZSS
+     * Conserva el cercador de coincidències, que es buida entre compressions i només es torna a crear si canvia la profunditat de cerca.
+     */
+    private static class Workspace extends Context
+    {
+        /** @brief Cercador de coincidències, o null si encara no se n'ha creat cap */
+        private HashChain hc;
+
+        /**
+         * @brief Obtenir el cercador de coincidències
+         * \pre chain >= 0
+         * \post Retorna un cercador buit de la finestra LZSS amb profunditat chain, reutilitzant l'anterior si tenia la mateixa profunditat
+         */
+        HashChain matcher(int chain)
+        {
+            if(hc == null || hc.maxChain() != chain) hc = new HashChain(MAXWINDOWSIZE, chain, false);
+            else hc.reset();
+            return hc;
+        }
     }
 
     /**
-     * @class WindowPositionsHolder
-     * @brief Estructura de dades per emmagatzemar posicions
-     * És una estructura de dades destinada a guardar posicions de caràcters dins la finestra de cerca eficientment. Proporciona mètodes per l'adicció, la eliminació i l'iteració sobre caràcters.
+     * @class TokenWriter
+     * @brief Escriptor de tokens LZSS
+     * Escriu literals i parells (offset, llargada) de 16 bits agrupats de 8 en 8 darrere d'un byte de flags (bit 1: parell, bit 0: literal), començant pel bit més significatiu.
      */
-    private static class WindowPositionsHolder
+    private static class TokenWriter
     {
-        /** Contenidor base per a emmagatzemar la informació de manera eficient */
-        private List<Queue<Integer>> queue = new ArrayList<>();
+        /** @brief Dades de sortida */
+        private final ByteArray out;
+        /** @brief Flags del grup actual */
+        private byte flags = 0x00;
+        /** @brief Número de flags que queden per omplir al grup actual */
+        private int remainingflags = 8;
+        /** @brief Posició del byte de flags del grup actual */
+        private int flagsposition = 0;
 
         /**
-         * @brief Constructora
+         * @brief Constructora sobre una sortida
          * \pre true
-         * \post S'ha creat una intància de WindowPositionsHolder i s'ha inicialitzat
+         * \post S'ha creat un escriptor que escriu a continuació de la posició del punter intern de out, amb el primer byte de flags reservat
+         * \param out Dades de sortida
          */
-        WindowPositionsHolder()
+        TokenWriter(ByteArray out)
         {
-            for(int i = 0; i < 256; i++)
+            this.out = out;
+            flagsposition = out.position();
+            out.put((byte)0x00);
+        }
+
+        /**
+         * @brief Començar un token
+         * \pre true
+         * \post Si el grup de flags actual és ple, s'ha escrit i s'ha reservat el byte de flags d'un grup nou
+         */
+        private void next()
+        {
+            if(remainingflags == 0)
             {
-                queue.add(new LinkedList<>());
+                out.setAt(flagsposition, flags);
+                flagsposition = out.position();
+                flags = 0x00;
+                out.put((byte)0x00);
+                remainingflags = 8;
             }
         }
 
         /**
-         * @brief Afegir posició de caràcter
+         * @brief Escriure un literal
          * \pre true
-         * \post S'ha afegit la posició donada per al caràcter donat
-         * \param b Caràcter (byte) el qual volem guardar una posició
-         * \param pos Posició que volem guardar
+         * \post S'ha escrit el byte b com a literal
+         * \param b Byte literal
          */
-        void add(byte b, int pos)
+        void literal(byte b)
         {
-            int index = ((int)b) & 0xFF;
-            queue.get(index).add(pos);
+            next();
+            out.put(b);
+            flags <<= 1;
+            remainingflags--;
         }
 
         /**
-         * @brief Eliminar última posició de caràcter
-         * \pre Hi ha almenys una posicó emmagatzemada per al caràcter donat
-         * \post S'ha eliminat la primera posició que s'ha afegit per al caràcter donat
-         * \param b Caràcter (byte) el qual volem eliminar la primera posició guardada
+         * @brief Escriure una coincidència
+         * \pre 0 <= offset <= 4095, 3 <= length <= 18
+         * \post S'ha escrit el parell (offset, llargada) codificat en 16 bits: 12 bits d'offset + 4 bits de llargada-3
+         * \param offset Distància de la coincidència
+         * \param length Llargada de la coincidència
+         */
+        void match(int offset, int length)
+        {
+            next();
+            out.putShort((short)((offset << 4) | ((length-3) & 0x000F))); //encode codepair
+            flags <<= 1;
+            flags |= 0b1;
+            remainingflags--;
+        }
+
+        /**
+         * @brief Buidar les dades completes
+         * \pre true
+         * \post S'han escrit al canal tots els grups de tokens complets i s'han descartat de l'escriptor; només hi queda el grup actual
+         * \exception IOException : Si hi ha algun error en escriure el canal es llança excepció
+         * \param channel Canal de sortida
          */
-        void delete(byte b)
+        void drain(WritableByteChannel channel) throws IOException
         {
-            int index = ((int)b) & 0xFF;
-            queue.get(index).remove();
+            writeFully(channel, out.asByteBuffer().limit(flagsposition));
+            out.discard(flagsposition);
+            flagsposition = 0;
         }
 
         /**
-         * @brief Obtenir iterador per a les posicions de caràcter
+         * @brief Escriure la marca de final
          * \pre true
-         * \post Retorna un iterador a través de totes les posicions guardades del caràcter donat
-         * \param b Caràcter (byte) el qual volem obtenir l'iterador de les posicions
+         * \post S'ha escrit la marca de final (parell amb offset 0) i l'últim byte de flags
          */
-        Iterator<Integer> iterator(byte b)
+        void end()
         {
-            int index = ((int)b) & 0xFF;
-            return queue.get(index).iterator();
+            match(0, 3); //end condition: offset 0
+            flags <<= remainingflags;
+            out.setAt(flagsposition, flags);
         }
     }
 }
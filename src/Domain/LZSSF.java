@@ -0,0 +1,255 @@
+/**
+ * @file LZSSF.java
+ */
+
+package Domain;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @class LZSSF
+ * @brief Implementació específica de l'algorisme de compressió LZSS per blocs
+ * És la classe que implementa els mètodes específics de compressió i descompressió heredats de Algorithm per a una variant de LZSS que divideix l'entrada en blocs de mida fixa i els comprimeix en paral·lel.
+ * El fitxer comprimit comença amb una capçalera: un byte de flags (bit 0: els blocs comencen amb la finestra plena amb el final del bloc anterior), la mida dels blocs (int), el número de blocs (int) i la taula de blocs, amb la mida comprimida de cada bloc (int). A continuació hi ha els blocs comprimits, cadascun en el mateix format que un fitxer LZSS.
+ * Si els blocs són independents també es descomprimeixen en paral·lel; si comencen amb la finestra del bloc anterior, la descompressió és seqüencial.
+ */
+
+class LZSSF extends LZSS
+{
+    /** @brief Mida dels blocs per defecte */
+    private static final int DEFAULTBLOCKSIZE = 1 << 20;
+    /** @brief Flag de capçalera: blocs amb la finestra inicial plena */
+    private static final int PRIMED = 0x01;
+
+    /** @brief Mida dels blocs */
+    private int blockSize;
+    /** @brief Indica si cada bloc comença amb la finestra plena amb el final del bloc anterior */
+    private boolean primed;
+
+    /**
+     * @brief Constructora
+     * \pre true
+     * \post S'ha creat una instància de l'algorisme LZSS per blocs, amb el nom "LZSSF", blocs d'1 MB independents i profunditat de cerca DEFAULTMAXCHAIN
+     */
+    LZSSF()
+    {
+        this(DEFAULTBLOCKSIZE, false);
+    }
+
+    /**
+     * @brief Constructora amb paràmetres
+     * \pre blockSize > 0
+     * \post S'ha creat una instància de l'algorisme LZSS per blocs, amb el nom "LZSSF", amb la mida de bloc donada i profunditat de cerca DEFAULTMAXCHAIN
+     * \param blockSize Mida dels blocs
+     * \param primed Si és cert, cada bloc pot referenciar el final del bloc anterior
+     */
+    LZSSF(int blockSize, boolean primed)
+    {
+        super("LZSSF", DEFAULTMAXCHAIN);
+        this.blockSize = blockSize;
+        this.primed = primed;
+    }
+
+    /**
+     * @brief Definir si els blocs comencen amb la finestra plena
+     * \pre true
+     * \post Les properes compressions permetran (o no) que cada bloc referenciï el final del bloc anterior. Millora la compressió però la descompressió passa a ser seqüencial
+     * \param primed Si és cert, cada bloc pot referenciar el final del bloc anterior
+     */
+    void setPrimed(boolean primed)
+    {
+        this.primed = primed;
+    }
+
+    /**
+     * @brief Comprimir un arxiu, implementació específica
+     * \pre true
+     * \post S'ha comprimit l'array de bytes d'entrada dividit en blocs, cadascun en una tasca del ForkJoinPool comú. Retorna l'array de bytes que representa el fitxer comprimit
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     */
+    @Override
+    protected byte[] specificCompress(final byte[] input) throws ByteArray.ByteArrayException
+    {
+        return pooledCompress(input, maxCompressedSize(input.length));
+    }
+
+    /**
+     * @brief Crear un context de compressió
+     * \pre true
+     * \post Retorna un context buit: cada bloc es comprimeix en una tasca pròpia amb el seu cercador de coincidències
+     */
+    @Override
+    Context newContext()
+    {
+        return new Context();
+    }
+
+    /**
+     * @brief Obtenir la mida màxima del resultat d'una compressió
+     * \pre inputsize >= 0
+     * \post Retorna la mida de la capçalera i la taula de blocs més la mida màxima de cada bloc LZSS
+     * \param inputsize Mida de les dades a comprimir
+     */
+    @Override
+    int maxCompressedSize(int inputsize)
+    {
+        long nblocks = ((long)inputsize + blockSize - 1) / blockSize;
+        long full = inputsize / blockSize;
+        long bound = 1 + 4 + 4 + 4*nblocks + full*blockBound(blockSize) + (nblocks > full ? blockBound(inputsize % blockSize) : 0);
+        return (int)Math.min(Integer.MAX_VALUE, bound);
+    }
+
+    /**
+     * @brief Comprimir un arxiu sobre un buffer donat, implementació específica
+     * \pre output és buit
+     * \post S'ha escrit a output la capçalera, la taula de blocs i els blocs comprimits en paral·lel. El context no s'utilitza
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     * \param out Buffer on s'escriuen les dades comprimides
+     * \param ctx Context de compressió
+     */
+    @Override
+    protected void specificCompress(final byte[] input, ByteArray out, Context ctx) throws ByteArray.ByteArrayException
+    {
+        final int bs = blockSize;
+        final boolean pr = primed;
+        int nblocks = (int)(((long)input.length + bs - 1) / bs);
+        byte[][] blocks = new byte[nblocks][];
+
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[nblocks];
+        for(int i = 0; i < nblocks; i++)
+        {
+            final int b = i;
+            tasks[i] = new RecursiveAction()
+            {
+                protected void compute()
+                {
+                    int start = b*bs;
+                    int end = (int)Math.min((long)start + bs, input.length);
+                    blocks[b] = compressBlock(input, pr ? 0 : start, start, end);
+                }
+            };
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        out.put((byte)(pr ? PRIMED : 0));
+        out.putInt(bs);
+        out.putInt(nblocks);
+        for(int i = 0; i < nblocks; i++) out.putInt(blocks[i].length);
+        for(int i = 0; i < nblocks; i++)
+        {
+            if(blocks[i].length > 0) ByteArray.transfer(new ByteArray(blocks[i]), 0, out, -1, blocks[i].length);
+        }
+    }
+
+    /**
+     * @brief Descomprimir un arxiu, implementació específica
+     * \pre true
+     * \post S'ha descomprimit l'array de bytes d'entrada. Els blocs independents es descomprimeixen en paral·lel sobre el mateix array de sortida. Retorna l'array de bytes que representa el fitxer descomprimit
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+     * \param input Dades a descomprimir
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+    @Override
+    protected byte[] specificDecompress(final byte[] input, int originalsize) throws ByteArray.ByteArrayException
+    {
+        if(input.length < 9) throw new ByteArray.ByteArrayException("LZSSF: truncated frame header");
+        ByteArray in = new ByteArray(input);
+        final boolean pr = (in.at(0) & PRIMED) != 0;
+        final int bs = in.intAt(1);
+        int nblocks = in.intAt(5);
+        if(bs <= 0 || nblocks != (int)(((long)originalsize + bs - 1) / bs)) throw new ByteArray.ByteArrayException("LZSSF: bad frame header");
+        if(input.length-9 < 4L*nblocks) throw new ByteArray.ByteArrayException("LZSSF: truncated frame table");
+
+        final int[] offsets = new int[nblocks+1];
+        offsets[0] = 9 + 4*nblocks;
+        for(int i = 0; i < nblocks; i++)
+        {
+            int size = in.intAt(9 + 4*i);
+            if(size < 0 || (long)offsets[i] + size > input.length) throw new ByteArray.ByteArrayException("LZSSF: bad frame table");
+            offsets[i+1] = offsets[i] + size;
+        }
+
+        final byte[] out = new byte[originalsize];
+        if(pr)
+        {
+            for(int i = 0; i < nblocks; i++) decompressFrame(input, offsets, out, i, bs, 0);
+        }
+        else
+        {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[nblocks];
+            for(int i = 0; i < nblocks; i++)
+            {
+                final int b = i;
+                tasks[i] = new RecursiveAction()
+                {
+                    protected void compute()
+                    {
+                        try
+                        {
+                            decompressFrame(input, offsets, out, b, bs, b*bs);
+                        }
+                        catch(ByteArray.ByteArrayException e)
+                        {
+                            throw new RuntimeException(e.getMessage(), e);
+                        }
+                    }
+                };
+            }
+            ForkJoinTask.invokeAll(tasks);
+        }
+        return out;
+    }
+
+    /**
+     * @brief Comprimir un arxiu des d'un canal, implementació específica
+     * \pre input conté inputsize bytes
+     * \post S'ha comprimit tota l'entrada en memòria amb specificCompress(byte[]), ja que els blocs es comprimeixen en paral·lel i la taula de blocs va al principi, i s'ha escrit el resultat al canal de sortida
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \exception IOException : Si hi ha algun error en llegir o escriure els canals es llança excepció
+     * \param input Canal amb les dades a comprimir
+     * \param inputsize Número de bytes a comprimir
+     * \param output Canal on s'escriuen les dades comprimides
+     */
+    @Override
+    protected void specificCompress(ReadableByteChannel input, int inputsize, WritableByteChannel output) throws ByteArray.ByteArrayException, IOException
+    {
+        bufferedCompress(input, inputsize, output);
+    }
+
+    /**
+     * @brief Descomprimir un arxiu des d'un canal, implementació específica
+     * \pre input conté inputsize bytes
+     * \post S'ha descomprimit tota l'entrada en memòria amb specificDecompress(byte[], int) i s'ha escrit el resultat al canal de sortida
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+     * \exception IOException : Si hi ha algun error en llegir o escriure els canals es llança excepció
+     * \param input Canal amb les dades a descomprimir
+     * \param inputsize Número de bytes comprimits
+     * \param output Canal on s'escriuen les dades descomprimides
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+    @Override
+    protected void specificDecompress(ReadableByteChannel input, int inputsize, WritableByteChannel output, int originalsize) throws ByteArray.ByteArrayException, IOException
+    {
+        bufferedDecompress(input, inputsize, output, originalsize);
+    }
+
+    /**
+     * @brief Descomprimir un bloc
+     * \pre offsets conté les posicions d'inici dels blocs comprimits, els bytes de out anteriors a lowest no es poden referenciar
+     * \post S'ha descomprimit el bloc b a la seva posició de out
+     * \exception ByteArrayException : Si el bloc no és vàlid o no té la mida esperada es llança excepció
+     */
+    private static void decompressFrame(byte[] input, int[] offsets, byte[] out, int b, int bs, int lowest) throws ByteArray.ByteArrayException
+    {
+        int start = b*bs;
+        int end = (int)Math.min((long)start + bs, out.length);
+        int op = decompressBlock(input, offsets[b], offsets[b+1], out, start, end, lowest);
+        if(op != end) throw new ByteArray.ByteArrayException("LZSSF: block " + b + " has wrong size");
+    }
+}
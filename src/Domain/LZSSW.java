@@ -0,0 +1,258 @@
+/**
+ * @file LZSSW.java
+ */
+
+package Domain;
+
+/**
+ * @class LZSSW
+ * @brief Implementació específica de l'algorisme de compressió LZSS amb finestra ampla
+ * És la classe que implementa els mètodes específics de compressió i descompressió heredats de Algorithm per a una variant de LZSS amb una finestra de cerca d'1 MB i codis de longitud variable.
+ * El fitxer comprimit és una seqüència de blocs alineats a byte. Cada bloc comença amb un byte de control: els 4 bits alts són el número de literals i els 4 baixos la llargada de la coincidència menys MINMATCH. Si algun dels dos val 15, el valor continua en bytes addicionals (255 vol dir que en segueix un altre). Després del byte de control venen els literals, l'offset de la coincidència (1 a 3 bytes, 7 bits per byte, el bit alt indica que en segueix un altre) i els bytes addicionals de llargada de la coincidència. L'últim bloc només té literals.
+ */
+
+class LZSSW extends Algorithm
+{
+    /** @brief Mida màxima de la finestra de cerca */
+    private static final int MAXWINDOWSIZE = (1 << 20)-1;
+    /** @brief Llargada mínima d'una coincidència */
+    private static final int MINMATCH = 4;
+    /** @brief Llargada màxima que es busca per a una coincidència */
+    private static final int MAXLENGTH = 1 << 16;
+    /** @brief Profunditat de cerca per defecte */
+    private static final int DEFAULTMAXCHAIN = 64;
+
+    /** @brief Número màxim de posicions que visita el cercador de coincidències per byte */
+    private int maxChain;
+
+    /**
+     * @brief Constructora
+     * \pre true
+     * \post S'ha creat una instància de l'algorisme LZSS de finestra ampla, amb el nom "LZSSW"
+     */
+    LZSSW()
+    {
+        this(DEFAULTMAXCHAIN);
+    }
+
+    /**
+     * @brief Constructora amb profunditat de cerca
+     * \pre maxChain > 0
+     * \post S'ha creat una instància de l'algorisme LZSS de finestra ampla, amb el nom "LZSSW", que visita com a màxim maxChain posicions per cerca
+     * \param maxChain Número màxim de posicions a visitar per cerca
+     */
+    LZSSW(int maxChain)
+    {
+        super("LZSSW");
+        this.maxChain = maxChain;
+    }
+
+    /**
+     * @brief Comprimir un arxiu, implementació específica
+     * \pre true
+     * \post S'ha comprimit l'array de bytes d'entrada amb l'algorisme LZSS de finestra ampla. Retorna l'array de bytes que representa el fitxer comprimit
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     */
+    protected byte[] specificCompress(final byte[] input) throws ByteArray.ByteArrayException
+    {
+        return pooledCompress(input, maxCompressedSize(input.length));
+    }
+
+    /**
+     * @brief Crear un context de compressió
+     * \pre true
+     * \post Retorna un context que conserva el cercador de coincidències (uns 12 MB per la finestra d'1 MB) entre compressions
+     */
+    @Override
+    Context newContext()
+    {
+        return new Workspace();
+    }
+
+    /**
+     * @brief Obtenir la mida màxima del resultat d'una compressió
+     * \pre inputsize >= 0
+     * \post Retorna una cota de la mida de la sortida: una coincidència mai ocupa més que els bytes que substitueix, i cada tira de literals afegeix com a molt un byte de llargada per cada 15 literals, més el byte de control de l'últim bloc
+     * \param inputsize Mida de les dades a comprimir
+     */
+    @Override
+    int maxCompressedSize(int inputsize)
+    {
+        return (int)Math.min(Integer.MAX_VALUE, (long)inputsize + inputsize/15 + 2);
+    }
+
+    /**
+     * @brief Comprimir un arxiu sobre un buffer donat, implementació específica
+     * \pre output és buit, ctx s'ha obtingut amb newContext()
+     * \post S'ha escrit a output l'array de bytes d'entrada comprimit amb l'algorisme LZSS de finestra ampla, reutilitzant el cercador de coincidències del context
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     * \param out Buffer on s'escriuen les dades comprimides
+     * \param ctx Context de compressió
+     */
+    @Override
+    protected void specificCompress(final byte[] input, ByteArray out, Context ctx) throws ByteArray.ByteArrayException
+    {
+        if(input.length == 0) return;
+        HashChain hc = ((Workspace)ctx).matcher(maxChain);
+        int end = input.length;
+
+        int anchor = 0; //first literal not yet written
+        int pos = 0;
+        while(pos < end)
+        {
+            int length = hc.find(input, pos, MAXLENGTH, end);
+            if(length >= MINMATCH)
+            {
+                writeSequence(input, anchor, pos-anchor, Math.min(length-MINMATCH, 15), out);
+                writeVarint(out, pos-hc.matchPosition());
+                if(length-MINMATCH >= 15) writeLength(out, length-MINMATCH-15);
+                for(int i = 0; i < length; i++) hc.insert(input, pos++, end);
+                anchor = pos;
+            }
+            else
+            {
+                hc.insert(input, pos++, end);
+            }
+        }
+        if(anchor < end) writeSequence(input, anchor, end-anchor, 0, out);
+    }
+
+    /**
+     * @brief Escriure el byte de control i els literals d'un bloc
+     * \pre anchor+literals <= mida de in
+     * \post S'ha escrit a out el byte de control i els literals del bloc
+     * \param in Dades a comprimir
+     * \param anchor Posició del primer literal
+     * \param literals Número de literals
+     * \param matchcode Llargada de la coincidència menys MINMATCH (com a màxim 15), 0 si no n'hi ha
+     * \param out Dades de sortida
+     */
+    private static void writeSequence(byte[] in, int anchor, int literals, int matchcode, ByteArray out)
+    {
+        out.put((byte)(Math.min(literals, 15) << 4 | matchcode));
+        if(literals >= 15) writeLength(out, literals-15);
+        out.put(in, anchor, literals);
+    }
+
+    /**
+     * @brief Escriure l'excés d'una llargada
+     * \pre len >= 0
+     * \post S'ha escrit len com a seqüència de bytes 255 acabada en un byte menor que 255
+     */
+    private static void writeLength(ByteArray out, int len)
+    {
+        while(len >= 255)
+        {
+            out.put((byte)255);
+            len -= 255;
+        }
+        out.put((byte)len);
+    }
+
+    /**
+     * @brief Escriure un offset de longitud variable
+     * \pre 0 < val <= MAXWINDOWSIZE
+     * \post S'ha escrit val en grups de 7 bits, començant pels menys significatius. El bit alt de cada byte indica que en segueix un altre
+     */
+    private static void writeVarint(ByteArray out, int val)
+    {
+        while(val >= 0x80)
+        {
+            out.put((byte)(val | 0x80));
+            val >>>= 7;
+        }
+        out.put((byte)val);
+    }
+
+    /**
+     * @brief Descomprimir un arxiu, implementació específica
+     * \pre true
+     * \post S'ha descomprimit l'array de bytes d'entrada amb l'algorisme LZSS de finestra ampla. Retorna l'array de bytes que representa el fitxer descomprimit
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+     * \param input Dades a descomprimir
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+    protected byte[] specificDecompress(final byte[] input, int originalsize) throws ByteArray.ByteArrayException
+    {
+        byte[] out = new byte[originalsize];
+        int ip = 0, op = 0;
+        int iend = input.length;
+
+        while(op < originalsize)
+        {
+            if(ip >= iend) throw new ByteArray.ByteArrayException("LZSSW: truncated input");
+            int token = input[ip++] & 0xFF;
+
+            int literals = token >>> 4;
+            if(literals == 15)
+            {
+                int b;
+                do
+                {
+                    if(ip >= iend) throw new ByteArray.ByteArrayException("LZSSW: truncated input");
+                    b = input[ip++] & 0xFF;
+                    literals += b;
+                } while(b == 255);
+            }
+            if(literals > iend-ip || literals > originalsize-op) throw new ByteArray.ByteArrayException("LZSSW: literal run out of bounds");
+            System.arraycopy(input, ip, out, op, literals);
+            ip += literals;
+            op += literals;
+            if(op == originalsize) break;
+
+            int offset = 0;
+            int shift = 0;
+            int b;
+            do
+            {
+                if(ip >= iend || shift > 14) throw new ByteArray.ByteArrayException("LZSSW: bad offset");
+                b = input[ip++] & 0xFF;
+                offset |= (b & 0x7F) << shift;
+                shift += 7;
+            } while(b >= 0x80);
+
+            int length = token & 0x0F;
+            if(length == 15)
+            {
+                do
+                {
+                    if(ip >= iend) throw new ByteArray.ByteArrayException("LZSSW: truncated input");
+                    b = input[ip++] & 0xFF;
+                    length += b;
+                } while(b == 255);
+            }
+            length += MINMATCH;
+
+            if(offset == 0 || offset > op || length > originalsize-op) throw new ByteArray.ByteArrayException("LZSSW: match out of bounds");
+            ByteArray.copyMatch(out, op-offset, op, length);
+            op += length;
+        }
+
+        return out;
+    }
+
+    /**
+     * @class Workspace
+     * @brief Context de compressió LZSSW
+     * Conserva el cercador de coincidències, que es buida entre compressions i només es torna a crear si canvia la profunditat de cerca.
+     */
+    private static class Workspace extends Context
+    {
+        /** @brief Cercador de coincidències, o null si encara no se n'ha creat cap */
+        private HashChain hc;
+
+        /**
+         * @brief Obtenir el cercador de coincidències
+         * \pre chain > 0
+         * \post Retorna un cercador buit de la finestra LZSSW amb profunditat chain, reutilitzant l'anterior si tenia la mateixa profunditat
+         */
+        HashChain matcher(int chain)
+        {
+            if(hc == null || hc.maxChain() != chain) hc = new HashChain(MAXWINDOWSIZE, chain, true);
+            else hc.reset();
+            return hc;
+        }
+    }
+}
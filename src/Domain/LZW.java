@@ -2,15 +2,28 @@
  * @file LZW.java
  */
 package Domain;
-import java.util.HashMap;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * @class LZW
  * @brief Implementació específica de l'algorisme de compressió LZW
  * És la classe que implementa els mètodes específics de compressió i descompressió heredats de Algorithm per a l'algorisme LZW
+ * El codi Short.MAX_VALUE indica que el diccionari es buida. Amb la política ADAPTIVE el compressor l'emet quan la taxa de compressió empitjora, i quan el diccionari és ple el congela en lloc de buidar-lo; el format no canvia. Amb la política PRUNE el fitxer comença amb aquest codi, i quan el diccionari és ple el compressor i el descompressor reutilitzen el codi de la fulla usada fa més temps. La política per defecte és ADAPTIVE.
+ * La compressió i la descompressió entre canals fan servir el mateix codificador i descodificador que les de byte[], per trossos de STREAMCHUNK bytes. El compressor conserva MAXPHRASE bytes per davant de la posició actual, de manera que cap frase queda tallada i el resultat és idèntic.
  */
 class LZW extends Algorithm
 {
+    /** @brief Mida dels trossos de la compressió i descompressió entre canals */
+    private static final int STREAMCHUNK = 1 << 20;
+    /** @brief Llargada màxima d'una frase del diccionari */
+    private static final int MAXPHRASE = Short.MAX_VALUE+1;
+
+    /** @brief Política del diccionari */
+    private Trie.ResetPolicy policy = Trie.ResetPolicy.ADAPTIVE;
+
     /**
      * @brief Constructora
      * \pre true
@@ -21,6 +34,27 @@ class LZW extends Algorithm
         super("LZW");
     }
 
+    /**
+     * @brief Definir la política del diccionari
+     * \pre policy != null
+     * \post Les properes compressions faran servir la política donada quan el diccionari s'ompli
+     * \param policy Política del diccionari
+     */
+    void setResetPolicy(Trie.ResetPolicy policy)
+    {
+        this.policy = policy;
+    }
+
+    /**
+     * @brief Obtenir la política del diccionari
+     * \pre true
+     * \post Retorna la política del diccionari de les compressions
+     */
+    Trie.ResetPolicy getResetPolicy()
+    {
+        return policy;
+    }
+
     /**
      * @brief Comprimir un arxiu, implementació específica
      * \pre true
@@ -30,112 +64,337 @@ class LZW extends Algorithm
      */
     protected byte[] specificCompress(final byte[] input) throws ByteArray.ByteArrayException
     {
-        ByteArray output = new ByteArray();
-        ByteArray input1 = new ByteArray(input);
-        byte chSymbol;
-
-        Trie t = new Trie();
-        t.InitializeTriesASCII();
-        int s_u2Code = 256;
-        while(input1.remaining() > 0)
+        return pooledCompress(input, maxCompressedSize(input.length));
+    }
+
+    /**
+     * @brief Crear un context de compressió
+     * \pre true
+     * \post Retorna un codificador que conserva el diccionari entre compressions
+     */
+    @Override
+    Context newContext()
+    {
+        return new Encoder(policy);
+    }
+
+    /**
+     * @brief Obtenir la mida màxima del resultat d'una compressió
+     * \pre inputsize >= 0
+     * \post Retorna una cota de la mida de la sortida: cada codi de 2 bytes codifica almenys un byte, més les marques de buidat (com a molt una per cada 16 KB d'entrada, i la inicial de la política PRUNE)
+     * \param inputsize Mida de les dades a comprimir
+     */
+    @Override
+    int maxCompressedSize(int inputsize)
+    {
+        return (int)Math.min(Integer.MAX_VALUE, 2L*(inputsize + inputsize/16384 + 2));
+    }
+
+    /**
+     * @brief Comprimir un arxiu sobre un buffer donat, implementació específica
+     * \pre output és buit, ctx s'ha obtingut amb newContext()
+     * \post S'ha escrit a output l'array de bytes d'entrada comprimit amb l'algorisme LZW, buidant i reutilitzant el diccionari del context. El resultat és idèntic al de specificCompress(byte[])
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     * \param output Buffer on s'escriuen les dades comprimides
+     * \param ctx Context de compressió
+     */
+    @Override
+    protected void specificCompress(final byte[] input, ByteArray output, Context ctx) throws ByteArray.ByteArrayException
+    {
+        Encoder e = (Encoder)ctx;
+        e.reset(policy, output);
+        e.encode(input, 0, input.length, input.length);
+    }
+
+    /**
+     * @brief Comprimir un arxiu des d'un canal, implementació específica
+     * \pre input conté inputsize bytes
+     * \post S'ha comprimit l'entrada per trossos de STREAMCHUNK bytes i s'ha escrit al canal de sortida. El resultat és idèntic al de specificCompress(byte[])
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \exception IOException : Si hi ha algun error en llegir o escriure els canals es llança excepció
+     * \param input Canal amb les dades a comprimir
+     * \param inputsize Número de bytes a comprimir
+     * \param output Canal on s'escriuen les dades comprimides
+     */
+    @Override
+    protected void specificCompress(ReadableByteChannel input, int inputsize, WritableByteChannel output) throws ByteArray.ByteArrayException, IOException
+    {
+        ByteArray codes = ByteArray.pooled(Math.min(STREAMCHUNK, inputsize));
+        try
         {
-            int code = t.Search_Insert(t.GetRootNode(), input1, s_u2Code);
-            // Output the code for 'word'
-            output.putShort((short)code);
-            // Add new word into Trie, if Trie is not full
-            if (s_u2Code < Short.MAX_VALUE)
-            {
-                s_u2Code++;
-            }
-            else
+            Encoder e = (Encoder)localContext();
+            e.reset(policy, codes);
+            byte[] buffer = new byte[Math.min(STREAMCHUNK, inputsize) + MAXPHRASE];
+            int n = 0, pos = 0;
+            while(true)
             {
-                t = new Trie();
-                t.InitializeTriesASCII();
-                output.putShort(Short.MAX_VALUE);
-                s_u2Code = 256;
+                n += readFully(input, buffer, n, buffer.length-n);
+                boolean eof = n < buffer.length;
+                pos = e.encode(buffer, pos, eof ? n : n-MAXPHRASE, n);
+                writeFully(output, codes.asByteBuffer());
+                codes.clear();
+                if(eof) break;
+                System.arraycopy(buffer, pos, buffer, 0, n-pos);
+                n -= pos;
+                pos = 0;
             }
         }
-        return output.getArray();
+        finally
+        {
+            codes.release();
+        }
     }
 
     /**
      * @brief Descomprimir un arxiu, implementació específica
      * \pre true
-     * \post S'ha descomprimit l'array de bytes d'entrada amb l'algorisme LZW. Retorna l'array de bytes que representa el fitxer descomprimit
-     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \post S'ha descomprimit l'array de bytes d'entrada amb l'algorisme LZW directament sobre un array de la mida original, amb el diccionari en arrays primitius (PhraseTable). Retorna l'array de bytes que representa el fitxer descomprimit
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
      * \param input Dades a descomprimir
      * \param originalsize Mida de l'arxiu original sense comprimir
      */
     protected byte[] specificDecompress(final byte[] input, int originalsize) throws ByteArray.ByteArrayException
     {
-        HashMap <Integer, byte[]> table = new HashMap<Integer, byte[]>();
-        ByteArray output = new ByteArray(new byte[originalsize]);
-        if(input.length != 0)
+        byte[] output = new byte[originalsize];
+        Decoder d = new Decoder();
+        d.decode(input, input.length, output, 0);
+        if(d.ip < input.length) throw new ByteArray.ByteArrayException("LZW: truncated input");
+        return output;
+    }
+
+    /**
+     * @brief Descomprimir un arxiu des d'un canal, implementació específica
+     * \pre input conté inputsize bytes
+     * \post S'ha descomprimit l'entrada per trossos sobre un buffer de STREAMCHUNK bytes més MAXPHRASE, que s'escriu al canal de sortida cada cop que s'omple
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+     * \exception IOException : Si hi ha algun error en llegir o escriure els canals es llança excepció
+     * \param input Canal amb les dades a descomprimir
+     * \param inputsize Número de bytes comprimits
+     * \param output Canal on s'escriuen les dades descomprimides
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+    @Override
+    protected void specificDecompress(ReadableByteChannel input, int inputsize, WritableByteChannel output, int originalsize) throws ByteArray.ByteArrayException, IOException
+    {
+        byte[] in = new byte[Math.min(STREAMCHUNK, Math.max(inputsize, 2))];
+        byte[] out = new byte[Math.min(STREAMCHUNK, originalsize) + MAXPHRASE];
+        Decoder d = new Decoder();
+        int iend = 0;
+        boolean eof = false;
+        long written = 0;
+        while(true)
         {
-            for (int i = 0; i < 256; i++)
+            d.decode(in, iend, out, MAXPHRASE);
+            if(out.length-d.op < MAXPHRASE) //output full
             {
-                byte[] ch = new byte[1];
-                ch[0] = (byte) i;
-                table.put(i, ch);
+                written += d.op;
+                if(written > originalsize) throw new ByteArray.ByteArrayException("LZW: output overflow");
+                writeFully(output, out, 0, d.op);
+                d.op = 0;
+                continue;
             }
-            ByteArray index = new ByteArray(input);
-            int old = index.getShort();
-            int n = -1;
-            ByteArray s;
-            s = new ByteArray(table.get(old).clone());
-            byte c = s.get(0);
-            output.transfer(s,0,output,-1,s.size());
-            int count = 256;
-            while(index.remaining() != 0)
-            {
-                n = index.getShort();
-                //code N is not in the hashmap
+            if(eof) break;
+            int rest = iend-d.ip;
+            System.arraycopy(in, d.ip, in, 0, rest);
+            d.ip = 0;
+            iend = rest + readFully(input, in, rest, in.length-rest);
+            eof = iend < in.length;
+        }
+        if(d.ip < iend) throw new ByteArray.ByteArrayException("LZW: truncated input");
+        if(written + d.op > originalsize) throw new ByteArray.ByteArrayException("LZW: output overflow");
+        writeFully(output, out, 0, d.op);
+    }
+
+    /**
+     * @class Encoder
+     * @brief Codificador LZW
+     * Guarda l'estat d'una compressió (diccionari, política i codis emesos), de manera que l'entrada es pot codificar per trossos. També és el context de compressió de LZW: es pot buidar i reutilitzar per comprimir un altre arxiu sense tornar a crear el diccionari.
+     */
+    private static class Encoder extends Context
+    {
+        /** @brief Codis emesos */
+        ByteArray output;
+        /** @brief Diccionari */
+        private final Trie t = new Trie();
+        /** @brief Política del diccionari */
+        private Trie.ResetPolicy policy;
+        /** @brief Indica si la política és PRUNE */
+        private boolean prune;
+        /** @brief Monitor de la taxa de compressió (política ADAPTIVE), o null */
+        private RatioMonitor monitor;
+        /** @brief Fulles del diccionari per ordre d'ús (política PRUNE), o null */
+        private LeafLRU lru;
+        /** @brief Codi que s'assignarà a la següent paraula */
+        private int s_u2Code;
+
+        /**
+         * @brief Constructora
+         * \pre true
+         * \post S'ha creat un codificador amb el diccionari inicial i la política donada. Amb la política PRUNE ja s'ha emès la marca inicial
+         */
+        Encoder(Trie.ResetPolicy policy)
+        {
+            reset(policy, new ByteArray());
+        }
+
+        /**
+         * @brief Reiniciar el codificador
+         * \pre true
+         * \post El codificador torna a l'estat inicial amb la política donada i escriu els codis a continuació de la posició del punter intern de output. Es reutilitzen el diccionari i, si la política no canvia, el monitor o les fulles. Amb la política PRUNE ja s'ha emès la marca inicial
+         */
+        void reset(Trie.ResetPolicy policy, ByteArray output)
+        {
+            this.policy = policy;
+            this.output = output;
+            prune = policy == Trie.ResetPolicy.PRUNE;
+            if(policy != Trie.ResetPolicy.ADAPTIVE) monitor = null;
+            else if(monitor == null) monitor = new RatioMonitor();
+            else monitor.reset();
+            if(!prune) lru = null;
+            else if(lru == null) lru = new LeafLRU(Short.MAX_VALUE+1, 256);
+            else lru.reset();
+            t.InitializeTriesASCII();
+            s_u2Code = 256;
+            if(prune) output.putShort(Short.MAX_VALUE);
+        }
 
-                if(n != Short.MAX_VALUE)
+        /**
+         * @brief Codificar un tros
+         * \pre 0 <= pos <= limit <= end <= mida de input; si limit < end, end-limit >= MAXPHRASE
+         * \post S'han codificat les paraules de input que comencen abans de limit, sense llegir més enllà de end. Retorna la posició de la següent paraula
+         */
+        int encode(final byte[] input, int pos, int limit, int end)
+        {
+            while(pos < limit)
+            {
+                int start = pos;
+                boolean full = s_u2Code == Short.MAX_VALUE;
+                int code = t.Search_Insert(input, pos, end, s_u2Code, prune && full ? 0 : Short.MAX_VALUE);
+                pos = t.GetPosition();
+                // Output the code for 'word'
+                output.putShort((short)code);
+                if(prune && pos < end)
                 {
-                    if(!table.containsKey(n))
-                    {
-                        s = new ByteArray(table.get(old).clone());
-                        //S = S+C
-                        s.position(s.size());
-                        s.put(c);
-                    }
-                    else
+                    // Reuse the least recently used leaf if the Trie is full
+                    lru.used(code);
+                    int newcode = s_u2Code;
+                    if(full)
                     {
-                        s = new ByteArray(table.get(n).clone());
+                        newcode = lru.victim(code);
+                        t.RemoveChild(lru.parent(newcode), lru.symbol(newcode));
+                        t.AddChild(code, input[pos], newcode);
                     }
-                    //Put S to the result output byte[]
-                    output.transfer(s,0,output,-1,s.size());
-                    c = s.get(0);
-                    byte[] aux = new byte[table.get(old).length + 1];
-                    System.arraycopy(table.get(old),0,aux,0,table.get(old).length);
-                    aux[aux.length - 1] = c;
-                    // add OLD + C to the Hashmap
-                    table.put(count, aux);
-                    count++;
-                    old = n;
+                    lru.added(newcode, code, input[pos]);
                 }
-                else
+                // Add new word into Trie, if Trie is not full
+                if (s_u2Code < Short.MAX_VALUE)
                 {
-                    table = new HashMap<Integer, byte[]>();
-                    for (int i = 0; i < 256; i++)
-                    {
-                        byte[] ch = new byte[1];
-                        ch[0] = (byte) i;
-                        table.put(i, ch);
-                    }
-                    old = index.getShort();
-                    n = -1;
-                    s = new ByteArray(table.get(old).clone());
-                    c = s.get(0);
-                    output.transfer(s,0,output,-1,s.size());
-                    count = 256;
+                    s_u2Code++;
+                }
+                else if (policy == Trie.ResetPolicy.FULL)
+                {
+                    t.InitializeTriesASCII();
+                    output.putShort(Short.MAX_VALUE);
+                    s_u2Code = 256;
+                }
+                // Empty the Trie if the compression ratio gets worse
+                if (monitor != null && monitor.update(pos-start, 16) && pos < end)
+                {
+                    t.InitializeTriesASCII();
+                    output.putShort(Short.MAX_VALUE);
+                    s_u2Code = 256;
                 }
-
             }
+            return pos;
         }
-        return output.getArray();
     }
 
+    /**
+     * @class Decoder
+     * @brief Descodificador LZW
+     * Guarda l'estat d'una descompressió (diccionari, codi anterior i posicions de lectura i escriptura), de manera que l'entrada es pot descodificar per trossos i la sortida es pot buidar entre trossos.
+     */
+    private static class Decoder
+    {
+        /** @brief Diccionari */
+        private final PhraseTable table = new PhraseTable(Short.MAX_VALUE+1, true);
+        /** @brief Fulles del diccionari per ordre d'ús (política PRUNE), o null */
+        private LeafLRU lru = null;
+        /** @brief Indica si encara no s'ha llegit cap codi */
+        private boolean first = true;
+        /** @brief Codi anterior, -1 després de l'inici o d'un buidat */
+        private int old = -1;
+        /** @brief Primer byte de la frase del codi anterior */
+        private byte oldfirst;
+        /** @brief Posició de lectura */
+        int ip = 0;
+        /** @brief Posició d'escriptura */
+        int op = 0;
+
+        /**
+         * @brief Descodificar un tros
+         * \pre 0 <= ip <= iend <= mida de input, 0 <= op <= mida de output
+         * \post S'han descodificat els codis sencers de [ip, iend) mentre a output quedaven almenys room bytes lliures, i s'han avançat ip i op
+         * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+         */
+        void decode(final byte[] input, int iend, byte[] output, int room) throws ByteArray.ByteArrayException
+        {
+            while(iend-ip >= 2 && output.length-op >= room)
+            {
+                int n = ByteArray.shortAt(input, ip) & 0xFFFF;
+                ip += 2;
 
+                int start = op;
+                if(first && n == Short.MAX_VALUE) //leading marker: PRUNE policy
+                {
+                    lru = new LeafLRU(Short.MAX_VALUE+1, 256);
+                    first = false;
+                    continue;
+                }
+                first = false;
+                if(old < 0) //first code after start or reset
+                {
+                    if(n > 255) throw new ByteArray.ByteArrayException("LZW: bad first code");
+                    op = table.emit(n, output, op);
+                }
+                else if(n == Short.MAX_VALUE) //reset marker
+                {
+                    table.reset(256);
+                    old = -1;
+                    continue;
+                }
+                else if(lru != null)
+                {
+                    //the code of OLD + next byte is a new one, or the least recently used leaf if the table is full
+                    lru.used(old);
+                    int code = table.size() < Short.MAX_VALUE ? table.size() : lru.victim(old);
+                    if(n != code && n >= table.size()) throw new ByteArray.ByteArrayException("LZW: code out of range");
+                    if(n != code) op = table.emit(n, output, op);
+                    byte b = n == code ? oldfirst : output[start];
+                    if(code == table.size()) table.add(old, b);
+                    else table.define(code, old, b);
+                    if(n == code) op = table.emit(n, output, op);
+                    lru.added(code, old, b);
+                }
+                else if(n < table.size())
+                {
+                    //Put S to the result output and add OLD + first byte of S
+                    op = table.emit(n, output, op);
+                    table.add(old, output[start]);
+                }
+                else if(n == table.size() && table.add(old, oldfirst) >= 0)
+                {
+                    //code N is not in the table yet: S = OLD + first byte of OLD
+                    op = table.emit(n, output, op);
+                }
+                else
+                {
+                    throw new ByteArray.ByteArrayException("LZW: code out of range");
+                }
+                old = n;
+                oldfirst = output[start];
+            }
+        }
+    }
 }
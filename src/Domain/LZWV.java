@@ -0,0 +1,182 @@
+/**
+ * @file LZWV.java
+ */
+package Domain;
+
+/**
+ * @class LZWV
+ * @brief Implementació específica de l'algorisme de compressió LZW amb codis d'amplada variable
+ * És la classe que implementa els mètodes específics de compressió i descompressió heredats de Algorithm per a una variant de LZW on cada codi s'escriu amb el mínim número de bits (de 9 a 16) que permet representar tots els codis assignats fins al moment, com fa compress(1).
+ * Els codis 0-255 representen els bytes, el codi 256 (CLEAR) indica que el diccionari es buida, i els codis nous s'assignen a partir del 257. Quan el diccionari és ple (65536 codis) s'emet CLEAR i es torna a començar.
+ */
+class LZWV extends Algorithm
+{
+    /** @brief Codi que indica que el diccionari es buida */
+    static final int CLEAR = 256;
+    /** @brief Primer codi assignable */
+    static final int FIRSTCODE = 257;
+    /** @brief Número màxim de codis (16 bits) */
+    static final int MAXCODES = 1 << 16;
+    /** @brief Amplada mínima dels codis */
+    static final int MINWIDTH = 9;
+
+    /**
+     * @brief Constructora
+     * \pre true
+     * \post S'ha creat una instància de l'algorisme LZW d'amplada variable, amb el nom "LZWV"
+     */
+    LZWV()
+    {
+        super("LZWV");
+    }
+
+    /**
+     * @brief Amplada dels codis
+     * \pre next > 0
+     * \post Retorna el número de bits necessari per escriure qualsevol codi menor que next, com a mínim MINWIDTH
+     * \param next Número de codis assignats
+     */
+    static int width(int next)
+    {
+        return Math.max(MINWIDTH, 32-Integer.numberOfLeadingZeros(next-1));
+    }
+
+    /**
+     * @brief Comprimir un arxiu, implementació específica
+     * \pre true
+     * \post S'ha comprimit l'array de bytes d'entrada amb l'algorisme LZW d'amplada variable. Retorna l'array de bytes que representa el fitxer comprimit
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     */
+    protected byte[] specificCompress(final byte[] input) throws ByteArray.ByteArrayException
+    {
+        return pooledCompress(input, maxCompressedSize(input.length));
+    }
+
+    /**
+     * @brief Crear un context de compressió
+     * \pre true
+     * \post Retorna un context que conserva el diccionari entre compressions
+     */
+    @Override
+    Context newContext()
+    {
+        return new Workspace();
+    }
+
+    /**
+     * @brief Obtenir la mida màxima del resultat d'una compressió
+     * \pre inputsize >= 0
+     * \post Retorna una cota de la mida de la sortida: cada codi de com a molt 16 bits codifica almenys un byte, més un CLEAR per cada diccionari ple
+     * \param inputsize Mida de les dades a comprimir
+     */
+    @Override
+    int maxCompressedSize(int inputsize)
+    {
+        return (int)Math.min(Integer.MAX_VALUE, 2L*(inputsize + inputsize/(MAXCODES-FIRSTCODE) + 2));
+    }
+
+    /**
+     * @brief Comprimir un arxiu sobre un buffer donat, implementació específica
+     * \pre output és buit, ctx s'ha obtingut amb newContext()
+     * \post S'ha escrit a out l'array de bytes d'entrada comprimit amb l'algorisme LZW d'amplada variable, buidant i reutilitzant el diccionari del context
+     * \exception ByteArrayException : Si en el procés intern de compressió hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
+     * \param input Dades a comprimir
+     * \param out Buffer on s'escriuen les dades comprimides
+     * \param ctx Context de compressió
+     */
+    @Override
+    protected void specificCompress(final byte[] input, ByteArray out, Context ctx) throws ByteArray.ByteArrayException
+    {
+        BitWriter output = new BitWriter(out);
+
+        Trie t = ((Workspace)ctx).t;
+        t.InitializeTriesASCII();
+        int next = FIRSTCODE;
+        int pos = 0;
+        while(pos < input.length)
+        {
+            int code = t.Search_Insert(input, pos, next, MAXCODES);
+            pos = t.GetPosition();
+            output.write(code, width(next));
+            if(next < MAXCODES)
+            {
+                next++;
+            }
+            else
+            {
+                output.write(CLEAR, width(next));
+                t.InitializeTriesASCII();
+                next = FIRSTCODE;
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * @brief Descomprimir un arxiu, implementació específica
+     * \pre true
+     * \post S'ha descomprimit l'array de bytes d'entrada amb l'algorisme LZW d'amplada variable. Retorna l'array de bytes que representa el fitxer descomprimit
+     * \exception ByteArrayException : Si les dades d'entrada no són vàlides es llança excepció
+     * \param input Dades a descomprimir
+     * \param originalsize Mida de l'arxiu original sense comprimir
+     */
+    protected byte[] specificDecompress(final byte[] input, int originalsize) throws ByteArray.ByteArrayException
+    {
+        BitReader in = new BitReader(input);
+        byte[] out = new byte[originalsize];
+        PhraseTable table = new PhraseTable(MAXCODES, true);
+        table.reset(FIRSTCODE);
+
+        int op = 0;
+        int next = FIRSTCODE; //codes assigned by the compressor when the following code was written
+        int old = -1;
+        int oldstart = 0;
+        while(op < originalsize)
+        {
+            int code = in.read(width(next));
+            if(code == CLEAR)
+            {
+                next = FIRSTCODE;
+                table.reset(FIRSTCODE);
+                old = -1;
+                continue;
+            }
+            if(next < MAXCODES) next++;
+
+            int start = op;
+            if(old < 0)
+            {
+                if(code > 255) throw new ByteArray.ByteArrayException("LZWV: bad first code");
+                op = table.emit(code, out, op);
+            }
+            else if(code < table.size())
+            {
+                op = table.emit(code, out, op);
+                table.add(old, out[start]);
+            }
+            else if(code == table.size() && table.add(old, out[oldstart]) >= 0) //KwKwK: the code is the one being defined
+            {
+                op = table.emit(code, out, op);
+            }
+            else
+            {
+                throw new ByteArray.ByteArrayException("LZWV: code out of range");
+            }
+            old = code;
+            oldstart = start;
+        }
+        return out;
+    }
+
+    /**
+     * @class Workspace
+     * @brief Context de compressió LZWV
+     * Conserva el diccionari, que es torna a inicialitzar a cada compressió.
+     */
+    private static class Workspace extends Context
+    {
+        /** @brief Diccionari */
+        final Trie t = new Trie(MAXCODES);
+    }
+}
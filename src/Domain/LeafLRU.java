@@ -0,0 +1,163 @@
+/**
+ * @file LeafLRU.java
+ */
+package Domain;
+
+/**
+ * @class LeafLRU
+ * @brief Llista LRU de les fulles d'un diccionari LZ78/LZW
+ * Estructura de dades que manté, en ordre d'últim ús, els codis del diccionari que no tenen cap fill i per tant es poden eliminar sense afectar la resta de frases. El compressor i el descompressor hi fan exactament les mateixes operacions, de manera que quan el diccionari és ple els dos reutilitzen el mateix codi per a la frase nova.
+ * És una llista doblement encadenada sobre arrays primitius indexats pel codi.
+ */
+class LeafLRU
+{
+    /** @brief Valor que indica que no hi ha codi */
+    private static final int NONE = -1;
+
+    /** @brief Primer codi que es pot eliminar (els anteriors són els codis inicials del diccionari) */
+    private final int first;
+    /** @brief Codi anterior (usat abans) de la llista */
+    private final int[] prev;
+    /** @brief Codi següent (usat després) de la llista */
+    private final int[] next;
+    /** @brief Indica si el codi és a la llista */
+    private final boolean[] listed;
+    /** @brief Número de fills de cada codi */
+    private final int[] children;
+    /** @brief Codi pare de cada codi */
+    private final int[] parent;
+    /** @brief Últim byte de la frase de cada codi */
+    private final byte[] symbol;
+    /** @brief Codi usat fa més temps */
+    private int head;
+    /** @brief Codi usat més recentment */
+    private int tail;
+
+    /**
+     * @brief Constructora
+     * \pre 0 <= first < capacity
+     * \post S'ha creat una llista buida per a codis menors que capacity, on només els codis majors o iguals que first es poden eliminar
+     * \param capacity Número màxim de codis
+     * \param first Primer codi que es pot eliminar
+     */
+    LeafLRU(int capacity, int first)
+    {
+        this.first = first;
+        prev = new int[capacity];
+        next = new int[capacity];
+        listed = new boolean[capacity];
+        children = new int[capacity];
+        parent = new int[capacity];
+        symbol = new byte[capacity];
+        reset();
+    }
+
+    /**
+     * @brief Buidar la llista
+     * \pre true
+     * \post La llista no conté cap codi i cap codi té fills
+     */
+    void reset()
+    {
+        java.util.Arrays.fill(listed, false);
+        java.util.Arrays.fill(children, 0);
+        head = NONE;
+        tail = NONE;
+    }
+
+    /**
+     * @brief Treure un codi de la llista
+     * \pre El codi és a la llista
+     * \post El codi ja no és a la llista
+     */
+    private void unlink(int code)
+    {
+        int p = prev[code], n = next[code];
+        if(p == NONE) head = n; else next[p] = n;
+        if(n == NONE) tail = p; else prev[n] = p;
+        listed[code] = false;
+    }
+
+    /**
+     * @brief Afegir un codi al final de la llista
+     * \pre El codi no és a la llista
+     * \post El codi és el més recent de la llista
+     */
+    private void append(int code)
+    {
+        prev[code] = tail;
+        next[code] = NONE;
+        if(tail == NONE) head = code; else next[tail] = code;
+        tail = code;
+        listed[code] = true;
+    }
+
+    /**
+     * @brief Registrar l'ús d'un codi
+     * \pre true
+     * \post Si el codi és una fulla que es pot eliminar, passa a ser el més recent de la llista
+     * \param code Codi usat
+     */
+    void used(int code)
+    {
+        if(code >= first && listed[code])
+        {
+            unlink(code);
+            append(code);
+        }
+    }
+
+    /**
+     * @brief Registrar una frase nova
+     * \pre code no té fills
+     * \post S'ha registrat code com a fill de p amb últim byte b, i com la fulla més recent. Si p era a la llista, en surt perquè ja no és fulla
+     * \param code Codi de la frase nova
+     * \param p Codi de la frase prefix
+     * \param b Últim byte de la frase
+     */
+    void added(int code, int p, byte b)
+    {
+        if(p >= first && listed[p]) unlink(p);
+        if(p >= 0) children[p]++;
+        parent[code] = p;
+        symbol[code] = b;
+        children[code] = 0;
+        if(code >= first) append(code);
+    }
+
+    /**
+     * @brief Eliminar la fulla usada fa més temps
+     * \pre La llista conté algun codi diferent de exclude
+     * \post S'ha tret de la llista la fulla usada fa més temps diferent de exclude, i el seu pare ha perdut un fill (si es queda sense fills passa a ser la fulla més recent). Retorna el codi eliminat, que es pot reutilitzar
+     * \param exclude Codi que no es pot eliminar
+     */
+    int victim(int exclude)
+    {
+        int code = head;
+        if(code == exclude) code = next[code];
+        unlink(code);
+        int p = parent[code];
+        if(p >= 0 && --children[p] == 0 && p >= first) append(p);
+        return code;
+    }
+
+    /**
+     * @brief Obtenir el pare d'un codi
+     * \pre code ha estat registrat amb added
+     * \post Retorna el codi de la frase prefix
+     */
+    int parent(int code)
+    {
+        return parent[code];
+    }
+
+    /**
+     * @brief Obtenir l'últim byte d'un codi
+     * \pre code ha estat registrat amb added
+     * \post Retorna l'últim byte de la frase
+     */
+    byte symbol(int code)
+    {
+        return symbol[code];
+    }
+}
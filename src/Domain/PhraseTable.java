@@ -0,0 +1,142 @@
+/**
+ * @file PhraseTable.java
+ */
+package Domain;
+
+import java.util.Objects;
+
+/**
+ * @class PhraseTable
+ * @brief Diccionari de descompressió dels algorismes LZ78 i LZW
+ * Estructura de dades que guarda cada frase del diccionari com a [frase prefix] + [byte], amb tres arrays primitius indexats pel codi: codi del prefix, últim byte i llargada. Les frases s'escriuen directament a l'array de sortida recorrent els prefixos de l'últim byte al primer, de manera que no cal guardar ni copiar cap frase sencera.
+ */
+class PhraseTable
+{
+    /** @brief Codi de la frase prefix de cada codi */
+    private final int[] prefix;
+    /** @brief Últim byte de la frase de cada codi */
+    private final byte[] suffix;
+    /** @brief Llargada de la frase de cada codi */
+    private final int[] length;
+    /** @brief Número de codis definits */
+    private int size;
+
+    /**
+     * @brief Constructora
+     * \pre capacity > 256
+     * \post S'ha creat un diccionari buit amb capacitat per a "capacity" codis. Si bytes és cert, els codis 0-255 són les frases d'un sol byte; altrament el codi 0 és la frase buida
+     * \param capacity Número màxim de codis
+     * \param bytes Indica si els codis inicials són els 256 bytes (LZW) o la frase buida (LZ78)
+     */
+    PhraseTable(int capacity, boolean bytes)
+    {
+        prefix = new int[capacity];
+        suffix = new byte[capacity];
+        length = new int[capacity];
+        if(bytes)
+        {
+            for(int i = 0; i < 256; i++)
+            {
+                suffix[i] = (byte)i;
+                length[i] = 1;
+            }
+            size = 256;
+        }
+        else
+        {
+            size = 1;
+        }
+    }
+
+    /**
+     * @brief Buidar el diccionari
+     * \pre first és major que els codis inicials
+     * \post Es descarten totes les frases afegides; el següent codi que s'afegirà serà first
+     * \param first Primer codi a assignar
+     */
+    void reset(int first)
+    {
+        size = first;
+    }
+
+    /**
+     * @brief Obtenir el número de codis
+     * \pre true
+     * \post Retorna el codi que s'assignarà a la següent frase afegida
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * @brief Obtenir la capacitat
+     * \pre true
+     * \post Retorna el número màxim de codis
+     */
+    int capacity()
+    {
+        return prefix.length;
+    }
+
+    /**
+     * @brief Obtenir la llargada d'una frase
+     * \pre code < size()
+     * \post Retorna la llargada de la frase del codi donat
+     */
+    int length(int code)
+    {
+        return length[code];
+    }
+
+    /**
+     * @brief Afegir una frase
+     * \pre code < size()
+     * \post Si el diccionari no és ple, s'ha afegit la frase [frase de code] + [b] i es retorna el seu codi; altrament retorna -1
+     * \param code Codi de la frase prefix
+     * \param b Byte final
+     */
+    int add(int code, byte b)
+    {
+        if(size == prefix.length) return -1;
+        prefix[size] = code;
+        suffix[size] = b;
+        length[size] = length[code]+1;
+        return size++;
+    }
+
+    /**
+     * @brief Redefinir una frase
+     * \pre code < size(), prefixcode < size(), cap frase té code com a prefix
+     * \post El codi code passa a representar la frase [frase de prefixcode] + [b]
+     * \param code Codi a redefinir
+     * \param prefixcode Codi de la frase prefix
+     * \param b Byte final
+     */
+    void define(int code, int prefixcode, byte b)
+    {
+        prefix[code] = prefixcode;
+        suffix[code] = b;
+        length[code] = length[prefixcode]+1;
+    }
+
+    /**
+     * @brief Escriure una frase
+     * \pre code < size()
+     * \post S'ha escrit a out a partir de op la frase del codi donat. Retorna la posició següent a l'últim byte escrit. Si la frase no cap a out es llança IndexOutOfBoundsException
+     * \param code Codi de la frase
+     * \param out Array de sortida
+     * \param op Posició on escriure
+     */
+    int emit(int code, byte[] out, int op)
+    {
+        int len = length[code];
+        Objects.checkFromIndexSize(op, len, out.length);
+        for(int i = op+len-1; i >= op; i--)
+        {
+            out[i] = suffix[code];
+            code = prefix[code];
+        }
+        return op+len;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * @file RatioMonitor.java
+ */
+package Domain;
+
+/**
+ * @class RatioMonitor
+ * @brief Monitor de la taxa de compressió
+ * Estructura de dades que compta els bits d'entrada i de sortida d'un compressor de diccionari per finestres de mida fixa. Si la taxa de la darrera finestra empitjora clarament respecte de la millor taxa observada des de l'últim buidat del diccionari, o la finestra s'ha expandit, indica que cal buidar-lo (com fa compress(1) amb el codi CLEAR). El segon criteri evita quedar-se amb un diccionari ple de frases inútils (per exemple, després de dades aleatòries) que ja no millorarà.
+ */
+class RatioMonitor
+{
+    /** @brief Mida de la finestra per defecte, en bytes d'entrada */
+    static final int DEFAULTWINDOW = 1 << 15;
+    /** @brief Empitjorament relatiu per defecte a partir del qual cal buidar el diccionari */
+    static final double DEFAULTTOLERANCE = 0.10;
+    /** @brief Número de finestres que s'ignoren després de buidar el diccionari, mentre es torna a omplir */
+    private static final int WARMUP = 2;
+
+    /** @brief Mida de la finestra en bits d'entrada */
+    private final long window;
+    /** @brief Empitjorament relatiu tolerat */
+    private final double tolerance;
+    /** @brief Bits d'entrada de la finestra actual */
+    private long bitsIn;
+    /** @brief Bits de sortida de la finestra actual */
+    private long bitsOut;
+    /** @brief Millor taxa (bits de sortida / bits d'entrada) des de l'últim buidat */
+    private double best;
+    /** @brief Número de finestres completades des de l'últim buidat */
+    private int windows;
+
+    /**
+     * @brief Constructora per defecte
+     * \pre true
+     * \post S'ha creat un monitor amb finestres de DEFAULTWINDOW bytes i tolerància DEFAULTTOLERANCE
+     */
+    RatioMonitor()
+    {
+        this(DEFAULTWINDOW, DEFAULTTOLERANCE);
+    }
+
+    /**
+     * @brief Constructora
+     * \pre window > 0, tolerance >= 0
+     * \post S'ha creat un monitor amb la mida de finestra i la tolerància donades
+     * \param window Mida de la finestra en bytes d'entrada
+     * \param tolerance Empitjorament relatiu a partir del qual cal buidar el diccionari
+     */
+    RatioMonitor(int window, double tolerance)
+    {
+        this.window = 8L*window;
+        this.tolerance = tolerance;
+        reset();
+    }
+
+    /**
+     * @brief Reiniciar el monitor
+     * \pre true
+     * \post El monitor torna a començar com si el diccionari s'acabés de buidar
+     */
+    void reset()
+    {
+        bitsIn = 0;
+        bitsOut = 0;
+        best = Double.MAX_VALUE;
+        windows = 0;
+    }
+
+    /**
+     * @brief Comptar un codi emès
+     * \pre bytesIn >= 0, bitsOut >= 0
+     * \post S'han sumat les mides donades a la finestra actual. Retorna cert si s'acaba de completar una finestra amb una taxa pitjor que la millor observada més la tolerància, o que ocupa més a la sortida que a l'entrada; en aquest cas el monitor es reinicia
+     * \param bytesIn Bytes d'entrada que representa el codi
+     * \param bitsOut Bits que ocupa el codi a la sortida
+     */
+    boolean update(int bytesIn, int bitsOut)
+    {
+        this.bitsIn += 8L*bytesIn;
+        this.bitsOut += bitsOut;
+        if(this.bitsIn < window) return false;
+
+        double ratio = (double)this.bitsOut/this.bitsIn;
+        this.bitsIn = 0;
+        this.bitsOut = 0;
+        if(++windows > WARMUP && (ratio >= 1 || ratio > best*(1+tolerance)))
+        {
+            reset();
+            return true;
+        }
+        if(ratio < best) best = ratio;
+        return false;
+    }
+}
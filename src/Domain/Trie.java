@@ -3,207 +3,246 @@
  */
 package Domain;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * @class Trie
  * @brief Estructura de dades Trie
- * Estructura de dades que emmagatzema un arbre de cerca. Cada node de l'arbre representa una paraula. Permet fer cerca i inserció d'una paraula de manera eficient.
+ * Estructura de dades que emmagatzema un arbre de cerca. Cada node de l'arbre representa una paraula de forma [paraula que representa el node pare] + [byte del node] i s'identifica pel seu codi. Permet fer cerca i inserció d'una paraula de manera eficient.
+ * No hi ha cap objecte per node: els fills de l'arrel es guarden en un array dens de 256 posicions i la resta d'arestes (codi pare, byte) -> codi fill en una única taula de hash d'adreçament obert amb arrays primitius. És el diccionari compartit pels algorismes LZ78 i LZW.
  */
 public class Trie {
-	/**
-	 * @class Node
-	 * @brief Node d'estructura de dades Trie
-	 * Node del Trie que representa una paraula de forma [paraula que representa el node pare] + [byte del node]. També guarda informació dels seus fills.
-	 */
-        protected static class Node{
-        	/** @brief el caràcter(byte) que el node guarda */
-            private byte m_chSymbol;
-            /** @brief el codi de la paraula que serveix pels algorismes LZ78 i LZW */
-            private int m_u2Code;
-            /** @brief Array dels fills del node. S'utilitza ArrayList en lloc de HashMap perquè sabem que un node té com a màxim 256 fills, que és constant i per tant fer busca en ArrayList no és pitjor que HashMap. */
-            private ArrayList<Node> m_vpChildren = new ArrayList<Node>();
-
-            /**
-             * @brief La constructora per defecte
-             * \pre true
-             * \post S'ha creat una instància de Node
-             */
-            Node() {
-
-            }
-
-            /**
-             * @brief La constructora a partir d'un byte i un int
-             * \pre true
-             * \post S'ha creat una instància de Node amb caràcter = chSymbol i codi = u2Code.
-             * \param chSymbol byte que representa un caràcter
-             * \param u2Code int que representa el codi
-             */
-            Node(byte chSymbol, int u2Code)
-            {
-                m_chSymbol = chSymbol;
-                m_u2Code   = u2Code;
-            }
-            
-            /**
-             * @brief Modificar el caràcter del node
-             * \pre true
-             * \post S'ha canviat el caràcter del node per chSymbol
-             * \param chSymbol byte que representa un caràcter
-             */
-            public void SetSymbol(byte chSymbol)
-            {
-                m_chSymbol = chSymbol;
-            }
-            
-            /**
-             * @brief Modificar el codi del node
-             * \pre true
-             * \post S'ha modificat el codi del node per u2Code
-             * \param u2Code int que representa el codi
-             */
-            public void SetCode(int u2Code)
-            {
-                m_u2Code = u2Code;
-            }
-
-            // Public getter
-            /**
-             * @brief Obtenir el caràcter del node
-             * \pre true
-             * \post Retorna el caràcter del node
-             */
-            final byte GetSymbol()
-            {
-                return m_chSymbol;
-            }
-            
-            /**
-             * @brief Obtenir el codi del node
-             * \pre true
-             * \post Retorna el codi del node
-             */
-            final int GetCode()
-            {
-                return m_u2Code;
-            }
-            
-            /**
-             * @brief Obtenir els fills del node
-             * \pre true
-             * \post Retorna un ArrayList dels fills del node
-             */
-            final ArrayList<Node> GetChildren()
-            {
-                return m_vpChildren;
-            }
-
-
-            // Add a child node
-            /**
-             * @brief Afegir un node fill al node
-             * \pre true
-             * \post S'ha creat una nova instància del Node amb caràcter = chSymbol i codi = u2Code i és afegit al ArrayList dels fills del node i retorna aquest Node
-             * \param chSymbol byte que representa un caràcter
-             * \param u2Code int que representa el codi
-             */
-            Node AddChildNode(byte chSymbol, int u2Code)
-            {
-                Node pChild = new Node(chSymbol, u2Code);
-            	m_vpChildren.add(pChild);
-            	return pChild;
-            }
+        /**
+         * @brief Política del diccionari quan s'omple o la compressió empitjora
+         * FULL: es buida quan és ple. ADAPTIVE: quan és ple es congela, i es buida quan la taxa de compressió empitjora (RatioMonitor). PRUNE: quan és ple es reutilitza el codi de la fulla usada fa més temps (LeafLRU)
+         */
+        public enum ResetPolicy { FULL, ADAPTIVE, PRUNE }
 
-            //
+        /** @brief Valor de les posicions buides */
+        private static final int EMPTY = -1;
 
-            // Search for a child node
-            /**
-             * @brief Cerca d'un node fill
-             * \pre true
-             * \post Si el node té un fill amb caràcter = chSymbol, retorna aquest, si no retorna null
-             * \param chSymbol byte que representa un caràcter
-             */
-            Node SearchChildNode(byte chSymbol)
-            {
-                for(int i = 0; i < m_vpChildren.size(); i++)
-                {
-                    if(m_vpChildren.get(i).GetSymbol() == chSymbol) return m_vpChildren.get(i);
-                }
-                return null;
-            }
-        }
+        /** @brief Codi dels fills de l'arrel per a cada byte, EMPTY si no n'hi ha */
+        private final int[] m_vRoot = new int[256];
+        /** @brief Claus de la taula de hash: (codi pare << 8) | byte, EMPTY si la posició és buida */
+        private final long[] m_vKeys;
+        /** @brief Codi fill de cada clau de la taula de hash */
+        private final int[] m_vValues;
+        /** @brief Màscara per indexar la taula de hash */
+        private final int m_iMask;
+        /** @brief Número de bits de l'índex de la taula de hash */
+        private final int m_iBits;
+        /** @brief Posició següent al substring trobat en l'última cerca */
+        private int m_iPosition;
 
-        /** @brief Node arrel del Trie */
-        private Node m_pRoot;
-        
         /**
          * @brief La constructora per defecte
          * \pre true
-         * \post S'ha creat una instància del Trie amb arrel una nova instància de Node
+         * \post S'ha creat una instància del Trie buida amb capacitat per a Short.MAX_VALUE+1 codis
          */
         public Trie()
         {
-            m_pRoot = new Node();
+            this(Short.MAX_VALUE+1);
         }
 
-        // Get a Root Node of Trie data structure
         /**
-         * @brief Obtenir node arrel del Trie
-         * \pre true
-         * \post Retorna el node arrel del Trie
+         * @brief La constructora amb capacitat
+         * \pre u2MaxCodes > 0
+         * \post S'ha creat una instància del Trie buida amb capacitat per a u2MaxCodes codis. La taula de hash té almenys el doble de posicions que codis
+         * \param u2MaxCodes int que representa el número màxim de codis
          */
-        public final Node  GetRootNode(){
-            return m_pRoot;
+        public Trie(int u2MaxCodes)
+        {
+            int size = Integer.highestOneBit(Math.max(u2MaxCodes, 256)-1) << 2;
+            m_vKeys = new long[size];
+            m_vValues = new int[size];
+            m_iMask = size-1;
+            m_iBits = Integer.numberOfTrailingZeros(size);
+            Clear();
         }
 
+        /**
+         * @brief Buidar el Trie
+         * \pre true
+         * \post El Trie només conté el node arrel
+         */
+        public void Clear()
+        {
+            Arrays.fill(m_vRoot, EMPTY);
+            Arrays.fill(m_vKeys, EMPTY);
+        }
 
         //Initialize
         /**
          * @brief Inicialitzar el Trie
          * \pre true
-         * \post Inicialitza el Trie amb cada caràcter de l'extended ASCII en forma de byte i el seu codi corresponent, com fills del node arrel
+         * \post Buida el Trie i l'inicialitza amb cada caràcter de l'extended ASCII en forma de byte i el seu codi corresponent, com fills del node arrel
          */
         public void InitializeTriesASCII()
         {
-            m_pRoot = new Node();
+            Clear();
             for(int i = 0; i < 256; ++i)
             {
-                m_pRoot.AddChildNode((byte)i, i);
+                m_vRoot[i] = i;
             }
         }
-        //find the largest coincidence of pNode.GetSymbol and the inside Pointer of pszWord,
-        //and returns the code of the last nodes that has the same symbol as the inside pointer of pszWord.
-        //Useful to find the largest substring starting with a specific byte in LZW.
+
         /**
-         * @brief Cerca del codi d'un substring al Trie
+         * @brief Posició inicial d'una clau a la taula de hash
          * \pre true
-         * \post Busca el substring més llarg a partir de la posició del punter intern del ByteArray al Trie i retorna el seu codi. El substring és insertat al Trie.
-         * \exception ByteArrayException : Si en el procés intern de cerca hi ha algun error relacionat amb l'estructura ByteArray es llança excepció
-         * \param pNode Node que representa node de partida de cerca
-         * \param pszWord ByteArray que conté el substring a cercar
+         * \post Retorna la posició de la taula on comença la cerca lineal de la clau
+         */
+        private int Slot(long key)
+        {
+            return (int)((key * 0x9E3779B97F4A7C15L) >>> (64-m_iBits));
+        }
+
+        /**
+         * @brief Cerca d'un node fill
+         * \pre u2Parent és un codi del Trie, o -1 per a l'arrel
+         * \post Si el node u2Parent té un fill amb caràcter = chSymbol, retorna el seu codi, si no retorna -1
+         * \param u2Parent int que representa el codi del node pare
+         * \param chSymbol byte que representa un caràcter
+         */
+        public int SearchChild(int u2Parent, byte chSymbol)
+        {
+            if(u2Parent < 0) return m_vRoot[chSymbol & 0xFF];
+            long key = ((long)u2Parent << 8) | (chSymbol & 0xFF);
+            for(int i = Slot(key); ; i = (i+1) & m_iMask)
+            {
+                long k = m_vKeys[i];
+                if(k == key) return m_vValues[i];
+                if(k == EMPTY) return EMPTY;
+            }
+        }
+
+        /**
+         * @brief Afegir un node fill
+         * \pre u2Parent és un codi del Trie, o -1 per a l'arrel; el node no té cap fill amb caràcter = chSymbol; el Trie no és ple
+         * \post S'ha afegit al node u2Parent un fill amb caràcter = chSymbol i codi = u2Code
+         * \param u2Parent int que representa el codi del node pare
+         * \param chSymbol byte que representa un caràcter
+         * \param u2Code int que representa el codi del fill
+         */
+        public void AddChild(int u2Parent, byte chSymbol, int u2Code)
+        {
+            if(u2Parent < 0)
+            {
+                m_vRoot[chSymbol & 0xFF] = u2Code;
+                return;
+            }
+            long key = ((long)u2Parent << 8) | (chSymbol & 0xFF);
+            int i = Slot(key);
+            while(m_vKeys[i] != EMPTY) i = (i+1) & m_iMask;
+            m_vKeys[i] = key;
+            m_vValues[i] = u2Code;
+        }
+
+        /**
+         * @brief Eliminar un node fill
+         * \pre u2Parent és un codi del Trie, o -1 per a l'arrel; el node té un fill amb caràcter = chSymbol que no té fills
+         * \post S'ha eliminat el fill del node u2Parent amb caràcter = chSymbol. La taula de hash queda compactada (sense marques d'esborrat)
+         * \param u2Parent int que representa el codi del node pare
+         * \param chSymbol byte que representa un caràcter
+         */
+        public void RemoveChild(int u2Parent, byte chSymbol)
+        {
+            if(u2Parent < 0)
+            {
+                m_vRoot[chSymbol & 0xFF] = EMPTY;
+                return;
+            }
+            long key = ((long)u2Parent << 8) | (chSymbol & 0xFF);
+            int i = Slot(key);
+            while(m_vKeys[i] != key)
+            {
+                if(m_vKeys[i] == EMPTY) return;
+                i = (i+1) & m_iMask;
+            }
+            //backward shift: move up every following key whose probe sequence passes through the hole
+            for(int j = (i+1) & m_iMask; m_vKeys[j] != EMPTY; j = (j+1) & m_iMask)
+            {
+                int home = Slot(m_vKeys[j]);
+                if(((j-home) & m_iMask) >= ((j-i) & m_iMask))
+                {
+                    m_vKeys[i] = m_vKeys[j];
+                    m_vValues[i] = m_vValues[j];
+                    i = j;
+                }
+            }
+            m_vKeys[i] = EMPTY;
+        }
+
+        /**
+         * @brief Cerca i inserció iterativa d'un substring al Trie
+         * \pre 0 <= pos <= mida de pszWord
+         * \post Busca el substring més llarg de pszWord a partir de la posició pos al Trie i retorna el seu codi (0 si no hi ha cap substring, és a dir, el de l'arrel). Si el substring no arriba al final de pszWord i u2Code < u2MaxCode, s'insereix al Trie el substring més el byte següent amb el codi u2Code. La posició següent al substring trobat es pot obtenir amb GetPosition()
+         * \param pszWord Array de bytes que conté el substring a cercar
+         * \param pos Posició d'inici del substring
+         * \param u2Code int que representa el codi del substring després de ser insertat al Trie
+         * \param u2MaxCode int que representa el primer codi que ja no es pot assignar
+         */
+        public int Search_Insert(byte[] pszWord, int pos, int u2Code, int u2MaxCode)
+        {
+            return Search_Insert(pszWord, pos, pszWord.length, u2Code, u2MaxCode);
+        }
+
+        /**
+         * @brief Cerca i inserció iterativa d'un substring al Trie, amb final
+         * \pre 0 <= pos <= end <= mida de pszWord
+         * \post Com Search_Insert(pszWord, pos, u2Code, u2MaxCode), però considerant que pszWord s'acaba a la posició end
+         * \param pszWord Array de bytes que conté el substring a cercar
+         * \param pos Posició d'inici del substring
+         * \param end Posició següent a l'últim byte vàlid de pszWord
          * \param u2Code int que representa el codi del substring després de ser insertat al Trie
+         * \param u2MaxCode int que representa el primer codi que ja no es pot assignar
          */
-        public int Search_Insert(Node pNode, ByteArray pszWord, int u2Code) throws ByteArray.ByteArrayException {
+        public int Search_Insert(byte[] pszWord, int pos, int end, int u2Code, int u2MaxCode)
+        {
+            if(pos == end)
+            {
+                m_iPosition = pos;
+                return 0;
+            }
 
-            if(pszWord.remaining() == 0)
+            int first = pszWord[pos] & 0xFF;
+            int node = m_vRoot[first];
+            if(node == EMPTY)
             {
-                return pNode.GetCode();
+                if(u2Code < u2MaxCode) m_vRoot[first] = u2Code;
+                m_iPosition = pos;
+                return 0;
             }
-            byte next = pszWord.get();
-            Node pChildNode = pNode.SearchChildNode(next);
-            if (pChildNode == null)
+            pos++;
+
+            while(pos < end)
             {
-                if(u2Code < Short.MAX_VALUE)
+                long key = ((long)node << 8) | (pszWord[pos] & 0xFF);
+                int i = Slot(key);
+                long k;
+                while((k = m_vKeys[i]) != key && k != EMPTY) i = (i+1) & m_iMask;
+                if(k == EMPTY)
                 {
-                    pNode.AddChildNode(next, u2Code);
+                    if(u2Code < u2MaxCode)
+                    {
+                        m_vKeys[i] = key;
+                        m_vValues[i] = u2Code;
+                    }
+                    break;
                 }
-                //Move the inside pointer of input1 to the first byte that differs
-                //from the previous largest substring found, that is, one position behind.
-                pszWord.position(pszWord.position() - 1);
-                return pNode.GetCode();
+                node = m_vValues[i];
+                pos++;
             }
-            return Search_Insert(pChildNode,pszWord,u2Code);
+            m_iPosition = pos;
+            return node;
+        }
+
+        /**
+         * @brief Obtenir la posició de l'última cerca
+         * \pre S'ha fet una cerca amb Search_Insert
+         * \post Retorna la posició següent a l'últim byte del substring trobat en l'última cerca, és a dir, el primer byte que no hi coincideix
+         */
+        public final int GetPosition()
+        {
+            return m_iPosition;
         }
     }